@@ -13,7 +13,8 @@ CREATE TABLE IF NOT EXISTS Player(
 
 CREATE TABLE IF NOT EXISTS Auth(
     Login VARCHAR(50) PRIMARY KEY, 
-    Token VARCHAR(255) NOT NULL 
+    Token VARCHAR(255) NOT NULL,
+    Generation INTEGER NOT NULL DEFAULT 0
 );
 
 CREATE TABLE IF NOT EXISTS Team(
@@ -81,7 +82,9 @@ CREATE TABLE IF NOT EXISTS Event(
     NextEventId INTEGER,
     FOREIGN KEY (EventOwner) REFERENCES Player (Login)
         ON UPDATE CASCADE,
-    PRIMARY KEY(EventId)
+    PRIMARY KEY(EventId),
+    INDEX `idx_event_owner` (`EventOwner`, `StartDate`, `EndDate`),
+    INDEX `idx_event_start` (`StartDate`, `EndDate`)
 );
 
 ALTER TABLE `Event`
@@ -102,7 +105,8 @@ CREATE TABLE IF NOT EXISTS TeamEvent(
         FOREIGN KEY (TeamId) REFERENCES Team (TeamId)
         ON UPDATE CASCADE 
         ON DELETE CASCADE, 
-    PRIMARY KEY (EventId, TeamId)
+    PRIMARY KEY (EventId, TeamId),
+    INDEX `idx_teamevent_team` (`TeamId`, `EventId`)
 );
 
 CREATE TABLE IF NOT EXISTS PlayerEvent(
@@ -114,7 +118,8 @@ CREATE TABLE IF NOT EXISTS PlayerEvent(
         FOREIGN KEY (Login) REFERENCES Player (Login)
         ON UPDATE CASCADE
         ON DELETE CASCADE, 
-    PRIMARY KEY (EventId, Login)
+    PRIMARY KEY (EventId, Login),
+    INDEX `idx_playerevent_login` (`Login`, `EventId`)
 );
 
 CREATE TABLE IF NOT EXISTS AlertJob(
@@ -23,3 +23,20 @@ CREATE TABLE IF NOT EXISTS `SoccerTime` (
   `end` BIGINT NOT NULL DEFAULT -1,
   PRIMARY KEY (`eventID`)
 );
+
+CREATE TABLE IF NOT EXISTS `SoccerSeasonStats` (
+  `season` INT NOT NULL,
+  `teamID` INT NOT NULL,
+  `player` VARCHAR(50) NOT NULL,
+  `goals` INT NOT NULL DEFAULT 0,
+  `shots` INT NOT NULL DEFAULT 0,
+  `shotsongoal` INT NOT NULL DEFAULT 0,
+  `assists` INT NOT NULL DEFAULT 0,
+  `goalsagainst` INT NOT NULL DEFAULT 0,
+  `minutes` INT NOT NULL DEFAULT 0,
+  `fouls` INT NOT NULL DEFAULT 0,
+  `red` INT NOT NULL DEFAULT 0,
+  `yellow` INT NOT NULL DEFAULT 0,
+  `saves` INT NOT NULL DEFAULT 0,
+  PRIMARY KEY (`teamID`, `player`, `season`),
+  INDEX `idx_soccerseasonstats_player` (`player`));
@@ -1,6 +1,7 @@
 CREATE TABLE IF NOT EXISTS `StatSessions` (
   `eventID` INT NOT NULL,
   `sessionID` VARCHAR(255),
+  `version` BIGINT NOT NULL DEFAULT 0,
   PRIMARY KEY (`eventID`)
 );
 
@@ -9,4 +10,55 @@ CREATE TABLE IF NOT EXISTS `Passing` (
   `to` VARCHAR(50) NOT NULL,
   `eventID` INT NOT NULL,
   `passes` INT NOT NULL,
-  PRIMARY KEY (`from`, `to`, `eventID`));
+  PRIMARY KEY (`from`, `to`, `eventID`),
+  INDEX `idx_passing_to` (`to`, `from`));
+
+CREATE TABLE IF NOT EXISTS `StatEvent` (
+  `seq` BIGINT NOT NULL AUTO_INCREMENT,
+  `eventID` INT NOT NULL,
+  `type` VARCHAR(20) NOT NULL,
+  `payload` TEXT NOT NULL,
+  `ts` BIGINT NOT NULL,
+  PRIMARY KEY (`seq`),
+  INDEX `idx_statevent_event` (`eventID`, `seq`));
+
+CREATE TABLE IF NOT EXISTS `IdempotencyKeys` (
+  `eventID` INT NOT NULL,
+  `login` VARCHAR(50) NOT NULL,
+  `idemKey` VARCHAR(64) NOT NULL,
+  `response` TEXT,
+  `created` BIGINT NOT NULL,
+  `fingerprint` CHAR(64) NOT NULL DEFAULT '',
+  PRIMARY KEY (`eventID`, `login`, `idemKey`),
+  INDEX `idx_idempotencykeys_created` (`created`));
+
+CREATE TABLE IF NOT EXISTS `SeasonEvents` (
+  `eventID` INT NOT NULL,
+  `season` INT NOT NULL,
+  PRIMARY KEY (`eventID`));
+
+CREATE TABLE IF NOT EXISTS `Standings` (
+  `tournamentID` INT NOT NULL,
+  `teamID` INT NOT NULL,
+  `place` INT NOT NULL,
+  `points` INT NOT NULL DEFAULT 0,
+  `wins` INT NOT NULL DEFAULT 0,
+  `ties` INT NOT NULL DEFAULT 0,
+  `losses` INT NOT NULL DEFAULT 0,
+  `scoreFor` INT NOT NULL DEFAULT 0,
+  `scoreAgainst` INT NOT NULL DEFAULT 0,
+  PRIMARY KEY (`tournamentID`, `teamID`),
+  INDEX `idx_standings_place` (`tournamentID`, `place`));
+
+CREATE TABLE IF NOT EXISTS `StandingsResults` (
+  `eventID` INT NOT NULL,
+  `tournamentID` INT NOT NULL,
+  `teamID` INT NOT NULL,
+  `points` INT NOT NULL DEFAULT 0,
+  `wins` INT NOT NULL DEFAULT 0,
+  `ties` INT NOT NULL DEFAULT 0,
+  `losses` INT NOT NULL DEFAULT 0,
+  `scoreFor` INT NOT NULL DEFAULT 0,
+  `scoreAgainst` INT NOT NULL DEFAULT 0,
+  PRIMARY KEY (`eventID`, `teamID`),
+  INDEX `idx_standingsresults_tournament` (`tournamentID`));
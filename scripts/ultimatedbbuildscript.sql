@@ -12,3 +12,19 @@ CREATE TABLE IF NOT EXISTS `UltimateTeamStats` (
   `teamID` INT NOT NULL,
   `pointsagainst` INT NOT NULL DEFAULT 0,
   PRIMARY KEY (`eventID`, `teamID`));
+
+CREATE TABLE IF NOT EXISTS `UltimateSeasonStats` (
+  `season` INT NOT NULL,
+  `teamID` INT NOT NULL,
+  `player` VARCHAR(50) NOT NULL,
+  `pointsreceived` INT NOT NULL DEFAULT 0,
+  `pointsthrown` INT NOT NULL DEFAULT 0,
+  `fouls` INT NOT NULL DEFAULT 0,
+  PRIMARY KEY (`teamID`, `player`, `season`),
+  INDEX `idx_ultimateseasonstats_player` (`player`));
+
+CREATE TABLE IF NOT EXISTS `UltimateTeamSeasonStats` (
+  `season` INT NOT NULL,
+  `teamID` INT NOT NULL,
+  `pointsagainst` INT NOT NULL DEFAULT 0,
+  PRIMARY KEY (`teamID`, `season`));
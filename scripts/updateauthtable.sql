@@ -0,0 +1,2 @@
+ALTER TABLE `Auth`
+ADD COLUMN `Generation` INT NOT NULL DEFAULT 0;
@@ -0,0 +1,9 @@
+ALTER TABLE `Event`
+ADD INDEX `idx_event_owner` (`EventOwner`, `StartDate`, `EndDate`),
+ADD INDEX `idx_event_start` (`StartDate`, `EndDate`);
+
+ALTER TABLE `TeamEvent`
+ADD INDEX `idx_teamevent_team` (`TeamId`, `EventId`);
+
+ALTER TABLE `PlayerEvent`
+ADD INDEX `idx_playerevent_login` (`Login`, `EventId`);
@@ -0,0 +1,2 @@
+ALTER TABLE `IdempotencyKeys`
+ADD COLUMN `fingerprint` CHAR(64) NOT NULL DEFAULT '';
@@ -0,0 +1,2 @@
+ALTER TABLE `Passing`
+ADD INDEX `idx_passing_to` (`to`, `from`);
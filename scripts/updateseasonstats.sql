@@ -0,0 +1,72 @@
+CREATE TABLE IF NOT EXISTS `SeasonEvents` (
+  `eventID` INT NOT NULL,
+  `season` INT NOT NULL,
+  PRIMARY KEY (`eventID`));
+
+CREATE TABLE IF NOT EXISTS `SoccerSeasonStats` (
+  `season` INT NOT NULL,
+  `teamID` INT NOT NULL,
+  `player` VARCHAR(50) NOT NULL,
+  `goals` INT NOT NULL DEFAULT 0,
+  `shots` INT NOT NULL DEFAULT 0,
+  `shotsongoal` INT NOT NULL DEFAULT 0,
+  `assists` INT NOT NULL DEFAULT 0,
+  `goalsagainst` INT NOT NULL DEFAULT 0,
+  `minutes` INT NOT NULL DEFAULT 0,
+  `fouls` INT NOT NULL DEFAULT 0,
+  `red` INT NOT NULL DEFAULT 0,
+  `yellow` INT NOT NULL DEFAULT 0,
+  `saves` INT NOT NULL DEFAULT 0,
+  PRIMARY KEY (`teamID`, `player`, `season`),
+  INDEX `idx_soccerseasonstats_player` (`player`));
+
+CREATE TABLE IF NOT EXISTS `UltimateSeasonStats` (
+  `season` INT NOT NULL,
+  `teamID` INT NOT NULL,
+  `player` VARCHAR(50) NOT NULL,
+  `pointsreceived` INT NOT NULL DEFAULT 0,
+  `pointsthrown` INT NOT NULL DEFAULT 0,
+  `fouls` INT NOT NULL DEFAULT 0,
+  PRIMARY KEY (`teamID`, `player`, `season`),
+  INDEX `idx_ultimateseasonstats_player` (`player`));
+
+CREATE TABLE IF NOT EXISTS `UltimateTeamSeasonStats` (
+  `season` INT NOT NULL,
+  `teamID` INT NOT NULL,
+  `pointsagainst` INT NOT NULL DEFAULT 0,
+  PRIMARY KEY (`teamID`, `season`));
+
+-- backfill the totals of every event without an active session, as SeasonStats.recompute does
+START TRANSACTION;
+
+SELECT eventID FROM StatSessions FOR UPDATE;
+
+DELETE FROM SeasonEvents;
+DELETE FROM SoccerSeasonStats;
+DELETE FROM UltimateSeasonStats;
+DELETE FROM UltimateTeamSeasonStats;
+
+INSERT INTO SeasonEvents (eventID, season)
+SELECT s.eventID, IFNULL(MAX(YEAR(FROM_UNIXTIME(e.StartDate / 1000))), 0) FROM (
+  SELECT eventID FROM SoccerStats UNION SELECT eventID FROM UltimateStats UNION SELECT eventID FROM UltimateTeamStats) s
+LEFT JOIN Event e ON e.EventId = s.eventID
+WHERE s.eventID NOT IN (SELECT eventID FROM StatSessions) GROUP BY s.eventID;
+
+INSERT INTO SoccerSeasonStats (season, teamID, player, goals, shots, shotsongoal, assists, goalsagainst, saves,
+  fouls, yellow, red, minutes)
+SELECT se.season, r.teamID, r.player, SUM(r.goals), SUM(r.shots), SUM(r.shotsongoal), SUM(r.assists),
+  SUM(r.goalsagainst), SUM(r.saves), SUM(r.fouls), SUM(r.yellow), SUM(r.red), SUM(r.minutes)
+FROM SoccerStats r INNER JOIN SeasonEvents se ON se.eventID = r.eventID
+GROUP BY se.season, r.teamID, r.player;
+
+INSERT INTO UltimateSeasonStats (season, teamID, player, pointsthrown, pointsreceived, fouls)
+SELECT se.season, r.teamID, r.player, SUM(r.pointsthrown), SUM(r.pointsreceived), SUM(r.fouls)
+FROM UltimateStats r INNER JOIN SeasonEvents se ON se.eventID = r.eventID
+GROUP BY se.season, r.teamID, r.player;
+
+INSERT INTO UltimateTeamSeasonStats (season, teamID, pointsagainst)
+SELECT se.season, r.teamID, SUM(r.pointsagainst)
+FROM UltimateTeamStats r INNER JOIN SeasonEvents se ON se.eventID = r.eventID
+GROUP BY se.season, r.teamID;
+
+COMMIT;
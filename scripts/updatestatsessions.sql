@@ -0,0 +1,2 @@
+ALTER TABLE `StatSessions`
+ADD COLUMN `version` BIGINT NOT NULL DEFAULT 0;
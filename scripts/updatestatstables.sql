@@ -1,6 +1,7 @@
 CREATE TABLE IF NOT EXISTS `StatSessions` (
   `eventID` INT NOT NULL,
   `sessionID` VARCHAR(255),
+  `version` BIGINT NOT NULL DEFAULT 0,
   PRIMARY KEY (`eventID`)
 );
 
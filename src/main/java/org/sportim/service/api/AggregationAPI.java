@@ -11,6 +11,8 @@ import java.util.Set;
  * Interface that should be implemented by sports-specific aggregation APIs
  */
 public interface AggregationAPI {
+    /** Largest scorers leaderboard a league stats request can ask for */
+    public static final int MAX_TOP_SCORERS = 100;
 
     /**
      * Delete an event's statistics
@@ -42,11 +44,12 @@ public interface AggregationAPI {
     public TeamStatsBean getTeamStats(int teamID);
 
     /**
-     * Get a league's statistics
+     * Get a league's statistics, with its top scorers
      * @param leagueID the league ID
+     * @param topScorers the number of players on the scorers leaderboard, at most {@link #MAX_TOP_SCORERS}
      * @return the LeagueStatsBean or null if the league wasn't found.
      */
-    public LeagueStatsBean getLeagueStats(int leagueID);
+    public LeagueStatsBean getLeagueStats(int leagueID, int topScorers);
 
     /**
      * Find the winning team for an event
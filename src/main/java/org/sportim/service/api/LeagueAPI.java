@@ -7,6 +7,8 @@ import org.sportim.service.util.SportType;
 import org.sportim.service.util.*;
 
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.SecurityContext;
 import java.sql.*;
 import java.util.*;
 
@@ -31,13 +33,13 @@ public class LeagueAPI {
 
     /**
      * GET request for getting the Leagues for a current user
-     * @param token
+     * @param security
      * @return
      */
     @GET
     @Produces("application/json")
-    public ResponseBean getLeaguesForCurrentUser(@HeaderParam("token") final String token) {
-        String user = AuthenticationUtil.validateToken(token);
+    public ResponseBean getLeaguesForCurrentUser(@Context final SecurityContext security) {
+        String user = UserPrincipal.getLogin(security.getUserPrincipal());
         if (user == null) {
             return new ResponseBean(401, "Not authorized");
         }
@@ -75,16 +77,16 @@ public class LeagueAPI {
     /**
      * Get a league, given a league ID
      * @param leagueId
-     * @param token
+     * @param security
      * @return
      */
     @GET
     @Path("{id}")
     @Produces("application/json")
-    public ResponseBean getLeague(@PathParam("id") final int leagueId, @HeaderParam("token") final String token)
+    public ResponseBean getLeague(@PathParam("id") final int leagueId, @Context final SecurityContext security)
     {
         // any user can see league info
-        if (AuthenticationUtil.validateToken(token) == null) {
+        if (security.getUserPrincipal() == null) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -152,15 +154,15 @@ public class LeagueAPI {
     /**
      * Create a league (redirects to createDBLeague method)
      * @param league
-     * @param token
+     * @param security
      * @return
      */
     @POST
     @Consumes("application/json")
     @Produces("application/json")
-    public ResponseBean createLeague(LeagueBean league, @HeaderParam("token") final String token) {
+    public ResponseBean createLeague(LeagueBean league, @Context final SecurityContext security) {
         // only the to-be owner can create a league
-        String user = AuthenticationUtil.validateToken(token);
+        String user = UserPrincipal.getLogin(security.getUserPrincipal());
         if (user == null) {
             return new ResponseBean(401, "Not authorized");
         }
@@ -216,6 +218,9 @@ public class LeagueAPI {
             APIUtils.closeResource(conn);
         }
 
+        if (leagueID > 0) {
+            PrivilegeUtil.invalidateLeague(leagueID);
+        }
         ResponseBean resp = new ResponseBean(status, message);
         resp.setId(leagueID);
         return resp;
@@ -225,16 +230,16 @@ public class LeagueAPI {
      * Put method to add a team to a league
      * @param teamId
      * @param leagueId
-     * @param token
+     * @param security
      * @return
      */
     @PUT
     @Path("{leagueId}/add")
     @Produces("application/json")
     public ResponseBean addTeamToLeague(@QueryParam("teamId") final int teamId, @PathParam("leagueId") final int leagueId,
-                                        @HeaderParam("token") final String token)
+                                        @Context final SecurityContext security)
     {
-        if (!PrivilegeUtil.hasLeagueUpdate(token, leagueId)) {
+        if (!PrivilegeUtil.hasLeagueUpdate(security.getUserPrincipal(), leagueId)) {
              return new ResponseBean(401, "Not authorized");
         }
 
@@ -298,6 +303,9 @@ public class LeagueAPI {
         } finally {
             APIUtils.closeResources(stmt, conn);
         }
+        if (status == 200) {
+            PrivilegeUtil.invalidateLeague(leagueId);
+        }
         return new ResponseBean(status, message);
     }
 
@@ -305,7 +313,7 @@ public class LeagueAPI {
      * Update a league
      * @param league
      * @param id
-     * @param token
+     * @param security
      * @return
      */
     @PUT
@@ -313,23 +321,23 @@ public class LeagueAPI {
     @Consumes("application/json")
     @Produces("application/json")
     public ResponseBean updateLeague(LeagueBean league, @PathParam("id") final int id,
-                                     @HeaderParam("token") final String token) {
+                                     @Context final SecurityContext security) {
         league.setId(id);
-        return updateLeague(league, token);
+        return updateLeague(league, security);
     }
 
     /**
      * Update a league given league bean
      * @param league
-     * @param token
+     * @param security
      * @return
      */
     @PUT
     @Consumes("application/json")
     @Produces("application/json")
-    public ResponseBean updateLeague(LeagueBean league, @HeaderParam("token") final String token) {
-        String user = AuthenticationUtil.validateToken(token);
-        if (!PrivilegeUtil.hasLeagueUpdate(token, league.getId())) {
+    public ResponseBean updateLeague(LeagueBean league, @Context final SecurityContext security) {
+        String user = UserPrincipal.getLogin(security.getUserPrincipal());
+        if (!PrivilegeUtil.hasLeagueUpdate(security.getUserPrincipal(), league.getId())) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -378,21 +386,23 @@ public class LeagueAPI {
         } finally {
             APIUtils.closeResources(stmt, conn);
         }
-
+        if (status == 200) {
+            PrivilegeUtil.invalidateLeague(league.getId());
+        }
         return new ResponseBean(status, message);
     }
 
     /**
      * Delete League
      * @param id
-     * @param token
+     * @param security
      * @return
      */
     @DELETE
     @Path("{id}")
     @Produces("application/json")
-    public ResponseBean deleteLeague(@PathParam("id") final int id, @HeaderParam("token") final String token) {
-        if (!PrivilegeUtil.hasLeagueUpdate(token, id)) {
+    public ResponseBean deleteLeague(@PathParam("id") final int id, @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasLeagueUpdate(security.getUserPrincipal(), id)) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -418,6 +428,7 @@ public class LeagueAPI {
         } finally {
             APIUtils.closeResources(stmt, conn);
         }
+        PrivilegeUtil.invalidateLeague(id);
         return new ResponseBean(status, message);
     }
 
@@ -425,15 +436,15 @@ public class LeagueAPI {
      * Remove team from league
      * @param leagueId
      * @param teamId
-     * @param token
+     * @param security
      * @return
      */
     @DELETE
     @Produces("application/json")
     public ResponseBean removeTeamFromLeague(@QueryParam("leagueId") final int leagueId,
                                              @QueryParam("teamId") final int teamId,
-                                             @HeaderParam("token") final String token) {
-        if (!PrivilegeUtil.hasLeagueUpdate(token, leagueId)) {
+                                             @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasLeagueUpdate(security.getUserPrincipal(), leagueId)) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -466,6 +477,7 @@ public class LeagueAPI {
             APIUtils.closeResource(stmt);
             APIUtils.closeResource(conn);
         }
+        PrivilegeUtil.invalidateLeague(leagueId);
         return new ResponseBean(status, message);
     }
 
@@ -473,7 +485,7 @@ public class LeagueAPI {
      * When creating schedule, create league on league table
      * @param table
      * @param leagueId
-     * @param token
+     * @param security
      * @return
      */
     @POST
@@ -481,8 +493,8 @@ public class LeagueAPI {
     @Consumes("application/json")
     @Produces("application/json")
     public ResponseBean addLeagueTable(TournamentBean table, @PathParam("id") final int leagueId,
-                                       @HeaderParam("token") final String token) {
-        if (!PrivilegeUtil.hasLeagueUpdate(token, leagueId)) {
+                                       @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasLeagueUpdate(security.getUserPrincipal(), leagueId)) {
             return new ResponseBean(401, "Not authorized");
         }
         if (leagueId < 1 || table.getTournamentId() < 1 || table.getDesc() == null || table.getDesc().isEmpty()) {
@@ -516,14 +528,14 @@ public class LeagueAPI {
     /**
      * Get League Table
      * @param leagueId
-     * @param token
+     * @param security
      * @return
      */
     @GET
     @Path("{id}/table")
     @Produces("application/json")
-    public ResponseBean getLeagueTables(@PathParam("id") final int leagueId, @HeaderParam("token") final String token) {
-        if ((AuthenticationUtil.validateToken(token)) == null) {
+    public ResponseBean getLeagueTables(@PathParam("id") final int leagueId, @Context final SecurityContext security) {
+        if (security.getUserPrincipal() == null) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -568,25 +580,18 @@ public class LeagueAPI {
      * Get League Results to display on table
      * @param leagueID
      * @param tableID
-     * @param token
+     * @param security
      * @return
      */
     @GET
     @Path("{leagueID}/table/{tableID}")
     @Produces("application/json")
     public ResponseBean getTableResults(@PathParam("leagueID") final int leagueID, @PathParam("tableID") final int tableID,
-                                        @HeaderParam("token") final String token) {
-        if (AuthenticationUtil.validateToken(token) == null) {
+                                        @Context final SecurityContext security) {
+        if (security.getUserPrincipal() == null) {
             return new ResponseBean(401, "Not authorized");
         }
 
-        List<Integer> events = (new TournamentAPI(provider)).getEventsForTournament(tableID);
-        if (events == null) {
-            ResponseBean resp = new ResponseBean(200, "");
-            resp.setTournamentResults(new TreeSet<AbstractTeamResultsBean>());
-            return resp;
-        }
-
         // Get the table from the correct results plug in
         Connection conn = null;
         PreparedStatement stmt = null;
@@ -614,10 +619,11 @@ public class LeagueAPI {
             return new ResponseBean(500, "Unable to get league table results.");
         }
 
-        SortedSet<AbstractTeamResultsBean> table;
-        TableAPI api = apiMapper.getTableAPI(SportType.fromString(sport));
+        List<AbstractTeamResultsBean> table;
+        SportType sportType = SportType.fromString(sport);
+        TableAPI api = apiMapper.getTableAPI(sportType);
         if (api != null) {
-            table = api.getTableForEvents(events);
+            table = Standings.get(tableID, sportType, api);
         } else {
             return new ResponseBean(400, "Unable to get table results for a league with an unsupported type.");
         }
@@ -635,15 +641,15 @@ public class LeagueAPI {
      * Delete League Table
      * @param leagueId
      * @param tableId
-     * @param token
+     * @param security
      * @return
      */
     @DELETE
     @Path("{id}/table")
     @Produces("application/json")
     public ResponseBean deleteLeagueTable(@PathParam("id") final int leagueId, @QueryParam("tableId") final int tableId,
-                                          @HeaderParam("token") final String token) {
-        if (!PrivilegeUtil.hasLeagueUpdate(token, leagueId)) {
+                                          @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasLeagueUpdate(security.getUserPrincipal(), leagueId)) {
             return new ResponseBean(401, "Not authorized");
         }
         if (leagueId < 1 || tableId < 1) {
@@ -655,14 +661,23 @@ public class LeagueAPI {
         boolean ok = false;
         try {
             conn = provider.getConnection();
+            conn.setAutoCommit(false);
             stmt = conn.prepareStatement("DELETE FROM LeagueTable WHERE LeagueId = ? AND TournamentId = ?");
             stmt.setInt(1, leagueId);
             stmt.setInt(2, tableId);
             ok = stmt.executeUpdate() > 0;
+            if (ok) {
+                // the table's stored standings are rebuilt if it is read again
+                Standings.drop(tableId, conn);
+            }
+            conn.commit();
         } catch (Exception e) {
             logger.error("Unable to delete league table" + e.getMessage());
             logger.debug(APIUtils.getStacktraceAsString(e));
+            APIUtils.rollback(conn);
+            ok = false;
         } finally {
+            APIUtils.setAutoCommit(conn, true);
             APIUtils.closeResources(stmt, conn);
         }
 
@@ -6,8 +6,11 @@ import org.sportim.service.beans.ResponseBean;
 import org.sportim.service.beans.UserBean;
 import org.sportim.service.util.APIUtils;
 import org.sportim.service.util.AuthenticationUtil;
+import org.sportim.service.util.UserPrincipal;
 
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.SecurityContext;
 
 /**
  * API for authenticating users
@@ -42,11 +45,20 @@ public class LoginAPI {
     @Path("/validate")
     @Produces("application/json")
     @Consumes("application/json")
-    public ResponseBean validateToken(@HeaderParam("token") String token, UserBean user) {
-        String tokenUser = AuthenticationUtil.validateToken(token);
+    public ResponseBean validateToken(@Context SecurityContext security, UserBean user) {
+        String tokenUser = UserPrincipal.getLogin(security.getUserPrincipal());
         if (tokenUser == null || !tokenUser.equals(user.getLogin())) {
             return new ResponseBean(401, "Invalid token");
         }
         return new ResponseBean(200, "Valid token");
     }
+
+    @DELETE
+    @Produces("application/json")
+    public ResponseBean logout(@HeaderParam("token") String token) {
+        if (!AuthenticationUtil.removeToken(token)) {
+            return new ResponseBean(401, "Invalid token");
+        }
+        return new ResponseBean(200, "");
+    }
 }
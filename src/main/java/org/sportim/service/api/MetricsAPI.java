@@ -0,0 +1,37 @@
+package org.sportim.service.api;
+
+import org.sportim.service.beans.ResponseBean;
+import org.sportim.service.util.ConnectionManager;
+import org.sportim.service.util.PrivilegeUtil;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.SecurityContext;
+
+/**
+ * API for connection pool and query metrics. The same metrics are available over JMX
+ * as org.sportim.service:type=ConnectionMetrics.
+ *
+ * The metrics include SQL statement text, so only logins listed in SERVICE_OPERATORS can
+ * read them here. With none configured, they are only available over JMX.
+ */
+@Path("/metrics")
+public class MetricsAPI {
+
+    /**
+     * Get a snapshot of the connection pool and query metrics
+     * @param security the request's security context
+     * @return ResponseBean with the status and metrics
+     */
+    @GET
+    @Produces("application/json")
+    public ResponseBean getMetrics(@Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasOperatorAccess(security.getUserPrincipal())) {
+            return new ResponseBean(401, "Not authorized");
+        }
+
+        ResponseBean resp = new ResponseBean(200, "");
+        resp.setMetrics(ConnectionManager.getInstance().getMetrics().snapshot());
+        return resp;
+    }
+}
@@ -5,12 +5,14 @@ import org.joda.time.DateTime;
 import org.sportim.service.beans.EventBean;
 import org.sportim.service.beans.ResponseBean;
 import org.sportim.service.util.APIUtils;
-import org.sportim.service.util.AuthenticationUtil;
 import org.sportim.service.util.ConnectionManager;
 import org.sportim.service.util.ConnectionProvider;
+import org.sportim.service.util.UserPrincipal;
 
 import javax.naming.InitialContext;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.SecurityContext;
 import java.sql.*;
 import java.util.*;
 
@@ -21,6 +23,24 @@ import java.util.*;
 @Path("/events")
 public class MultiEventAPI {
     private static Logger logger = Logger.getLogger(MultiEventAPI.class.getName());
+    private static final String EVENT_COLUMNS = "SELECT e.EventName, e.StartDate, e.EndDate, e.TournamentId, e.EventId, " +
+            "e.EventOwner, e.NextEventId, e.Location, e.EventType ";
+    private static final String IN_RANGE = " AND e.StartDate < ? AND e.EndDate > ?";
+
+    /**
+     * A user's events in a range: ones they own, ones they were added to and ones their teams play in.
+     * Each route is its own indexed lookup, and UNION drops events reached by more than one.
+     */
+    private static final String EVENT_RANGE_QUERY =
+            EVENT_COLUMNS + "FROM Event e WHERE e.EventOwner = ?" + IN_RANGE +
+            " UNION " +
+            EVENT_COLUMNS + "FROM PlayerEvent pe INNER JOIN Event e ON e.EventId = pe.EventId " +
+            "WHERE pe.Login = ?" + IN_RANGE +
+            " UNION " +
+            EVENT_COLUMNS + "FROM PlaysFor pf INNER JOIN TeamEvent te ON te.TeamId = pf.TeamId " +
+            "INNER JOIN Event e ON e.EventId = te.EventId WHERE pf.Login = ?" + IN_RANGE +
+            " ORDER BY StartDate, EventId";
+
     private ConnectionProvider provider;
 
     public MultiEventAPI() {
@@ -34,8 +54,8 @@ public class MultiEventAPI {
     @POST
     @Consumes("application/json")
     @Produces("application/json")
-    public ResponseBean batchPostEvents(List<EventBean> events, @HeaderParam("token") final String token) {
-        String user = AuthenticationUtil.validateToken(token);
+    public ResponseBean batchPostEvents(List<EventBean> events, @Context final SecurityContext security) {
+        String user = UserPrincipal.getLogin(security.getUserPrincipal());
         if (user == null) {
             return new ResponseBean(401, "Not authorized");
         }
@@ -74,15 +94,15 @@ public class MultiEventAPI {
      * Get request for events with a date range
      * @param start
      * @param end
-     * @param token
+     * @param security
      * @return
      */
     @GET
     @Produces("application/json")
     public ResponseBean getEventsForRange(@QueryParam(value = "start") final String start,
                                           @QueryParam(value = "end") final String end,
-                                          @HeaderParam(value = "token") final String token) {
-        String user = AuthenticationUtil.validateToken(token);
+                                          @Context final SecurityContext security) {
+        String user = UserPrincipal.getLogin(security.getUserPrincipal());
         if (user == null) {
             return new ResponseBean(401, "Not authorized");
         }
@@ -113,22 +133,19 @@ public class MultiEventAPI {
         List<EventBean> events = new LinkedList<EventBean>();
         try {
             conn = provider.getConnection();
-            Set<Integer> teams = getTeamsForUser(user, conn);
-            stmt = getEventQuery(teams, conn);
-            stmt.setLong(1, endTime.getMillis());
-            stmt.setLong(2, startTime.getMillis());
-            stmt.setString(3, user);
-            stmt.setString(4, user);
-            int i = 5;
-            for (int team : teams) {
-                stmt.setInt(i++, team);
+            stmt = conn.prepareStatement(EVENT_RANGE_QUERY);
+            // each membership route binds the user, then the range
+            for (int i = 0; i < 3; i++) {
+                stmt.setString(3 * i + 1, user);
+                stmt.setLong(3 * i + 2, endTime.getMillis());
+                stmt.setLong(3 * i + 3, startTime.getMillis());
             }
             rs = stmt.executeQuery();
 
             while(rs.next()) {
                 EventBean e = new EventBean(rs);
-                e.setLocation(rs.getString("e.Location"));
-                e.setType(rs.getString("e.EventType"));
+                e.setLocation(rs.getString(8));
+                e.setType(rs.getString(9));
                 if (user.equals(e.getOwner())) {
                     e.setEditable(true);
                 }
@@ -152,51 +169,4 @@ public class MultiEventAPI {
         resp.setEvents(events);
         return resp;
     }
-
-    private static PreparedStatement getEventQuery(Set<Integer> teams, Connection conn) throws SQLException {
-        String query = "SELECT DISTINCT e.EventName, e.StartDate, e.EndDate, e.TournamentId, e.EventId, e.EventOwner, e.NextEventId, e.Location, e.EventType " +
-                        "FROM Event e LEFT OUTER JOIN TeamEvent te ON te.EventId = e.EventId " +
-                        "LEFT OUTER JOIN PlayerEvent pe ON e.EventId = pe.EventId " +
-                        "WHERE StartDate < ? AND EndDate > ? AND (e.EventOwner = ? OR pe.Login = ?";
-        if (!teams.isEmpty()) {
-            query += " OR te.TeamId IN(" + params(teams.size()) + ")";
-        }
-        query += ")";
-        return conn.prepareStatement(query);
-    }
-
-    /**
-     * Helper method for building event query
-     * @param numParams
-     * @return
-     */
-    private static String params(int numParams) {
-        String ret = "";
-        for (int i = 0; i < numParams; i++) {
-            if (i > 0) {
-                ret += ",";
-            }
-            ret += "?";
-        }
-        return ret;
-    }
-
-    /**
-     * Get Teams a player plays for
-     * @param user
-     * @param conn
-     * @return
-     * @throws SQLException
-     */
-    private static Set<Integer> getTeamsForUser(String user, Connection conn) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("SELECT TeamId FROM PlaysFor WHERE Login = ?");
-        stmt.setString(1, user);
-        ResultSet rs = stmt.executeQuery();
-        Set<Integer> teams = new HashSet<Integer>();
-        while (rs.next()) {
-            teams.add(rs.getInt(1));
-        }
-        APIUtils.closeResources(rs, stmt);
-        return teams;
-    }
 }
@@ -0,0 +1,200 @@
+package org.sportim.service.api;
+
+import org.apache.log4j.Logger;
+import org.sportim.service.beans.ResponseBean;
+import org.sportim.service.beans.stats.PassGraphBean;
+import org.sportim.service.util.*;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.SecurityContext;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * API for passing network metrics. Only passes between two players on the same team
+ * are edges of that team's graph. See {@link org.sportim.service.util.PassGraph} for more info.
+ */
+@Path("/passing/graph")
+public class PassGraphAPI {
+    public static final int MAX_TOP_PASSES = 100;
+
+    private static Logger logger = Logger.getLogger(PassGraphAPI.class.getName());
+    private ConnectionProvider provider;
+
+    public PassGraphAPI() {
+        provider = ConnectionManager.getInstance();
+    }
+
+    public PassGraphAPI(ConnectionProvider provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * Get the passing networks of the teams in an event
+     * @param eventID path param, the event ID
+     * @param teamID query param, only return this team's network
+     * @param top query param, the number of heaviest passing pairs to return per team
+     * @param security the request's security context
+     * @return a ResponseBean with the event's passing networks
+     */
+    @GET
+    @Path("event/{eventID}")
+    @Produces("application/json")
+    public ResponseBean getEventPassGraphs(@PathParam("eventID") final int eventID, @QueryParam("teamID") final int teamID,
+                                           @QueryParam("top") @DefaultValue("10") final int top,
+                                           @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasEventView(security.getUserPrincipal(), eventID)) {
+            return new ResponseBean(401, "Not authorized");
+        }
+
+        Map<Integer, PassGraph> graphs = getEventPassGraphs(eventID);
+        if (graphs == null) {
+            return new ResponseBean(500, "Unable to retrieve passing network.");
+        }
+
+        int topPasses = Math.max(0, Math.min(top, MAX_TOP_PASSES));
+        List<PassGraphBean> beans = new ArrayList<PassGraphBean>();
+        if (teamID > 0) {
+            PassGraph graph = graphs.get(teamID);
+            if (graph == null) {
+                return new ResponseBean(400, "Team is not in this event");
+            }
+            beans.add(graph.toBean(topPasses));
+        } else {
+            for (PassGraph graph : graphs.values()) {
+                beans.add(graph.toBean(topPasses));
+            }
+        }
+
+        ResponseBean resp = new ResponseBean(200, "");
+        resp.setEventPassGraphs(beans);
+        return resp;
+    }
+
+    /**
+     * Get a team's passing network over all of its events, or one season's finished events
+     * @param teamID path param, the team ID
+     * @param season query param, the year of the events to include
+     * @param top query param, the number of heaviest passing pairs to return
+     * @param security the request's security context
+     * @return a ResponseBean with the team's passing network
+     */
+    @GET
+    @Path("team/{teamID}")
+    @Produces("application/json")
+    public ResponseBean getTeamPassGraph(@PathParam("teamID") final int teamID, @QueryParam("season") final int season,
+                                         @QueryParam("top") @DefaultValue("10") final int top,
+                                         @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasTeamView(security.getUserPrincipal(), teamID)) {
+            return new ResponseBean(401, "Not authorized");
+        }
+
+        PassGraph graph = getTeamPassGraph(teamID, season);
+        if (graph == null) {
+            return new ResponseBean(500, "Unable to retrieve passing network.");
+        }
+
+        ResponseBean resp = new ResponseBean(200, "");
+        resp.setTeamPassGraph(graph.toBean(Math.max(0, Math.min(top, MAX_TOP_PASSES))));
+        return resp;
+    }
+
+    /**
+     * Get the passing networks of the teams in an event, from the cache if the event has no active session
+     * @param eventID the event ID
+     * @return the networks keyed by team ID, or null on error
+     */
+    public Map<Integer, PassGraph> getEventPassGraphs(int eventID) {
+        Map<Integer, PassGraph> graphs = PassGraph.getCached(eventID);
+        if (graphs != null) {
+            return graphs;
+        }
+        long generation = PassGraph.getGeneration();
+
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        Map<Integer, PassGraph.Builder> builders = new LinkedHashMap<Integer, PassGraph.Builder>();
+        boolean active;
+        try {
+            conn = provider.getConnection();
+            stmt = conn.prepareStatement("SELECT eventID FROM StatSessions WHERE eventID = ?");
+            stmt.setInt(1, eventID);
+            rs = stmt.executeQuery();
+            active = rs.next();
+            APIUtils.closeResources(rs, stmt);
+
+            // every team in the event gets a graph, even one with no passes yet
+            stmt = conn.prepareStatement("SELECT t.TeamId, sp.from, sp.to, sp.passes FROM TeamEvent t " +
+                    "LEFT JOIN (Passing sp INNER JOIN PlaysFor f ON f.Login = sp.from " +
+                    "INNER JOIN PlaysFor r ON r.Login = sp.to AND r.TeamID = f.TeamID) " +
+                    "ON sp.eventID = t.EventId AND f.TeamID = t.TeamId " +
+                    "WHERE t.EventId = ?");
+            stmt.setInt(1, eventID);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                int teamID = rs.getInt(1);
+                PassGraph.Builder builder = builders.get(teamID);
+                if (builder == null) {
+                    builder = new PassGraph.Builder(teamID);
+                    builders.put(teamID, builder);
+                }
+                builder.add(rs.getString(2), rs.getString(3), rs.getInt(4));
+            }
+        } catch (Exception e) {
+            logger.error("Error getting event passing network: " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
+            return null;
+        } finally {
+            APIUtils.closeResources(rs, stmt, conn);
+        }
+
+        graphs = new LinkedHashMap<Integer, PassGraph>();
+        for (Map.Entry<Integer, PassGraph.Builder> builder : builders.entrySet()) {
+            graphs.put(builder.getKey(), builder.getValue().build());
+        }
+        if (!active) {
+            PassGraph.cache(eventID, graphs, generation);
+        }
+        return graphs;
+    }
+
+    private PassGraph getTeamPassGraph(final int teamID, final int season) {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        PassGraph.Builder builder = new PassGraph.Builder(teamID);
+        try {
+            conn = provider.getConnection();
+            // a season only counts events folded into the season stats, the same ones team stats count
+            stmt = conn.prepareStatement("SELECT sp.from, sp.to, SUM(sp.passes) FROM TeamEvent t " +
+                    (season > 0 ? "INNER JOIN SeasonEvents se ON se.eventID = t.EventId AND se.season = ? " : "") +
+                    "INNER JOIN Passing sp ON sp.eventID = t.EventId " +
+                    "INNER JOIN PlaysFor f ON f.TeamID = t.TeamId AND f.Login = sp.from " +
+                    "INNER JOIN PlaysFor r ON r.TeamID = t.TeamId AND r.Login = sp.to " +
+                    "WHERE t.TeamId = ? GROUP BY sp.from, sp.to");
+            int idx = 0;
+            if (season > 0) {
+                stmt.setInt(++idx, season);
+            }
+            stmt.setInt(++idx, teamID);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                builder.add(rs.getString(1), rs.getString(2), rs.getInt(3));
+            }
+        } catch (Exception e) {
+            logger.error("Error getting team passing network: " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
+            return null;
+        } finally {
+            APIUtils.closeResources(rs, stmt, conn);
+        }
+        return builder.build();
+    }
+}
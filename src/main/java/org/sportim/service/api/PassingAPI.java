@@ -8,12 +8,16 @@ import org.sportim.service.beans.stats.TeamPassingBean;
 import org.sportim.service.util.*;
 
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.SecurityContext;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 @Path("/pass")
 public class PassingAPI {
@@ -33,8 +37,8 @@ public class PassingAPI {
     @Consumes("application/json")
     @Produces("application/json")
     public ResponseBean postPass(final PassBean pass, @PathParam("eventID") final int eventID,
-                                 @HeaderParam("token") final String token, @HeaderParam("session") final String session) {
-        if (AuthenticationUtil.validateToken(token) == null) {
+                                 @Context final SecurityContext security, @HeaderParam("session") final String session) {
+        if (security.getUserPrincipal() == null) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -46,26 +50,11 @@ public class PassingAPI {
             return new ResponseBean(400, "Malformed request");
         }
 
-        boolean success = false;
-        Connection conn = null;
-        PreparedStatement stmt = null;
-        try {
-            conn = provider.getConnection();
-            stmt = conn.prepareStatement("INSERT INTO Passing (`to`, `from`, eventID, passes) VALUES (?, ?, ?, ?) " +
-                    "ON DUPLICATE KEY UPDATE passes = passes + 1");
-            stmt.setString(1, pass.to);
-            stmt.setString(2, pass.from);
-            stmt.setInt(3, eventID);
-            stmt.setInt(4, 1);
-            success = stmt.executeUpdate() > 0;
-        } catch (Exception e) {
-            logger.error("Error saving pass: " + e.getMessage());
-            logger.debug(APIUtils.getStacktraceAsString(e));
-        } finally {
-            APIUtils.closeResources(stmt, conn);
+        int recorded = StatLog.record(eventID, StatLog.PASS, pass);
+        if (recorded == StatLog.NO_SESSION) {
+            return new ResponseBean(400, "You must start a session before tracking any statistics");
         }
-
-        if (success) {
+        if (recorded > 0) {
             return new ResponseBean(200, "");
         }
         return new ResponseBean(500, "Unable to add pass");
@@ -74,9 +63,9 @@ public class PassingAPI {
     @GET
     @Produces("application/json")
     public ResponseBean getPassingStats(@QueryParam("player") final String player, @QueryParam("teamID") final int teamID,
-                                        @QueryParam("eventID") final int eventID, @HeaderParam("token") final String token) {
+                                        @QueryParam("eventID") final int eventID, @Context final SecurityContext security) {
         if (player != null) {
-            if (!PrivilegeUtil.hasUserView(token, player)) {
+            if (!PrivilegeUtil.hasUserView(security.getUserPrincipal(), player)) {
                 return new ResponseBean(401, "Not authorized");
             } else {
                 PlayerPassingBean passes = getPlayerPassingStats(player);
@@ -90,7 +79,7 @@ public class PassingAPI {
         }
 
         if (eventID > 0) {
-            if (!PrivilegeUtil.hasEventView(token, eventID)) {
+            if (!PrivilegeUtil.hasEventView(security.getUserPrincipal(), eventID)) {
                 return new ResponseBean(401, "Not authorized");
             } else {
                 List<TeamPassingBean> passes = getEventPassingStats(eventID);
@@ -104,7 +93,7 @@ public class PassingAPI {
         }
 
         if (teamID > 0) {
-            if (!PrivilegeUtil.hasTeamView(token, teamID)) {
+            if (!PrivilegeUtil.hasTeamView(security.getUserPrincipal(), teamID)) {
                 return new ResponseBean(401, "Not authorized");
             } else {
                 TeamPassingBean passes = getTeamPassingStats(teamID);
@@ -124,25 +113,25 @@ public class PassingAPI {
         Connection conn = null;
         PreparedStatement stmt = null;
         ResultSet rs = null;
-        List<TeamPassingBean> eventPasses = new ArrayList<TeamPassingBean>();
+        Map<Integer, TeamPassingBean> eventPasses = new LinkedHashMap<Integer, TeamPassingBean>();
         try {
             conn = provider.getConnection();
-            stmt = conn.prepareStatement("SELECT DISTINCT sp.to, sp.from, t.TeamId, sp.passes " +
+            // a pass counts for each team in the event that the passer or receiver plays for;
+            // EXISTS checks that with two primary key lookups instead of joining on an OR
+            stmt = conn.prepareStatement("SELECT sp.to, sp.from, t.TeamId, sp.passes " +
                     "FROM Passing sp INNER JOIN TeamEvent t ON sp.eventID = t.EventId " +
-                    "INNER JOIN PlaysFor pf ON pf.TeamId = t.TeamId AND (pf.Login = sp.from OR pf.Login = sp.to) " +
-                    "WHERE sp.eventID = ? ");
+                    "WHERE sp.eventID = ? AND EXISTS (SELECT 1 FROM PlaysFor pf " +
+                    "WHERE pf.TeamId = t.TeamId AND pf.Login IN (sp.from, sp.to))");
             stmt.setInt(1, eventID);
             rs = stmt.executeQuery();
 
             while (rs.next()) {
                 int teamID = rs.getInt(3);
                 int count = rs.getInt(4);
-                TeamPassingBean teamPasses = new TeamPassingBean(teamID);
-                int i = eventPasses.indexOf(teamPasses);
-                if (i >= 0) {
-                    teamPasses = eventPasses.get(i);
-                } else {
-                    eventPasses.add(teamPasses);
+                TeamPassingBean teamPasses = eventPasses.get(teamID);
+                if (teamPasses == null) {
+                    teamPasses = new TeamPassingBean(teamID);
+                    eventPasses.put(teamID, teamPasses);
                 }
                 teamPasses.totalPasses += count;
                 PassBean pass = new PassBean();
@@ -154,11 +143,11 @@ public class PassingAPI {
         } catch (Exception e) {
             logger.error("Error getting event passing stats: " + e.getMessage());
             logger.debug(APIUtils.getStacktraceAsString(e));
-            eventPasses = null;
+            return null;
         } finally {
             APIUtils.closeResources(rs, stmt, conn);
         }
-        return eventPasses;
+        return new ArrayList<TeamPassingBean>(eventPasses.values());
     }
 
     private PlayerPassingBean getPlayerPassingStats(final String player) {
@@ -168,11 +157,17 @@ public class PassingAPI {
         PlayerPassingBean passes = new PlayerPassingBean();
         try {
             conn = provider.getConnection();
+            // one index range read per direction; a pass to themselves comes back once, from the first
             stmt = conn.prepareStatement("SELECT Passing.to, Passing.from, passes " +
                     "FROM Passing " +
-                    "WHERE Passing.to = ? OR Passing.from = ?");
+                    "WHERE Passing.from = ? " +
+                    "UNION ALL " +
+                    "SELECT Passing.to, Passing.from, passes " +
+                    "FROM Passing " +
+                    "WHERE Passing.to = ? AND Passing.from <> ?");
             stmt.setString(1, player);
             stmt.setString(2, player);
+            stmt.setString(3, player);
             rs = stmt.executeQuery();
 
             passes.player = player;
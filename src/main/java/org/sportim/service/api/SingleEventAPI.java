@@ -5,6 +5,8 @@ import org.sportim.service.beans.*;
 import org.sportim.service.util.*;
 
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.SecurityContext;
 
 import java.sql.*;
 import java.util.*;
@@ -29,15 +31,15 @@ public class SingleEventAPI {
     /**
      * GET request to return the information of an event and associated information
      * @param id
-     * @param token
+     * @param security
      * @return
      */
     @GET
     @Path("{id}")
     @Produces("application/json")
-    public ResponseBean getEvent(@PathParam("id") final int id, @HeaderParam("token") final String token)
+    public ResponseBean getEvent(@PathParam("id") final int id, @Context final SecurityContext security)
 	{
-        if (!PrivilegeUtil.hasEventView(token, id)) {
+        if (!PrivilegeUtil.hasEventView(security.getUserPrincipal(), id)) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -65,7 +67,7 @@ public class SingleEventAPI {
                 event.setLocation(rs.getString("e.Location"));
                 event.setType(rs.getString("e.EventType"));
                 event.setSport(SportType.fromString(rs.getString("t.Sport")));
-                if (PrivilegeUtil.hasEventUpdate(token, id)) {
+                if (PrivilegeUtil.hasEventUpdate(security.getUserPrincipal(), id)) {
                     event.setEditable(true);
                 }
             }
@@ -120,14 +122,14 @@ public class SingleEventAPI {
     /**
      * POST request to create an event. Redirects to createDBEvent method
      * @param event
-     * @param token
+     * @param security
      * @return
      */
     @POST
     @Consumes("application/json")
     @Produces("application/json")
-    public ResponseBean createEvent(EventBean event, @HeaderParam("token") final String token) {
-        String user = AuthenticationUtil.validateToken(token);
+    public ResponseBean createEvent(EventBean event, @Context final SecurityContext security) {
+        String user = UserPrincipal.getLogin(security.getUserPrincipal());
         if (user == null) {
             return new ResponseBean(401, "Not authorized");
         }
@@ -139,7 +141,7 @@ public class SingleEventAPI {
      * PUT request for updating event (driver method when ID is provided)
      * @param event
      * @param id
-     * @param token
+     * @param security
      * @return
      */
     @PUT
@@ -147,22 +149,22 @@ public class SingleEventAPI {
     @Consumes("application/json")
     @Produces("application/json")
     public ResponseBean updateEvent(EventBean event, @PathParam("id") final int id,
-                                    @HeaderParam("token") final String token) {
+                                    @Context final SecurityContext security) {
         event.setId(id);
-        return updateEvent(event, token);
+        return updateEvent(event, security);
     }
 
     /**
      * PUT request for updating an event when an event bean is provided
      * @param event
-     * @param token
+     * @param security
      * @return
      */
     @PUT
     @Consumes("application/json")
     @Produces("application/json")
-    public ResponseBean updateEvent(EventBean event, @HeaderParam("token") final String token) {
-        if (!PrivilegeUtil.hasEventUpdate(token, event.getId())) {
+    public ResponseBean updateEvent(EventBean event, @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasEventUpdate(security.getUserPrincipal(), event.getId())) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -197,6 +199,8 @@ public class SingleEventAPI {
                     stmt = s;
                     s.executeBatch();
                 }
+                // the event may have moved tournaments or changed teams
+                Standings.dropEvent(event.getId(), conn);
             }
 
         } catch (SQLException e) {
@@ -208,21 +212,23 @@ public class SingleEventAPI {
             APIUtils.closeResource(stmt);
             APIUtils.closeResource(conn);
         }
-
+        if (status == 200) {
+            PrivilegeUtil.invalidateEvent(event.getId());
+        }
         return new ResponseBean(status, message);
     }
 
     /**
      * Delete request for deleting events
      * @param id
-     * @param token
+     * @param security
      * @return
      */
     @DELETE
     @Path("{id}")
     @Produces("application/json")
-    public ResponseBean deleteEvent(@PathParam("id") final int id, @HeaderParam("token") final String token) {
-        if (!PrivilegeUtil.hasEventUpdate(token, id)) {
+    public ResponseBean deleteEvent(@PathParam("id") final int id, @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasEventUpdate(security.getUserPrincipal(), id)) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -232,22 +238,29 @@ public class SingleEventAPI {
         PreparedStatement stmt = null;
         try {
             conn = provider.getConnection();
+            conn.setAutoCommit(false);
             stmt = conn.prepareStatement("DELETE FROM Event WHERE EventId = ?");
             stmt.setInt(1, id);
             int res = stmt.executeUpdate();
             if (res < 1) {
                 status = 404;
                 message = "Event with ID " + id + " does not exist.";
+            } else {
+                Standings.dropEvent(id, conn);
             }
+            conn.commit();
         } catch (SQLException e) {
             status = 500;
             message = "Unable to delete event. SQL Error.";
             logger.error(message + ": " + e.getMessage());
             logger.debug(APIUtils.getStacktraceAsString(e));
+            APIUtils.rollback(conn);
         } finally {
             APIUtils.closeResource(stmt);
+            APIUtils.setAutoCommit(conn, true);
             APIUtils.closeResource(conn);
         }
+        PrivilegeUtil.invalidateEvent(id);
         return new ResponseBean(status, message);
     }
 
@@ -348,6 +361,9 @@ public class SingleEventAPI {
             APIUtils.closeResource(conn);
         }
 
+        if (eventID > 0) {
+            PrivilegeUtil.invalidateEvent(eventID);
+        }
         ResponseBean resp = new ResponseBean(status, message);
         resp.setId(eventID);
         return resp;
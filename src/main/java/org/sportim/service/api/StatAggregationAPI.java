@@ -6,6 +6,8 @@ import org.sportim.service.beans.stats.*;
 import org.sportim.service.util.*;
 
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.SecurityContext;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -34,34 +36,6 @@ public class StatAggregationAPI {
         apiMapper = new StatAPIMapper(provider);
     }
 
-    /**
-     * Get the sport for an event
-     * @param eventID the event ID
-     * @return the SportType for the event
-     */
-    private SportType getEventSport(int eventID) {
-        Connection conn = null;
-        PreparedStatement stmt = null;
-        ResultSet rs = null;
-        try {
-            conn = provider.getConnection();
-            stmt = conn.prepareStatement("SELECT t.sport FROM Event e INNER JOIN TeamEvent te ON e.EventId = te.EventId " +
-                    "INNER JOIN Team t ON te.TeamId = t.TeamId WHERE e.EventId = ?");
-            stmt.setInt(1, eventID);
-            rs = stmt.executeQuery();
-            if (rs.next()) {
-                return SportType.fromString(rs.getString(1));
-            }
-            return SportType.UNKNOWN;
-        } catch (Exception e) {
-            logger.error("Error getting event sport: " + e.getMessage());
-            logger.debug(APIUtils.getStacktraceAsString(e));
-            return SportType.UNKNOWN;
-        } finally {
-            APIUtils.closeResources(rs, stmt, conn);
-        }
-    }
-
     /**
      * Get the sport for a team
      * @param teamID the team ID
@@ -127,7 +101,7 @@ public class StatAggregationAPI {
     }
 
     private AggregationAPI getAPIForEvent(int eventID) {
-        SportType sport = getEventSport(eventID);
+        SportType sport = StatUtil.getEventSport(eventID);
         return apiMapper.getMainAPI(sport);
     }
 
@@ -169,14 +143,14 @@ public class StatAggregationAPI {
     /**
      * Delete an event's statistics
      * @param eventID path param, the event ID
-     * @param token header param, the user's authentication token
+     * @param security the request's security context
      * @return ResponseBean with the status of the request
      */
     @DELETE
     @Produces("application/json")
     @Path("event/{eventID}")
-    public ResponseBean deleteEventStats(@PathParam("eventID") final int eventID, @HeaderParam("token") final String token) {
-        if (!PrivilegeUtil.hasEventTracking(token, eventID)) {
+    public ResponseBean deleteEventStats(@PathParam("eventID") final int eventID, @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasEventTracking(security.getUserPrincipal(), eventID)) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -194,14 +168,14 @@ public class StatAggregationAPI {
     /**
      * Get an event's statistics
      * @param eventID path param,the event ID
-     * @param token header param, the user's authentication token
+     * @param security the request's security context
      * @return ResponseBean with the status of the request
      */
     @GET
     @Produces("application/json")
     @Path("event/{eventID}")
-    public ResponseBean getEventStats(@PathParam("eventID") final int eventID, @HeaderParam("token") final String token) {
-        if (!PrivilegeUtil.hasEventView(token, eventID)) {
+    public ResponseBean getEventStats(@PathParam("eventID") final int eventID, @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasEventView(security.getUserPrincipal(), eventID)) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -223,15 +197,15 @@ public class StatAggregationAPI {
      * Get a player's statistics
      * @param login query param, the player's login
      * @param teamID optional team ID to constrain results (get player's stats for only that team)
-     * @param token header param, the user's authentication token
+     * @param security the request's security context
      * @return ResponseBean with the status of the request
      */
     @GET
     @Produces("application/json")
     @Path("player")
     public ResponseBean getPlayerStats(@QueryParam("login") final String login, @QueryParam("teamID") final int teamID,
-                                       @HeaderParam("token") final String token) {
-        if (!PrivilegeUtil.hasUserView(token, login)) {
+                                       @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasUserView(security.getUserPrincipal(), login)) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -255,14 +229,14 @@ public class StatAggregationAPI {
     /**
      * Get a team's statistics
      * @param teamID the team ID
-     * @param token header param, the user's authentication token
+     * @param security the request's security context
      * @return ResponseBean with the status of the request
      */
     @GET
     @Produces("application/json")
     @Path("team/{teamID}")
-    public ResponseBean getTeamStats(@PathParam("teamID") final int teamID, @HeaderParam("token") final String token) {
-        if (!PrivilegeUtil.hasTeamView(token, teamID)) {
+    public ResponseBean getTeamStats(@PathParam("teamID") final int teamID, @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasTeamView(security.getUserPrincipal(), teamID)) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -283,14 +257,17 @@ public class StatAggregationAPI {
     /**
      * Get a league's statistics
      * @param leagueID path param, the league ID
-     * @param token header param, the user's authentication token
+     * @param top query param, the number of players on the scorers leaderboard
+     * @param security the request's security context
      * @return ResponseBean with the status of the request
      */
     @GET
     @Produces("application/json")
     @Path("league/{leagueID}")
-    public ResponseBean getLeagueStats(@PathParam("leagueID") final int leagueID, @HeaderParam("token") final String token) {
-        if (AuthenticationUtil.validateToken(token) == null) {
+    public ResponseBean getLeagueStats(@PathParam("leagueID") final int leagueID,
+                                       @QueryParam("top") @DefaultValue("10") final int top,
+                                       @Context final SecurityContext security) {
+        if (security.getUserPrincipal() == null) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -299,7 +276,7 @@ public class StatAggregationAPI {
             return new ResponseBean(400, "No statistics API found for team");
         }
 
-        LeagueStatsBean stats = api.getLeagueStats(leagueID);
+        LeagueStatsBean stats = api.getLeagueStats(leagueID, top);
         if (stats == null) {
             return new ResponseBean(500, "Unable to retrieve event statistics");
         }
@@ -0,0 +1,119 @@
+package org.sportim.service.api;
+
+import org.apache.log4j.Logger;
+import org.sportim.service.beans.ResponseBean;
+import org.sportim.service.util.*;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.SecurityContext;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * API for undoing tracked stat actions and rebuilding stats from the stat log.
+ *
+ * See {@link org.sportim.service.util.StatLog} for more info.
+ */
+@Path("/statlog")
+public class StatLogAPI {
+    private static Logger logger = Logger.getLogger(StatLogAPI.class.getName());
+    private static final int MAX_UNDO = 100;
+    private ConnectionProvider provider;
+
+    public StatLogAPI() {
+        provider = ConnectionManager.getInstance();
+    }
+
+    public StatLogAPI(ConnectionProvider provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * Undo the most recent actions tracked for an event
+     * @param eventID path param, the event ID
+     * @param count query param, the number of actions to undo (default 1)
+     * @param security the request's security context
+     * @param session header param, the user's stat tracking session ID
+     * @return a ResponseBean containing the result status
+     */
+    @POST
+    @Path("undo/{eventID}")
+    @Produces("application/json")
+    public ResponseBean undo(@PathParam("eventID") final int eventID, @QueryParam("count") @DefaultValue("1") final int count,
+                             @Context final SecurityContext security, @HeaderParam("session") final String session) {
+        if (security.getUserPrincipal() == null) {
+            return new ResponseBean(401, "Not authorized");
+        }
+
+        if (!StatUtil.isValidSession(session, eventID)) {
+            return new ResponseBean(400, "You must start a session before tracking any statistics");
+        }
+
+        if (count < 1 || count > MAX_UNDO) {
+            return new ResponseBean(400, "Count must be between 1 and " + MAX_UNDO);
+        }
+
+        int undone = StatLog.undo(eventID, count);
+        if (undone == StatLog.NO_SESSION) {
+            return new ResponseBean(400, "You must start a session before tracking any statistics");
+        }
+        if (undone < 0) {
+            return new ResponseBean(500, "Unable to undo actions");
+        }
+        return new ResponseBean(200, "");
+    }
+
+    /**
+     * Rebuild the stats of every event in a league from the stat log
+     * @param leagueID path param, the league ID
+     * @param security the request's security context
+     * @return a ResponseBean containing the result status
+     */
+    @POST
+    @Path("rebuild/league/{leagueID}")
+    @Produces("application/json")
+    public ResponseBean rebuildLeague(@PathParam("leagueID") final int leagueID, @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasLeagueUpdate(security.getUserPrincipal(), leagueID)) {
+            return new ResponseBean(401, "Not authorized");
+        }
+
+        List<Integer> events = getLeagueEvents(leagueID);
+        if (events == null || StatLog.rebuild(events) < 0) {
+            return new ResponseBean(500, "Unable to rebuild league statistics");
+        }
+        return new ResponseBean(200, "");
+    }
+
+    /**
+     * Get the events of every tournament in a league
+     * @param leagueID the league ID
+     * @return the event IDs, or null on error
+     */
+    private List<Integer> getLeagueEvents(int leagueID) {
+        List<Integer> events = new ArrayList<Integer>();
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            conn = provider.getConnection();
+            stmt = conn.prepareStatement("SELECT e.EventId FROM Event e " +
+                    "INNER JOIN Tournament t ON e.TournamentId = t.TournamentId WHERE t.LeagueId = ?");
+            stmt.setInt(1, leagueID);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                events.add(rs.getInt(1));
+            }
+        } catch (Exception e) {
+            logger.error("Unable to get league events: " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
+            return null;
+        } finally {
+            APIUtils.closeResources(rs, stmt, conn);
+        }
+        return events;
+    }
+}
@@ -5,9 +5,20 @@ import org.sportim.service.beans.ResponseBean;
 import org.sportim.service.util.APIUtils;
 import org.sportim.service.util.ConnectionManager;
 import org.sportim.service.util.ConnectionProvider;
+import org.sportim.service.util.LiveEventFeed;
+import org.sportim.service.util.LiveEventState;
+import org.sportim.service.util.PassGraph;
 import org.sportim.service.util.PrivilegeUtil;
+import org.sportim.service.util.SeasonStats;
+import org.sportim.service.util.SportType;
+import org.sportim.service.util.Standings;
+import org.sportim.service.util.StatAPIMapper;
+import org.sportim.service.util.StatUtil;
+import org.sportim.service.util.StatWriteBuffer;
 
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.SecurityContext;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -20,45 +31,65 @@ import java.util.UUID;
 public class StatSessionAPI {
     private static Logger logger = Logger.getLogger(StatSessionAPI.class.getName());
     private ConnectionProvider provider;
+    private StatAPIMapper apiMapper;
 
     public StatSessionAPI() {
         provider = ConnectionManager.getInstance();
+        apiMapper = new StatAPIMapper(provider);
     }
 
     public StatSessionAPI(ConnectionProvider provider) {
         this.provider = provider;
+        apiMapper = new StatAPIMapper(provider);
     }
 
     /**
      * Start a session for an event
      * @param eventID path param, the event ID
-     * @param token header param, the user's authentication token
+     * @param security the request's security context
      * @return a ResponseBean with the session ID and status of the request
      */
     @GET
     @Path("{eventID}")
     @Produces("application/json")
     public ResponseBean startEventSession(@PathParam("eventID") final int eventID,
-                                          @HeaderParam("token") final String token) {
-        if (!PrivilegeUtil.hasEventTracking(token, eventID)) {
+                                          @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasEventTracking(security.getUserPrincipal(), eventID)) {
             return new ResponseBean(401, "Not authorized");
         }
 
         String sessionID = UUID.randomUUID().toString();
+        long version = StatUtil.nextSessionVersion();
 
         Connection conn = null;
         PreparedStatement stmt = null;
         int res = -1;
         try {
             conn = provider.getConnection();
-            stmt = conn.prepareStatement("INSERT IGNORE INTO StatSessions (eventID, sessionID) VALUES (?,?)");
+            conn.setAutoCommit(false);
+            stmt = conn.prepareStatement("INSERT IGNORE INTO StatSessions (eventID, sessionID, version) VALUES (?,?,?)");
             stmt.setInt(1, eventID);
             stmt.setString(2, sessionID);
+            stmt.setLong(3, version);
             res = stmt.executeUpdate();
+            if (res == 1) {
+                // the event's stats are about to change, so take them back out of the season totals
+                // in the same commit that starts the session
+                SeasonStats.unfold(eventID, conn);
+            }
+            conn.commit();
+            if (res == 1) {
+                StatUtil.sessionStarted(eventID, sessionID, version);
+                PassGraph.invalidate(eventID);
+                LiveEventState.open(eventID);
+            }
         } catch (Exception e) {
             logger.error("Error starting stat session: " + e.getMessage());
             logger.debug(APIUtils.getStacktraceAsString(e));
+            APIUtils.rollback(conn);
+            res = -1;
         } finally {
+            APIUtils.setAutoCommit(conn, true);
             APIUtils.closeResources(stmt, conn);
         }
 
@@ -77,35 +108,51 @@ public class StatSessionAPI {
     /**
      * Get a new session ID for an event, kicking out all other sessions
      * @param eventID path param, the event ID
-     * @param token header param, the user's authentication token
+     * @param security the request's security context
      * @return ResponseBean with the new session ID and status
      */
     @GET
     @Path("/reset/{eventID}")
     @Produces("application/json")
     public ResponseBean restartEventSession(@PathParam("eventID") final int eventID,
-                                            @HeaderParam("token") final String token) {
-        if (!PrivilegeUtil.hasEventTracking(token, eventID)) {
+                                            @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasEventTracking(security.getUserPrincipal(), eventID)) {
             return new ResponseBean(401, "Not authorized");
         }
 
         String sessionID = UUID.randomUUID().toString();
+        long version = StatUtil.nextSessionVersion();
 
         Connection conn = null;
         PreparedStatement stmt = null;
         int res = -1;
         try {
             conn = provider.getConnection();
-            stmt = conn.prepareStatement("INSERT INTO StatSessions (eventID, sessionID) VALUES (?,?) " +
-                    "ON DUPLICATE KEY UPDATE sessionID = ?");
+            conn.setAutoCommit(false);
+            stmt = conn.prepareStatement("INSERT INTO StatSessions (eventID, sessionID, version) VALUES (?,?,?) " +
+                    "ON DUPLICATE KEY UPDATE sessionID = ?, version = ?");
             stmt.setInt(1, eventID);
             stmt.setString(2, sessionID);
-            stmt.setString(3, sessionID);
+            stmt.setLong(3, version);
+            stmt.setString(4, sessionID);
+            stmt.setLong(5, version);
             res = stmt.executeUpdate();
+            if (res > 0) {
+                // a reset with no session open starts one, so the event may still be folded
+                SeasonStats.unfold(eventID, conn);
+            }
+            conn.commit();
+            if (res > 0) {
+                StatUtil.sessionStarted(eventID, sessionID, version);
+                PassGraph.invalidate(eventID);
+            }
         } catch (Exception e) {
             logger.error("Error restarting stat session: " + e.getMessage());
             logger.debug(APIUtils.getStacktraceAsString(e));
+            APIUtils.rollback(conn);
+            res = -1;
         } finally {
+            APIUtils.setAutoCommit(conn, true);
             APIUtils.closeResources(stmt, conn);
         }
 
@@ -120,7 +167,7 @@ public class StatSessionAPI {
     /**
      * End an event session
      * @param eventID path param, the event ID
-     * @param token header param, the user's authentication token
+     * @param security the request's security context
      * @param session header param, the session ID
      * @return ResponseBean with the status
      */
@@ -128,31 +175,61 @@ public class StatSessionAPI {
     @Path("{eventID}")
     @Produces("application/json")
     public ResponseBean endEventSession(@PathParam("eventID") final int eventID,
-                                        @HeaderParam("token") final String token,
+                                        @Context final SecurityContext security,
                                         @HeaderParam("session") final String session) {
-        if (!PrivilegeUtil.hasEventTracking(token, eventID)) {
+        if (!PrivilegeUtil.hasEventTracking(security.getUserPrincipal(), eventID)) {
             return new ResponseBean(401, "Not authorized");
         }
 
+        // buffered stats are flushed under the session lock, so flush before this request takes it.
+        // Folding without them would leave them out of the season stats, so the tracker must retry.
+        if (!StatWriteBuffer.close(eventID)) {
+            return new ResponseBean(500, "Unable to save tracked statistics. Try again.");
+        }
+
         Connection conn = null;
         PreparedStatement stmt = null;
         int res = -1;
         try {
             conn = provider.getConnection();
+            conn.setAutoCommit(false);
+            // waits for stat writes holding the session lock to commit
             stmt = conn.prepareStatement("DELETE FROM StatSessions WHERE eventID = ? AND sessionID = ?");
             stmt.setInt(1, eventID);
             stmt.setString(2, session);
             res = stmt.executeUpdate();
+            if (res > 0) {
+                // fold in the same commit that ends the session, so reads never count the event twice or not at all.
+                // If the fold fails the session stays open and the tracker can retry.
+                SeasonStats.fold(eventID, conn);
+            }
+            conn.commit();
+            if (res > 0) {
+                StatUtil.sessionEnded(eventID);
+                LiveEventState.close(eventID);
+                LiveEventFeed.close(eventID);
+            }
         } catch (Exception e) {
             logger.error("Error ending stat session: " + e.getMessage());
             logger.debug(APIUtils.getStacktraceAsString(e));
+            APIUtils.rollback(conn);
+            res = -1;
         } finally {
+            APIUtils.setAutoCommit(conn, true);
             APIUtils.closeResources(stmt, conn);
         }
 
         if (res < 1) {
             return new ResponseBean(500, "Unable to end stat session");
         }
+
+        // standings leave out events in progress, so the event counts from now on. The session
+        // can't be ended again to retry, so standings that can't be updated are rebuilt on the next read.
+        SportType sport = StatUtil.getEventSport(eventID);
+        TableAPI tableAPI = apiMapper.getTableAPI(sport);
+        if (tableAPI != null && !Standings.update(eventID, sport, tableAPI) && !Standings.dropEvent(eventID)) {
+            return new ResponseBean(500, "Session ended, but unable to update standings");
+        }
         return new ResponseBean(200, "");
     }
 }
\ No newline at end of file
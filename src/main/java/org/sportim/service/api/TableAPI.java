@@ -3,7 +3,7 @@ package org.sportim.service.api;
 import org.sportim.service.beans.stats.AbstractTeamResultsBean;
 
 import java.util.List;
-import java.util.SortedSet;
+import java.util.Map;
 
 /**
  * Interface that should be extended by sports-specific table APIs
@@ -13,7 +13,15 @@ public interface TableAPI {
     /**
      * Get the list of teams for a set of events, sorted by rank
      * @param events the list of event IDs
-     * @return the sorted set of teams, or null if an error occurred
+     * @return the teams, in rank order, or null if an error occurred
      */
-    public SortedSet<AbstractTeamResultsBean> getTableForEvents(List<Integer> events);
+    public List<AbstractTeamResultsBean> getTableForEvents(List<Integer> events);
+
+    /**
+     * Get each event's share of the table: a result for every team that took part in the event.
+     * A table is the sum of its events' results.
+     * @param events the list of event IDs
+     * @return map from event ID to the event's team results, or null if an error occurred
+     */
+    public Map<Integer, List<AbstractTeamResultsBean>> getEventResults(List<Integer> events);
 }
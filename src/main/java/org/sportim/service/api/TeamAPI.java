@@ -5,6 +5,8 @@ import org.sportim.service.beans.*;
 import org.sportim.service.util.*;
 
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.SecurityContext;
 
 import java.sql.*;
 import java.util.LinkedList;
@@ -32,8 +34,8 @@ public class TeamAPI {
     @GET
     @Path("edit")
     @Produces("application/json")
-    public ResponseBean getTeamsForEditing(@HeaderParam("token") final String token) {
-        String user = AuthenticationUtil.validateToken(token);
+    public ResponseBean getTeamsForEditing(@Context final SecurityContext security) {
+        String user = UserPrincipal.getLogin(security.getUserPrincipal());
         if (user == null) {
             return new ResponseBean(401, "Not authorized");
         }
@@ -78,8 +80,8 @@ public class TeamAPI {
     @GET
     @Path("view")
     @Produces("application/json")
-    public ResponseBean getTeamsForViewing(@HeaderParam("token") final String token) {
-        String user = AuthenticationUtil.validateToken(token);
+    public ResponseBean getTeamsForViewing(@Context final SecurityContext security) {
+        String user = UserPrincipal.getLogin(security.getUserPrincipal());
         if (user == null) {
             return new ResponseBean(401, "Not authorized");
         }
@@ -122,15 +124,15 @@ public class TeamAPI {
     /**
      * GET request to team information for a single team
      * @param teamId - Team Id of the team you are trying to see
-     * @param token - Authentication token
+     * @param security - Security context of the authenticated user
      * @return
      */
     @GET
     @Path("{id}")
     @Produces("application/json")
-    public ResponseBean getTeam(@PathParam("id") final int teamId, @HeaderParam("token") final String token)
+    public ResponseBean getTeam(@PathParam("id") final int teamId, @Context final SecurityContext security)
     {
-        if (AuthenticationUtil.validateToken(token) == null) {
+        if (security.getUserPrincipal() == null) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -197,15 +199,15 @@ public class TeamAPI {
     /**
      * GET request for getting team colors
      * @param teamId
-     * @param token
+     * @param security
      * @return
      */
     @GET
     @Path("{id}/colors")
     @Produces("application/json")
-    public ResponseBean getTeamColors(@PathParam("id") final int teamId, @HeaderParam("token") final String token)
+    public ResponseBean getTeamColors(@PathParam("id") final int teamId, @Context final SecurityContext security)
     {
-        if (AuthenticationUtil.validateToken(token) == null) {
+        if (security.getUserPrincipal() == null) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -258,14 +260,14 @@ public class TeamAPI {
     /**
      * GET request to get teams in the league
      * @param leagueID
-     * @param token
+     * @param security
      * @return
      */
     @GET
     @Produces("application/json")
-    public ResponseBean getTeams(@QueryParam(value="league") final int leagueID, @HeaderParam("token") final String token)
+    public ResponseBean getTeams(@QueryParam(value="league") final int leagueID, @Context final SecurityContext security)
     {
-        if (AuthenticationUtil.validateToken(token) == null) {
+        if (security.getUserPrincipal() == null) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -308,7 +310,7 @@ public class TeamAPI {
      * Post request to insert the color scheme for a team
      * @param color
      * @param teamID
-     * @param token
+     * @param security
      * @return
      */
     @POST
@@ -316,8 +318,8 @@ public class TeamAPI {
     @Produces("application/json")
     @Consumes("application/json")
     public ResponseBean createColors(ColorBean color, @PathParam("id") final int teamID,
-                                     @HeaderParam("token") final String token) {
-        if (!PrivilegeUtil.hasTeamUpdate(token, teamID)) {
+                                     @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasTeamUpdate(security.getUserPrincipal(), teamID)) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -354,14 +356,14 @@ public class TeamAPI {
     /**
      * POST request to create team, redirects to createDBTeam for main functionality
      * @param team
-     * @param token
+     * @param security
      * @return
      */
     @POST
     @Consumes("application/json")
     @Produces("application/json")
-    public ResponseBean createTeam(TeamBean team, @HeaderParam("token") final String token) {
-        String user = AuthenticationUtil.validateToken(token);
+    public ResponseBean createTeam(TeamBean team, @Context final SecurityContext security) {
+        String user = UserPrincipal.getLogin(security.getUserPrincipal());
         if (user == null) {
             return new ResponseBean(401, "Not authorized");
         }
@@ -417,6 +419,9 @@ public class TeamAPI {
             APIUtils.closeResource(conn);
         }
 
+        if (teamID > 0) {
+            PrivilegeUtil.invalidateTeam(teamID);
+        }
         ResponseBean resp = new ResponseBean(status, message);
         resp.setId(teamID);
         return resp;
@@ -426,16 +431,16 @@ public class TeamAPI {
      * PUT request for adding a player to a team
      * @param id
      * @param playerLogin
-     * @param token
+     * @param security
      * @return
      */
     @PUT
     @Path("{teamid}/add")
     @Produces("application/json")
     public ResponseBean addPlayerToTeam(@PathParam("teamid") final int id, @QueryParam("login") final String playerLogin,
-                                        @HeaderParam("token") final String token)
+                                        @Context final SecurityContext security)
     {
-        if (!PrivilegeUtil.hasTeamUpdate(token, id)) {
+        if (!PrivilegeUtil.hasTeamUpdate(security.getUserPrincipal(), id)) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -472,7 +477,9 @@ public class TeamAPI {
         } finally {
             APIUtils.closeResources(rs, stmt, conn);
         }
-
+        if (status == 200) {
+            PrivilegeUtil.invalidateRoster(id);
+        }
         return new ResponseBean(status, message);
     }
 
@@ -480,30 +487,30 @@ public class TeamAPI {
      * PUT request for updating a team (driver method)
      * @param team
      * @param id
-     * @param token
+     * @param security
      * @return
      */
     @PUT
     @Path("{id}")
     @Consumes("application/json")
     @Produces("application/json")
-    public ResponseBean updateTeam(TeamBean team, @PathParam("id") final int id, @HeaderParam("token") final String token) {
+    public ResponseBean updateTeam(TeamBean team, @PathParam("id") final int id, @Context final SecurityContext security) {
         team.setId(id);
-        return updateTeam(team, token);
+        return updateTeam(team, security);
     }
 
     /**
      * PUT request for updating teams without ID, and instead having a Team Bean with information
      * @param team
-     * @param token
+     * @param security
      * @return
      */
     @PUT
     @Consumes("application/json")
     @Produces("application/json")
-    public ResponseBean updateTeam(TeamBean team, @HeaderParam("token") final String token) {
-        String user = AuthenticationUtil.validateToken(token);
-        if (!PrivilegeUtil.hasTeamUpdate(token, team.getId())) {
+    public ResponseBean updateTeam(TeamBean team, @Context final SecurityContext security) {
+        String user = UserPrincipal.getLogin(security.getUserPrincipal());
+        if (!PrivilegeUtil.hasTeamUpdate(security.getUserPrincipal(), team.getId())) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -552,7 +559,9 @@ public class TeamAPI {
         } finally {
             APIUtils.closeResources(stmt, conn);
         }
-
+        if (status == 200) {
+            PrivilegeUtil.invalidateTeam(team.getId());
+        }
         return new ResponseBean(status, message);
     }
 
@@ -560,7 +569,7 @@ public class TeamAPI {
      * PUT request for updating team colors
      * @param color
      * @param teamID
-     * @param token
+     * @param security
      * @return
      */
     @PUT
@@ -568,8 +577,8 @@ public class TeamAPI {
     @Consumes("application/json")
     @Produces("application/json")
     public ResponseBean updateTeamColors(ColorBean color, @PathParam("id") final int teamID,
-                                         @HeaderParam("token") final String token) {
-        if (!PrivilegeUtil.hasTeamUpdate(token, teamID)) {
+                                         @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasTeamUpdate(security.getUserPrincipal(), teamID)) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -616,15 +625,15 @@ public class TeamAPI {
      * DELETE request for removing a player from a team
      * @param login
      * @param teamId
-     * @param token
+     * @param security
      * @return
      */
     @DELETE
     @Produces("application/json")
     public ResponseBean removePlayerFromTeam(@QueryParam("login") final String login, @QueryParam("teamId") final int teamId,
-                                             @HeaderParam("token") final String token)
+                                             @Context final SecurityContext security)
     {
-        if (!PrivilegeUtil.hasTeamUpdate(token, teamId)) {
+        if (!PrivilegeUtil.hasTeamUpdate(security.getUserPrincipal(), teamId)) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -656,20 +665,21 @@ public class TeamAPI {
         } finally {
             APIUtils.closeResources(stmt, conn);
         }
+        PrivilegeUtil.invalidateRoster(teamId);
         return new ResponseBean(status, message);
     }
 
     /**
      * DELETE request for deleting a team
      * @param id
-     * @param token
+     * @param security
      * @return
      */
     @DELETE
     @Path("{id}")
     @Produces("application/json")
-    public ResponseBean deleteTeam(@PathParam("id") final int id, @HeaderParam("token") final String token) {
-        if (!PrivilegeUtil.hasTeamUpdate(token, id)) {
+    public ResponseBean deleteTeam(@PathParam("id") final int id, @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasTeamUpdate(security.getUserPrincipal(), id)) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -696,6 +706,7 @@ public class TeamAPI {
             APIUtils.closeResource(stmt);
             APIUtils.closeResource(conn);
         }
+        PrivilegeUtil.invalidateRoster(id);
         return new ResponseBean(status, message);
     }
 
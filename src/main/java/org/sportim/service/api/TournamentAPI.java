@@ -5,6 +5,8 @@ import org.sportim.service.beans.*;
 import org.sportim.service.util.*;
 
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.SecurityContext;
 
 import java.sql.*;
 import java.util.*;
@@ -25,15 +27,15 @@ public class TournamentAPI {
     /**
      * GET request for getting a tournament
      * @param tournamentId
-     * @param token
+     * @param security
      * @return
      */
     @GET
     @Path("{id}")
     @Produces("application/json")
-    public ResponseBean getTournament(@PathParam("id") final int tournamentId, @HeaderParam("token") final String token)
+    public ResponseBean getTournament(@PathParam("id") final int tournamentId, @Context final SecurityContext security)
     {
-        if (AuthenticationUtil.validateToken(token) == null) {
+        if (security.getUserPrincipal() == null) {
             return new ResponseBean(401, "Not authorized");
         }
         int status = 200;
@@ -163,14 +165,14 @@ public class TournamentAPI {
     /**
      * Create a tournament
      * @param tournament
-     * @param token
+     * @param security
      * @return
      */
     @POST
     @Consumes("application/json")
     @Produces("application/json")
-    public ResponseBean createTournament(TournamentBean tournament, @HeaderParam("token") final String token) {
-        if (!PrivilegeUtil.hasLeagueUpdate(token, tournament.getLeagueId())) {
+    public ResponseBean createTournament(TournamentBean tournament, @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasLeagueUpdate(security.getUserPrincipal(), tournament.getLeagueId())) {
             return new ResponseBean(401, "Not authorized");
         }
         return createDBTournament(tournament);
@@ -223,6 +225,9 @@ public class TournamentAPI {
             APIUtils.closeResource(conn);
         }
 
+        if (tournamentID > 0) {
+            PrivilegeUtil.invalidateTournament(tournamentID);
+        }
         ResponseBean resp = new ResponseBean(status, message);
         resp.setId(tournamentID);
         return resp;
@@ -232,7 +237,7 @@ public class TournamentAPI {
      * Update a tournament
      * @param tournament
      * @param id
-     * @param token
+     * @param security
      * @return
      */
     @PUT
@@ -240,22 +245,22 @@ public class TournamentAPI {
     @Consumes("application/json")
     @Produces("application/json")
     public ResponseBean updateTournament(TournamentBean tournament, @PathParam("id") final int id,
-                                         @HeaderParam("token") final String token) {
+                                         @Context final SecurityContext security) {
         tournament.setTournamentId(id);
-        return updateTournament(tournament, token);
+        return updateTournament(tournament, security);
     }
 
     /**
      * Update a tournament with a Tournament Bean
      * @param tournament
-     * @param token
+     * @param security
      * @return
      */
     @PUT
     @Consumes("application/json")
     @Produces("application/json")
-    public ResponseBean updateTournament(TournamentBean tournament, @HeaderParam("token") final String token) {
-        if (!PrivilegeUtil.hasTournamentUpdate(token, tournament.getTournamentId())) {
+    public ResponseBean updateTournament(TournamentBean tournament, @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasTournamentUpdate(security.getUserPrincipal(), tournament.getTournamentId())) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -300,21 +305,23 @@ public class TournamentAPI {
         } finally {
             APIUtils.closeResources(stmt, conn);
         }
-
+        if (status == 200) {
+            PrivilegeUtil.invalidateTournament(tournament.getTournamentId());
+        }
         return new ResponseBean(status, message);
     }
 
     /**
      * Delete a tournament
      * @param id
-     * @param token
+     * @param security
      * @return
      */
     @DELETE
     @Path("{id}")
     @Produces("application/json")
-    public ResponseBean deleteTournament(@PathParam("id") final int id, @HeaderParam("token") final String token) {
-        if (!PrivilegeUtil.hasTournamentUpdate(token, id)) {
+    public ResponseBean deleteTournament(@PathParam("id") final int id, @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasTournamentUpdate(security.getUserPrincipal(), id)) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -325,21 +332,28 @@ public class TournamentAPI {
         PreparedStatement stmt = null;
         try {
             conn = provider.getConnection();
+            conn.setAutoCommit(false);
             stmt = conn.prepareStatement("DELETE FROM Tournament WHERE TournamentId = ?");
             stmt.setInt(1, id);
             int res = stmt.executeUpdate();
             if (res < 1) {
                 status = 404;
                 message = "Tournament with ID " + id + " does not exist.";
+            } else {
+                Standings.drop(id, conn);
             }
+            conn.commit();
         } catch (SQLException e) {
             status = 500;
             message = "Unable to delete tournament. SQL Error.";
             logger.error(message + ": " + e.getMessage());
             logger.debug(APIUtils.getStacktraceAsString(e));
+            APIUtils.rollback(conn);
         } finally {
+            APIUtils.setAutoCommit(conn, true);
             APIUtils.closeResources(stmt, conn);
         }
+        PrivilegeUtil.invalidateTournament(id);
         return new ResponseBean(status, message);
     }
 
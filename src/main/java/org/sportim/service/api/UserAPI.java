@@ -8,6 +8,8 @@ import org.sportim.service.beans.UserBean;
 import org.sportim.service.util.*;
 
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.SecurityContext;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -34,8 +36,8 @@ public class UserAPI {
     @GET
     @Path("view")
     @Produces("application/json")
-    public ResponseBean getUsersForView(@HeaderParam("token") final String token) {
-        String user = AuthenticationUtil.validateToken(token);
+    public ResponseBean getUsersForView(@Context final SecurityContext security) {
+        String user = UserPrincipal.getLogin(security.getUserPrincipal());
         if (user == null) {
             return new ResponseBean(401, "Not authorized");
         }
@@ -82,8 +84,8 @@ public class UserAPI {
     @GET
     @Path("{login}")
     @Produces("application/json")
-    public ResponseBean getUser(@PathParam("login") final String login, @HeaderParam("token") final String token) {
-        return getUserQuery(login, token);
+    public ResponseBean getUser(@PathParam("login") final String login, @Context final SecurityContext security) {
+        return getUserQuery(login, security);
     }
     /* Main method for getting user information
      * @QueryParam login - Login of the player you are trying to grab
@@ -92,7 +94,7 @@ public class UserAPI {
     @GET
     @Produces("application/json")
     public ResponseBean getUserQuery(@QueryParam("login") final String login,
-                                     @HeaderParam("token") final String token) {
+                                     @Context final SecurityContext security) {
         int status = 200;
         String message = "";
         // Check if login is displayed
@@ -100,7 +102,7 @@ public class UserAPI {
             return new ResponseBean(400, "Missing login parameter");
         }
         // See if user is authorized to access the player
-        if (!PrivilegeUtil.hasUserView(token, login)) {
+        if (!PrivilegeUtil.hasUserView(security.getUserPrincipal(), login)) {
             return new ResponseBean(401, "Not authorized");
         }
         // Build Connection variables
@@ -156,7 +158,7 @@ public class UserAPI {
     @Path("/alert")
     @Produces("application/json")
     public ResponseBean getUserQueryWithAlert(@QueryParam("login") final String qlogin,
-                                              @HeaderParam("token") final String token) {
+                                              @Context final SecurityContext security) {
         int status = 200;
         long millisPerHour = 3600000;
         String message = "";
@@ -164,14 +166,14 @@ public class UserAPI {
         String login = qlogin;
         // If login is null, go grab login based off of token
         if (login == null) {
-            login = AuthenticationUtil.validateToken(token);
+            login = UserPrincipal.getLogin(security.getUserPrincipal());
         }
         // If login is still null, notify caller that login is missing
         if (login == null) {
             return new ResponseBean(400, "Missing login parameter");
         }
         // Check if token is allowed to edit user
-        if (!PrivilegeUtil.hasUserView(token, login)) {
+        if (!PrivilegeUtil.hasUserView(security.getUserPrincipal(), login)) {
             return new ResponseBean(401, "Not authorized");
         }
         // Build Connection variables
@@ -280,13 +282,13 @@ public class UserAPI {
     @Path("/alert")
     @Produces("application/json")
     @Consumes("application/json")
-    public ResponseBean updateUserAlerts(UserBean user, @HeaderParam("token") final String token) {
+    public ResponseBean updateUserAlerts(UserBean user, @Context final SecurityContext security) {
         long millisPerHour = 3600000;
         int status = 200;
         String message = "";
         // Validate Login
         if (user.getLogin() == null) {
-            user.setLogin(AuthenticationUtil.validateToken(token));
+            user.setLogin(UserPrincipal.getLogin(security.getUserPrincipal()));
         }
 
         if (!(message = user.validate(false)).isEmpty()) {
@@ -294,7 +296,7 @@ public class UserAPI {
             return new ResponseBean(status, message);
         }
         // Authenticate user
-        if (!PrivilegeUtil.hasUserUpdate(token, user.getLogin())) {
+        if (!PrivilegeUtil.hasUserUpdate(security.getUserPrincipal(), user.getLogin())) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -349,16 +351,16 @@ public class UserAPI {
     @Produces("application/json")
     @Consumes("application/json")
     public ResponseBean updateUser(@PathParam("login") final String login, UserBean user,
-                                   @HeaderParam("token") final String token) {
+                                   @Context final SecurityContext security) {
         user.setLogin(login);
-        return updateUser(user, token);
+        return updateUser(user, security);
     }
 
     // Put command to update user without alert information
     @PUT
     @Produces("application/json")
     @Consumes("application/json")
-    public ResponseBean updateUser(UserBean user, @HeaderParam("token") final String token) {
+    public ResponseBean updateUser(UserBean user, @Context final SecurityContext security) {
         int status = 200;
         String message = "";
 
@@ -367,7 +369,7 @@ public class UserAPI {
             return new ResponseBean(status, message);
         }
 
-        if (!PrivilegeUtil.hasUserUpdate(token, user.getLogin())) {
+        if (!PrivilegeUtil.hasUserUpdate(security.getUserPrincipal(), user.getLogin())) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -413,11 +415,11 @@ public class UserAPI {
     @DELETE
     @Path("{login}")
     @Produces("application/json")
-    public ResponseBean deleteUser(@PathParam("login") final String login, @HeaderParam("token") final String token) {
+    public ResponseBean deleteUser(@PathParam("login") final String login, @Context final SecurityContext security) {
         String message = "";
         int status = 200;
         // Check if user is allowed to delete the player
-        if (!PrivilegeUtil.hasUserUpdate(token, login)) {
+        if (!PrivilegeUtil.hasUserUpdate(security.getUserPrincipal(), login)) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -0,0 +1,26 @@
+package org.sportim.service.beans;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.util.List;
+
+/**
+ * Snapshot of connection pool and query metrics. Histogram buckets line up with
+ * bucketBoundsMillis; the final bucket counts everything slower than the last bound.
+ */
+@JsonSerialize(include=JsonSerialize.Inclusion.NON_NULL)
+public class MetricsBean {
+    public long borrowCount = 0;
+    public long borrowFailures = 0;
+    public long activeConnections = 0;
+    public double borrowWaitMeanMillis = 0;
+    public double borrowWaitMaxMillis = 0;
+    public long[] borrowWaitBuckets = null;
+    public double holdMeanMillis = 0;
+    public double holdMaxMillis = 0;
+    public long[] holdBuckets = null;
+    public double statementsPerBorrow = 0;
+    public long rowsReturned = 0;
+    public double[] bucketBoundsMillis = null;
+    public List<QueryMetricsBean> queries = null;
+}
@@ -0,0 +1,18 @@
+package org.sportim.service.beans;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+/**
+ * Execution metrics for a single SQL statement text.
+ */
+@JsonSerialize(include=JsonSerialize.Inclusion.NON_NULL)
+public class QueryMetricsBean {
+    public String sql = null;
+    public long executions = 0;
+    public long errors = 0;
+    public long rowsReturned = 0;
+    public double totalMillis = 0;
+    public double meanMillis = 0;
+    public double maxMillis = 0;
+    public long[] latencyBuckets = null;
+}
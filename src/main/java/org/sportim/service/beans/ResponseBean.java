@@ -5,7 +5,6 @@ import org.sportim.service.beans.stats.*;
 
 import java.util.List;
 import java.util.Map;
-import java.util.SortedSet;
 
 /**
  * Catch-all response bean to return for requests - includes status
@@ -33,10 +32,15 @@ public class ResponseBean {
     private PlayerPassingBean playerPasses;
     private TeamPassingBean teamPasses;
     private List<TeamPassingBean> eventPasses;
-    private SortedSet<AbstractTeamResultsBean> tournamentResults;
+    private PassGraphBean teamPassGraph;
+    private List<PassGraphBean> eventPassGraphs;
+    private List<AbstractTeamResultsBean> tournamentResults;
     private List<TournamentBean> tables;
     private ColorBean colors;
     private List<Map<String, String>> sports;
+    private MetricsBean metrics;
+    private List<StatusBean> results;
+    private Long version;
 
     public ResponseBean(){
     }
@@ -204,6 +208,22 @@ public class ResponseBean {
         this.eventPasses = eventPasses;
     }
 
+    public PassGraphBean getTeamPassGraph() {
+        return teamPassGraph;
+    }
+
+    public void setTeamPassGraph(PassGraphBean teamPassGraph) {
+        this.teamPassGraph = teamPassGraph;
+    }
+
+    public List<PassGraphBean> getEventPassGraphs() {
+        return eventPassGraphs;
+    }
+
+    public void setEventPassGraphs(List<PassGraphBean> eventPassGraphs) {
+        this.eventPassGraphs = eventPassGraphs;
+    }
+
     public List<TournamentBean> getTables() {
         return tables;
     }
@@ -212,11 +232,11 @@ public class ResponseBean {
         this.tables = tables;
     }
 
-    public SortedSet<AbstractTeamResultsBean> getTournamentResults() {
+    public List<AbstractTeamResultsBean> getTournamentResults() {
         return tournamentResults;
     }
 
-    public void setTournamentResults(SortedSet<AbstractTeamResultsBean> tournamentResults) {
+    public void setTournamentResults(List<AbstractTeamResultsBean> tournamentResults) {
         this.tournamentResults = tournamentResults;
     }
 
@@ -235,4 +255,28 @@ public class ResponseBean {
     public void setSports(List<Map<String, String>> sports) {
         this.sports = sports;
     }
+
+    public MetricsBean getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(MetricsBean metrics) {
+        this.metrics = metrics;
+    }
+
+    public List<StatusBean> getResults() {
+        return results;
+    }
+
+    public void setResults(List<StatusBean> results) {
+        this.results = results;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
 }
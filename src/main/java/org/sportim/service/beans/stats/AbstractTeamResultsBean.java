@@ -18,4 +18,15 @@ public abstract class AbstractTeamResultsBean implements Comparable<AbstractTeam
         this.type = sport;
         this.teamID = teamID;
     }
+
+    /**
+     * Add another result for the same team to this one
+     * @param other the other result
+     * @param sign 1 to add the result, -1 to take it away
+     */
+    public void add(AbstractTeamResultsBean other, int sign) {
+        wins += sign * other.wins;
+        losses += sign * other.losses;
+        ties += sign * other.ties;
+    }
 }
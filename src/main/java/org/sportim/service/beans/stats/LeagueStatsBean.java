@@ -13,6 +13,7 @@ public class LeagueStatsBean extends StatsBean {
     public int topScoringTeam = 0;
     public int topTeamScore = -1;
     public List<TeamStatsBean> teamStats;
+    public List<PlayerStatsBean> topScorers;
 
     public LeagueStatsBean (SportType sport, int leagueID) {
         this.leagueID = leagueID;
@@ -0,0 +1,30 @@
+package org.sportim.service.beans.stats;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bean for a team's passing network
+ */
+@JsonSerialize(include=JsonSerialize.Inclusion.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown=true)
+public class PassGraphBean {
+    public int teamID;
+    public int totalPasses;
+    public double averageClustering;
+    public List<PassGraphPlayerBean> players;
+    public List<PassBean> topPasses;
+
+    public PassGraphBean() {
+        players = new ArrayList<PassGraphPlayerBean>();
+        topPasses = new ArrayList<PassBean>();
+    }
+
+    public PassGraphBean(int id) {
+        this();
+        teamID = id;
+    }
+}
@@ -0,0 +1,27 @@
+package org.sportim.service.beans.stats;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+/**
+ * Bean for a player's place in a team's passing network
+ */
+@JsonSerialize(include=JsonSerialize.Inclusion.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown=true)
+public class PassGraphPlayerBean {
+    public String login;
+    public int passesMade;
+    public int passesReceived;
+    public int outDegree;
+    public int inDegree;
+    public double passShare;
+    public double betweenness;
+    public double clustering;
+
+    public PassGraphPlayerBean() {
+    }
+
+    public PassGraphPlayerBean(String login) {
+        this.login = login;
+    }
+}
@@ -8,6 +8,7 @@ import org.sportim.service.util.SportType;
 @JsonIgnoreProperties(ignoreUnknown=true)
 public class PlayerStatsBean extends StatsBean {
     public String login;
+    public Integer teamID;
 
     public PlayerStatsBean(SportType sport, String login) {
         this.type = sport;
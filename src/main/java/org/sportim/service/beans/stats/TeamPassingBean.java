@@ -32,4 +32,8 @@ public class TeamPassingBean {
         }
         return false;
     }
+
+    public int hashCode() {
+        return teamID;
+    }
 }
@@ -14,12 +14,19 @@ import org.sportim.service.soccer.beans.SoccerTeamStatsBean;
 import org.sportim.service.util.*;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.SecurityContext;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -45,14 +52,14 @@ public class SoccerAggregationAPI implements AggregationAPI {
      *
      * See {@link org.sportim.service.api.AggregationAPI#deleteEventStats} for more info.
      * @param eventID path param, the event ID
-     * @param token header param, the user's authentication token
+     * @param security the request's security context
      * @return a ResponseBean containing the status
      */
     @DELETE
     @Produces("application/json")
     @Path("event/{eventID}")
-    public ResponseBean deleteEventStatsRest(@PathParam("eventID") final int eventID, @HeaderParam("token") final String token) {
-        if (!PrivilegeUtil.hasEventTracking(token, eventID)) {
+    public ResponseBean deleteEventStatsRest(@PathParam("eventID") final int eventID, @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasEventTracking(security.getUserPrincipal(), eventID)) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -63,10 +70,15 @@ public class SoccerAggregationAPI implements AggregationAPI {
     }
 
     public boolean deleteEventStats(int eventID) {
+        StatWriteBuffer.discard(eventID);
+        // stats deleted mid-session are read from the database until the next session
+        LiveEventState.close(eventID);
         Connection conn = null;
         PreparedStatement stmt = null;
         try {
             conn = provider.getConnection();
+            conn.setAutoCommit(false);
+            SeasonStats.unfold(eventID, conn);
             stmt = conn.prepareStatement("DELETE FROM SoccerStats WHERE eventID = ?");
             stmt.setInt(1, eventID);
             stmt.executeUpdate();
@@ -74,13 +86,22 @@ public class SoccerAggregationAPI implements AggregationAPI {
             stmt = conn.prepareStatement("DELETE FROM Passing WHERE eventID = ?");
             stmt.setInt(1, eventID);
             stmt.executeUpdate();
+            StatLog.delete(eventID, conn);
+            conn.commit();
+            PassGraph.invalidate(eventID);
+            LiveEventFeed.publish(eventID);
         } catch (Exception e) {
             logger.error("Unable to delete soccer stats: " + e.getMessage());
             logger.debug(APIUtils.getStacktraceAsString(e));
+            APIUtils.rollback(conn);
             return false;
         } finally {
-            APIUtils.closeResources(stmt, conn);
+            APIUtils.closeResource(stmt);
+            APIUtils.setAutoCommit(conn, true);
+            APIUtils.closeResource(conn);
         }
+        // the event no longer counts toward its tournament's standings
+        Standings.update(eventID, SportType.SOCCER, new SoccerTableAPI(provider));
         return true;
     }
 
@@ -89,14 +110,14 @@ public class SoccerAggregationAPI implements AggregationAPI {
      *
      * See {@link org.sportim.service.api.AggregationAPI#getEventStats} for more info.
      * @param eventID path param, the event ID
-     * @param token header param, the user's authentication token
+     * @param security the request's security context
      * @return a ResponseBean containing the status and event results
      */
     @GET
     @Produces("application/json")
     @Path("event/{eventID}")
-    public ResponseBean getEventStatsRest(@PathParam("eventID") final int eventID, @HeaderParam("token") final String token) {
-        if (!PrivilegeUtil.hasEventView(token, eventID)) {
+    public ResponseBean getEventStatsRest(@PathParam("eventID") final int eventID, @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasEventView(security.getUserPrincipal(), eventID)) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -109,7 +130,37 @@ public class SoccerAggregationAPI implements AggregationAPI {
         return new ResponseBean(500, "Unable to retrieve statistics.");
     }
 
+    /**
+     * Long-poll for an event's statistics. Responds as soon as statistics newer than the given
+     * version exist, or with no statistics if none are recorded before the poll times out.
+     *
+     * See {@link org.sportim.service.util.LiveEventFeed} for more info.
+     * @param eventID path param, the event ID
+     * @param version query param, the version the client already has (omit for the current statistics)
+     * @param security the request's security context
+     * @param response the suspended response, resumed with a ResponseBean containing the status,
+     *                 event results and version
+     */
+    @GET
+    @Produces("application/json")
+    @Path("event/{eventID}/live")
+    public void getLiveEventStats(@PathParam("eventID") final int eventID,
+                                  @QueryParam("version") @DefaultValue("-1") final long version,
+                                  @Context final SecurityContext security, @Suspended final AsyncResponse response) {
+        if (!PrivilegeUtil.hasEventView(security.getUserPrincipal(), eventID)) {
+            response.resume(new ResponseBean(401, "Not authorized"));
+            return;
+        }
+        LiveEventFeed.poll(eventID, version, this, response);
+    }
+
     public AggregateEventBean getEventStats(int eventID) {
+        AggregateEventBean live = LiveEventState.get(eventID);
+        if (live != null) {
+            return live;
+        }
+
+        StatWriteBuffer.flush(eventID);
         Connection conn = null;
         PreparedStatement stmt = null;
         ResultSet rs = null;
@@ -186,7 +237,7 @@ public class SoccerAggregationAPI implements AggregationAPI {
      *
      * See {@link org.sportim.service.api.AggregationAPI#getPlayerStats} for more info.
      * @param login query param, the player's login
-     * @param token header param, the user's authentication token
+     * @param security the request's security context
      * @param teamID query param, the team ID
      * @return a ResponseBean containing the status and player results
      */
@@ -194,8 +245,8 @@ public class SoccerAggregationAPI implements AggregationAPI {
     @Produces("application/json")
     @Path("player")
     public ResponseBean getPlayerStatsRest(@QueryParam("login") final String login, @QueryParam("teamID") final int teamID,
-                                       @HeaderParam("token") final String token) {
-        if (!PrivilegeUtil.hasUserView(token, login)) {
+                                       @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasUserView(security.getUserPrincipal(), login)) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -212,28 +263,25 @@ public class SoccerAggregationAPI implements AggregationAPI {
     }
 
     public PlayerStatsBean getPlayerStats(String login, int teamID) {
+        StatWriteBuffer.flushAll();
         Connection conn = null;
         PreparedStatement stmt = null;
         ResultSet rs = null;
         SoccerPlayerStatsBean playerStats = null;
         try {
             conn = provider.getConnection();
-            if (teamID < 1) {
-                stmt = conn.prepareStatement("SELECT player, SUM(goals), SUM(shots), SUM(shotsongoal), SUM(goalsagainst), " +
-                        "SUM(fouls), SUM(yellow), SUM(red), SUM(assists), SUM(saves), SUM(minutes) FROM SoccerStats " +
-                        "WHERE player = ?" +
-                        "GROUP BY player");
-                stmt.setString(1, login);
-            } else {
-                stmt = conn.prepareStatement("SELECT player, SUM(goals), SUM(shots), SUM(shotsongoal), SUM(goalsagainst), " +
-                        "SUM(fouls), SUM(yellow), SUM(red), SUM(assists), SUM(saves), SUM(minutes) FROM SoccerStats " +
-                        "WHERE player = ? AND teamID = ? " +
-                        "GROUP BY player");
-                stmt.setString(1, login);
-                stmt.setInt(2, teamID);
+            String where = teamID < 1 ? "r.player = ?" : "r.player = ? AND r.teamID = ?";
+            stmt = conn.prepareStatement(SeasonStats.SOCCER.createTotals(where, "goals", "shots", "shotsongoal",
+                    "goalsagainst", "fouls", "yellow", "red", "assists", "saves", "minutes"));
+            int params = teamID < 1 ? 1 : 2;
+            for (int i = 0; i < 2; i++) {
+                stmt.setString(i * params + 1, login);
+                if (teamID >= 1) {
+                    stmt.setInt(i * params + 2, teamID);
+                }
             }
             rs = stmt.executeQuery();
-            if (rs.next()) {
+            if (rs.next() && rs.getInt(1) > 0) {
                 playerStats = new SoccerPlayerStatsBean(login);
                 playerStats.goals = rs.getInt(2);
                 playerStats.shots = rs.getInt(3);
@@ -261,14 +309,14 @@ public class SoccerAggregationAPI implements AggregationAPI {
      *
      * See {@link org.sportim.service.api.AggregationAPI#getTeamStats} for more info.
      * @param teamID path param, the team ID
-     * @param token header param, the user's authentication token
+     * @param security the request's security context
      * @return a ResponseBean containing the status and team results
      */
     @GET
     @Produces("application/json")
     @Path("team/{teamID}")
-    public ResponseBean getTeamsStatsRest(@PathParam("teamID") final int teamID, @HeaderParam("token") final String token) {
-        if (AuthenticationUtil.validateToken(token) == null) {
+    public ResponseBean getTeamsStatsRest(@PathParam("teamID") final int teamID, @Context final SecurityContext security) {
+        if (security.getUserPrincipal() == null) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -282,20 +330,19 @@ public class SoccerAggregationAPI implements AggregationAPI {
     }
 
     public TeamStatsBean getTeamStats(int teamID) {
+        StatWriteBuffer.flushAll();
         Connection conn = null;
         PreparedStatement stmt = null;
         ResultSet rs = null;
         SoccerTeamStatsBean teamStats = new SoccerTeamStatsBean(teamID);
         try {
             conn = provider.getConnection();
-            stmt = conn.prepareStatement("SELECT teamID, SUM(goals), SUM(shots), SUM(shotsongoal), SUM(goalsagainst), " +
-                    "SUM(fouls), SUM(yellow), SUM(red), SUM(saves) FROM SoccerStats " +
-                    "WHERE teamID = ? " +
-                    "GROUP BY teamID");
+            stmt = conn.prepareStatement(SeasonStats.SOCCER.createTotals("r.teamID = ?", "goals", "shots", "shotsongoal",
+                    "goalsagainst", "fouls", "yellow", "red", "saves"));
             stmt.setInt(1, teamID);
+            stmt.setInt(2, teamID);
             rs = stmt.executeQuery();
             if (rs.next()) {
-                teamStats.teamID = rs.getInt(1);
                 teamStats.goals = rs.getInt(2);
                 teamStats.shots = rs.getInt(3);
                 teamStats.shotsOnGoal = rs.getInt(4);
@@ -321,18 +368,21 @@ public class SoccerAggregationAPI implements AggregationAPI {
      *
      * See {@link org.sportim.service.api.AggregationAPI#getPlayerStats} for more info.
      * @param leagueID path param, the league ID
-     * @param token header param, the user's authentication token
+     * @param top query param, the number of players on the scorers leaderboard
+     * @param security the request's security context
      * @return a ResponseBean containing the status and league results
      */
     @GET
     @Produces("application/json")
     @Path("league/{leagueID}")
-    public ResponseBean getLeagueStatsRest(@PathParam("leagueID") final int leagueID, @HeaderParam("token") final String token) {
-        if (AuthenticationUtil.validateToken(token) == null) {
+    public ResponseBean getLeagueStatsRest(@PathParam("leagueID") final int leagueID,
+                                           @QueryParam("top") @DefaultValue("10") final int top,
+                                           @Context final SecurityContext security) {
+        if (security.getUserPrincipal() == null) {
             return new ResponseBean(401, "Not authorized");
         }
 
-        LeagueStatsBean leagueStats = getLeagueStats(leagueID);
+        LeagueStatsBean leagueStats = getLeagueStats(leagueID, top);
         if (leagueStats == null) {
             return new ResponseBean(500, "Unable to retrieve league stats.");
         }
@@ -342,31 +392,91 @@ public class SoccerAggregationAPI implements AggregationAPI {
         return resp;
     }
 
-    public LeagueStatsBean getLeagueStats(int leagueID) {
-        List<Integer> teams = StatUtil.getAllTeamsInLeague(leagueID);
-        if (teams == null) {
+    public LeagueStatsBean getLeagueStats(int leagueID, int topScorers) {
+        StatWriteBuffer.flushAll();
+        SoccerLeagueStatsBean leagueStats = new SoccerLeagueStatsBean(leagueID);
+        Map<Integer, SoccerTeamStatsBean> teams = new LinkedHashMap<Integer, SoccerTeamStatsBean>();
+        Leaderboard<SoccerPlayerStatsBean> scorers = new Leaderboard<SoccerPlayerStatsBean>(
+                Math.max(0, Math.min(topScorers, MAX_TOP_SCORERS)), new Comparator<SoccerPlayerStatsBean>() {
+            @Override
+            public int compare(SoccerPlayerStatsBean a, SoccerPlayerStatsBean b) {
+                return a.goals != b.goals ? Integer.compare(a.goals, b.goals) : b.login.compareTo(a.login);
+            }
+        });
+
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            conn = provider.getConnection();
+            // every team in the league, with a row per player who has stats for it
+            stmt = conn.prepareStatement("SELECT tb.TeamId, s.player, SUM(s.c0), SUM(s.c1), SUM(s.c2), SUM(s.c3), " +
+                    "SUM(s.c4), SUM(s.c5), SUM(s.c6), SUM(s.c7), SUM(s.c8), SUM(s.c9) FROM TeamBelongsTo tb " +
+                    "LEFT JOIN (" + SeasonStats.SOCCER.createLeagueRows("goals", "shots", "shotsongoal", "goalsagainst",
+                    "fouls", "yellow", "red", "assists", "saves", "minutes") + ") s ON s.teamID = tb.TeamId " +
+                    "WHERE tb.LeagueId = ? " +
+                    "GROUP BY tb.TeamId, s.player");
+            stmt.setInt(1, leagueID);
+            stmt.setInt(2, leagueID);
+            stmt.setInt(3, leagueID);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                int teamID = rs.getInt(1);
+                SoccerTeamStatsBean team = teams.get(teamID);
+                if (team == null) {
+                    team = new SoccerTeamStatsBean(teamID);
+                    teams.put(teamID, team);
+                }
+                String login = rs.getString(2);
+                if (login == null) {
+                    continue;
+                }
+
+                SoccerPlayerStatsBean player = new SoccerPlayerStatsBean(login);
+                player.teamID = teamID;
+                player.goals = rs.getInt(3);
+                player.shots = rs.getInt(4);
+                player.shotsOnGoal = rs.getInt(5);
+                player.goalsAgainst = rs.getInt(6);
+                player.fouls = rs.getInt(7);
+                player.yellow = rs.getInt(8);
+                player.red = rs.getInt(9);
+                player.assists = rs.getInt(10);
+                player.saves = rs.getInt(11);
+                player.minutes = rs.getInt(12);
+                scorers.offer(player);
+
+                team.goals += player.goals;
+                team.shots += player.shots;
+                team.shotsOnGoal += player.shotsOnGoal;
+                team.goalsAgainst += player.goalsAgainst;
+                team.fouls += player.fouls;
+                team.yellow += player.yellow;
+                team.red += player.red;
+                team.saves += player.saves;
+            }
+        } catch (Exception e) {
+            logger.error("Unable to get league soccer stats: " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
             return null;
+        } finally {
+            APIUtils.closeResources(rs, stmt, conn);
         }
 
-        SoccerLeagueStatsBean leagueStats = new SoccerLeagueStatsBean(leagueID);
-        leagueStats.teamStats = new ArrayList<TeamStatsBean>(teams.size());
-        for (Integer teamID : teams) {
-            TeamStatsBean teamStatsGen = getTeamStats(teamID);
-            if (teamStatsGen != null) {
-                SoccerTeamStatsBean teamStats = (SoccerTeamStatsBean)teamStatsGen;
-                leagueStats.teamStats.add(teamStats);
-                if (teamStats.goals > leagueStats.topTeamScore) {
-                    leagueStats.topScoringTeam = teamID;
-                    leagueStats.topTeamScore = teamStats.goals;
-                }
-                leagueStats.goals += teamStats.goals;
-                leagueStats.fouls += teamStats.fouls;
-                leagueStats.yellow += teamStats.yellow;
-                leagueStats.red += teamStats.red;
-                leagueStats.shots += teamStats.shots;
-                leagueStats.shotsOnGoal += teamStats.shotsOnGoal;
+        leagueStats.teamStats = new ArrayList<TeamStatsBean>(teams.values());
+        for (SoccerTeamStatsBean teamStats : teams.values()) {
+            if (teamStats.goals > leagueStats.topTeamScore) {
+                leagueStats.topScoringTeam = teamStats.teamID;
+                leagueStats.topTeamScore = teamStats.goals;
             }
+            leagueStats.goals += teamStats.goals;
+            leagueStats.fouls += teamStats.fouls;
+            leagueStats.yellow += teamStats.yellow;
+            leagueStats.red += teamStats.red;
+            leagueStats.shots += teamStats.shots;
+            leagueStats.shotsOnGoal += teamStats.shotsOnGoal;
         }
+        leagueStats.topScorers = new ArrayList<PlayerStatsBean>(scorers.getEntries());
         return leagueStats;
     }
 
@@ -0,0 +1,227 @@
+package org.sportim.service.soccer;
+
+import org.apache.log4j.Logger;
+import org.sportim.service.beans.ResponseBean;
+import org.sportim.service.beans.StatusBean;
+import org.sportim.service.soccer.beans.SoccerActionBean;
+import org.sportim.service.soccer.beans.SoccerGameBean;
+import org.sportim.service.util.*;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.SecurityContext;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * API for recording a batch of soccer actions in one request
+ */
+@Path("/batch")
+public class SoccerBatchAPI {
+    private static Logger logger = Logger.getLogger(SoccerBatchAPI.class.getName());
+    private ConnectionProvider provider;
+
+    public SoccerBatchAPI() {
+        provider = ConnectionManager.getInstance();
+    }
+
+    public SoccerBatchAPI(ConnectionProvider provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * Record an ordered batch of goals, shots, fouls, passes and substitutions. All valid
+     * actions are applied in one transaction; malformed actions, and substitutions that
+     * can't be applied, are rejected individually.
+     * @param actions body param, the actions in the order they happened
+     * @param eventID path param, the event ID
+     * @param security the request's security context
+     * @param session header param, the user's stat tracking session ID
+     * @return a ResponseBean with the overall status and a result per action
+     */
+    @POST
+    @Idempotent
+    @Path("{eventID}")
+    @Consumes("application/json")
+    @Produces("application/json")
+    public ResponseBean postActions(final List<SoccerActionBean> actions, @PathParam("eventID") final int eventID,
+                                    @Context final SecurityContext security, @HeaderParam("session") final String session) {
+        if (security.getUserPrincipal() == null) {
+            return new ResponseBean(401, "Not authorized");
+        }
+
+        if (!StatUtil.isValidSession(session, eventID)) {
+            return new ResponseBean(400, "You must start a session before tracking any statistics");
+        }
+
+        if (actions == null || actions.isEmpty()) {
+            return new ResponseBean(400, "Malformed request");
+        }
+
+        List<StatusBean> results = new ArrayList<StatusBean>(actions.size());
+        StatDeltas deltas = new StatDeltas();
+        List<StatLog.Action> logged = new ArrayList<StatLog.Action>();
+        Map<Integer, SoccerGameBean> subs = new LinkedHashMap<Integer, SoccerGameBean>();
+        for (int i = 0; i < actions.size(); i++) {
+            SoccerActionBean action = actions.get(i);
+            if (action == null || !action.validate()) {
+                results.add(new StatusBean(400, "Malformed action"));
+                continue;
+            }
+
+            results.add(new StatusBean(200, ""));
+            switch (action.type) {
+                case SoccerActionBean.GOAL:
+                    logged.add(new StatLog.Action(StatLog.SOCCER_GOAL, action.goal));
+                    break;
+                case SoccerActionBean.SHOT:
+                    logged.add(new StatLog.Action(StatLog.SOCCER_SHOT, action.shot));
+                    break;
+                case SoccerActionBean.FOUL:
+                    logged.add(new StatLog.Action(StatLog.SOCCER_FOUL, action.foul));
+                    break;
+                case SoccerActionBean.PASS:
+                    logged.add(new StatLog.Action(StatLog.PASS, action.pass));
+                    break;
+                case SoccerActionBean.SUB:
+                    subs.put(i, action.sub);
+                    break;
+            }
+        }
+        for (StatLog.Action action : logged) {
+            deltas.addAll(StatLog.project(action.getType(), action.getData()), 1);
+        }
+
+        boolean success = false;
+        Connection conn = null;
+        try {
+            conn = provider.getConnection();
+            conn.setAutoCommit(false);
+            if (!StatUtil.lockSession(eventID, conn)) {
+                conn.rollback();
+                return new ResponseBean(400, "You must start a session before tracking any statistics");
+            }
+            if (!subs.isEmpty()) {
+                applySubstitutions(eventID, subs, results, conn);
+            }
+            StatLog.append(eventID, logged, conn);
+            deltas.write(eventID, conn);
+            LiveEventState.apply(eventID, deltas);
+            conn.commit();
+            success = true;
+            LiveEventFeed.publish(eventID);
+        } catch (Exception e) {
+            logger.error("Unable to post soccer actions: " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
+            APIUtils.rollback(conn);
+        } finally {
+            APIUtils.setAutoCommit(conn, true);
+            APIUtils.closeResource(conn);
+        }
+
+        ResponseBean resp;
+        if (success) {
+            resp = new ResponseBean(200, "");
+        } else {
+            resp = new ResponseBean(500, "Unable to add actions");
+            for (StatusBean result : results) {
+                if (result.getCode() == 200) {
+                    result.setCode(500);
+                    result.setMessage("Unable to add action");
+                }
+            }
+        }
+        resp.setResults(results);
+        return resp;
+    }
+
+    /**
+     * Apply substitutions in order: the subbed off player's minutes are calculated from their
+     * time on, and the subbed on player's time on is set. Times on set by earlier substitutions
+     * in the batch are used by later ones.
+     * @param eventID the event ID
+     * @param subs substitutions keyed by their index in the batch
+     * @param results per-action results, updated for any substitution that can't be applied
+     * @param conn the connection to use
+     * @throws SQLException
+     */
+    private void applySubstitutions(int eventID, Map<Integer, SoccerGameBean> subs, List<StatusBean> results,
+                                    Connection conn) throws SQLException {
+        PreparedStatement stmt = null;
+        PreparedStatement timeOnStmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = conn.prepareStatement("SELECT half_end, half_start FROM SoccerTime WHERE eventID = ?");
+            stmt.setInt(1, eventID);
+            rs = stmt.executeQuery();
+            if (!rs.next()) {
+                for (int i : subs.keySet()) {
+                    results.set(i, new StatusBean(422, "The game has not been started"));
+                }
+                return;
+            }
+            long halfEnd = rs.getLong(1);
+            long halfStart = rs.getLong(2);
+            APIUtils.closeResources(rs, stmt);
+            rs = null;
+
+            // current time on for everybody being subbed off
+            Set<String> subOff = new HashSet<String>();
+            for (SoccerGameBean sub : subs.values()) {
+                subOff.add(sub.subOff);
+            }
+            Map<String, Long> timeOn = new HashMap<String, Long>();
+            stmt = conn.prepareStatement("SELECT player, timeOn FROM SoccerStats WHERE eventID = ? " +
+                    "AND player IN (" + APIUtils.createParamString(subOff.size()) + ")");
+            int idx = 0;
+            stmt.setInt(++idx, eventID);
+            for (String player : subOff) {
+                stmt.setString(++idx, player);
+            }
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                timeOn.put(rs.getString(1), rs.getLong(2));
+            }
+            APIUtils.closeResources(rs, stmt);
+            rs = null;
+
+            stmt = conn.prepareStatement("UPDATE SoccerStats SET minutes = ? WHERE eventID = ? AND player = ?");
+            timeOnStmt = conn.prepareStatement("INSERT INTO SoccerStats (eventID, player, teamID, timeOn) VALUES (?,?,?,?) " +
+                    "ON DUPLICATE KEY UPDATE timeOn = ?");
+            for (Map.Entry<Integer, SoccerGameBean> entry : subs.entrySet()) {
+                SoccerGameBean sub = entry.getValue();
+                long time = sub.getTimestampMillis();
+                Long playerTimeOn = timeOn.get(sub.subOff);
+                if (playerTimeOn == null) {
+                    results.set(entry.getKey(), new StatusBean(422, "Player " + sub.subOff + " was not on the field"));
+                    continue;
+                }
+
+                long subHalfEnd = halfEnd > 0 ? halfEnd : time + 1;
+                long subHalfStart = halfStart > 0 ? halfStart : time + 1;
+                int minutes = SoccerTimeAPI.minutesPlayed(playerTimeOn, subHalfEnd, subHalfStart, time);
+                stmt.setInt(1, minutes);
+                stmt.setInt(2, eventID);
+                stmt.setString(3, sub.subOff);
+                stmt.addBatch();
+
+                timeOnStmt.setInt(1, eventID);
+                timeOnStmt.setString(2, sub.subOn);
+                timeOnStmt.setInt(3, sub.teamID);
+                timeOnStmt.setLong(4, time);
+                timeOnStmt.setLong(5, time);
+                timeOnStmt.addBatch();
+                timeOn.put(sub.subOn, time);
+                LiveEventState.setMinutes(eventID, sub.teamID, sub.subOff, minutes);
+                LiveEventState.addPlayers(eventID, sub.teamID, Collections.singletonList(sub.subOn));
+            }
+            stmt.executeBatch();
+            timeOnStmt.executeBatch();
+        } finally {
+            APIUtils.closeResources(rs, stmt, timeOnStmt);
+        }
+    }
+}
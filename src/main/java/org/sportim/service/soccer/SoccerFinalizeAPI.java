@@ -0,0 +1,69 @@
+package org.sportim.service.soccer;
+
+import org.sportim.service.beans.ResponseBean;
+import org.sportim.service.util.ConnectionManager;
+import org.sportim.service.util.ConnectionProvider;
+import org.sportim.service.util.SportType;
+import org.sportim.service.util.Standings;
+import org.sportim.service.util.StatUtil;
+import org.sportim.service.util.StatWriteBuffer;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.SecurityContext;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * API used to finalize soccer event results
+ */
+@Path("finalize")
+public class SoccerFinalizeAPI {
+    private ConnectionProvider provider;
+    private SoccerAggregationAPI soccerStatAPI;
+    private SoccerTableAPI soccerTableAPI;
+
+    public SoccerFinalizeAPI() {
+        provider = ConnectionManager.getInstance();
+        soccerStatAPI = new SoccerAggregationAPI(provider);
+        soccerTableAPI = new SoccerTableAPI(provider);
+    }
+
+    public SoccerFinalizeAPI(ConnectionProvider provider) {
+        this.provider = provider;
+        soccerStatAPI = new SoccerAggregationAPI(provider);
+        soccerTableAPI = new SoccerTableAPI(provider);
+    }
+
+    /**
+     * Finalize the event (triggers bracket calculations and updates the tournament standings)
+     * @param eventID path param, the event ID
+     * @param security the request's security context
+     * @param session header param, the user's stats tracking session ID
+     * @return a ResponseBean with the result status
+     */
+    @POST
+    @Path("{eventID}")
+    @Produces("application/json")
+    public ResponseBean finalize(@PathParam("eventID") final int eventID, @Context final SecurityContext security,
+                                 @HeaderParam("session") final String session) {
+        if (security.getUserPrincipal() == null) {
+            return new ResponseBean(401, "Not authorized");
+        }
+
+        if (!StatUtil.isValidSession(session, eventID)) {
+            return new ResponseBean(400, "You must start a session before tracking any statistics");
+        }
+
+        StatWriteBuffer.flush(eventID);
+        Set<Integer> losers = new HashSet<Integer>();
+        int winner = soccerStatAPI.getEventWinner(eventID, losers);
+        if (winner != -1) {
+            StatUtil.fillNextBracketEvent(eventID, winner, losers);
+        }
+        if (!Standings.update(eventID, SportType.SOCCER, soccerTableAPI)) {
+            return new ResponseBean(500, "Unable to update standings");
+        }
+        return new ResponseBean(200, "");
+    }
+}
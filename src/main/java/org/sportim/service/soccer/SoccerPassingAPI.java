@@ -8,6 +8,8 @@ import org.sportim.service.beans.stats.TeamPassingBean;
 import org.sportim.service.util.*;
 
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.SecurityContext;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -36,20 +38,21 @@ public class SoccerPassingAPI {
     }
 
     @POST
+    @Idempotent
     @Path("{eventID}")
     @Consumes("application/json")
     @Produces("application/json")
     @Deprecated
     public ResponseBean postPass(final PassBean pass, @PathParam("eventID") final int eventID,
-                                 @HeaderParam("token") final String token, @HeaderParam("session") final String session) {
-        return passingAPI.postPass(pass, eventID, token, session);
+                                 @Context final SecurityContext security, @HeaderParam("session") final String session) {
+        return passingAPI.postPass(pass, eventID, security, session);
     }
 
     @GET
     @Produces("application/json")
     @Deprecated
     public ResponseBean getPassingStats(@QueryParam("player") final String player, @QueryParam("teamID") final int teamID,
-                                        @QueryParam("eventID") final int eventID, @HeaderParam("token") final String token) {
-        return passingAPI.getPassingStats(player, teamID, eventID, token);
+                                        @QueryParam("eventID") final int eventID, @Context final SecurityContext security) {
+        return passingAPI.getPassingStats(player, teamID, eventID, security);
     }
 }
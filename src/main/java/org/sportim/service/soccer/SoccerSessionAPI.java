@@ -8,6 +8,8 @@ import org.sportim.service.util.ConnectionProvider;
 import org.sportim.service.util.PrivilegeUtil;
 
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.SecurityContext;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -35,8 +37,8 @@ public class SoccerSessionAPI {
     @Produces("application/json")
     @Deprecated
     public ResponseBean startEventSession(@PathParam("eventID") final int eventID,
-                                          @HeaderParam("token") final String token) {
-        return statSessionAPI.startEventSession(eventID, token);
+                                          @Context final SecurityContext security) {
+        return statSessionAPI.startEventSession(eventID, security);
     }
 
     @GET
@@ -44,8 +46,8 @@ public class SoccerSessionAPI {
     @Produces("application/json")
     @Deprecated
     public ResponseBean restartEventSession(@PathParam("eventID") final int eventID,
-                                            @HeaderParam("token") final String token) {
-        return statSessionAPI.restartEventSession(eventID, token);
+                                            @Context final SecurityContext security) {
+        return statSessionAPI.restartEventSession(eventID, security);
     }
 
     @DELETE
@@ -53,8 +55,8 @@ public class SoccerSessionAPI {
     @Produces("application/json")
     @Deprecated
     public ResponseBean endEventSession(@PathParam("eventID") final int eventID,
-                                        @HeaderParam("token") final String token,
+                                        @Context final SecurityContext security,
                                         @HeaderParam("session") final String session) {
-        return statSessionAPI.endEventSession(eventID, token, session);
+        return statSessionAPI.endEventSession(eventID, security, session);
     }
 }
@@ -9,8 +9,11 @@ import org.sportim.service.util.APIUtils;
 import org.sportim.service.util.ConnectionManager;
 import org.sportim.service.util.ConnectionProvider;
 import org.sportim.service.util.PrivilegeUtil;
+import org.sportim.service.util.StatWriteBuffer;
 
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.SecurityContext;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -39,128 +42,151 @@ public class SoccerTableAPI implements TableAPI {
      * Direct REST call for getting table results.
      *
      * @param events body param, list of event IDs
-     * @param token header param, the user's authentication token
+     * @param security the request's security context
      * @return the ResponseBean containing the results and status
      */
     @GET
     @Produces("application/json")
-    public ResponseBean getTableForEvents(@BeanParam List<Integer> events, @HeaderParam("token") final String token) {
-        for (int i : events) {
-            if (!PrivilegeUtil.hasEventView(token, i)) {
-                return new ResponseBean(401, "Not authorized");
-            }
+    public ResponseBean getTableForEvents(@BeanParam List<Integer> events, @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasEventViewAll(security.getUserPrincipal(), events)) {
+            return new ResponseBean(401, "Not authorized");
         }
 
-        SortedSet<AbstractTeamResultsBean> results = getTableForEvents(events);
+        List<AbstractTeamResultsBean> results = getTableForEvents(events);
         if (results == null) {
             return new ResponseBean(500, "Unable to get table results.");
         }
         ResponseBean resp = new ResponseBean(200, "");
-        resp.setTournamentResults(getTableForEvents(events));
+        resp.setTournamentResults(results);
         return resp;
     }
 
-    public SortedSet<AbstractTeamResultsBean> getTableForEvents(List<Integer> events) {
-        SortedSet<AbstractTeamResultsBean> table = new TreeSet<>();
+    public List<AbstractTeamResultsBean> getTableForEvents(List<Integer> events) {
+        Map<Integer, List<AbstractTeamResultsBean>> eventResults = getEventResults(events);
+        if (eventResults == null) {
+            return null;
+        }
+
+        // Add up each team's results
+        Map<Integer, SoccerTeamResultsBean> teamResults = new HashMap<Integer, SoccerTeamResultsBean>();
+        for (List<AbstractTeamResultsBean> event : eventResults.values()) {
+            for (AbstractTeamResultsBean result : event) {
+                SoccerTeamResultsBean teamRes = teamResults.get(result.teamID);
+                if (teamRes == null) {
+                    teamRes = new SoccerTeamResultsBean(result.teamID);
+                    teamResults.put(result.teamID, teamRes);
+                }
+                teamRes.add(result, 1);
+            }
+        }
+
+        // Sort the teams, then update ranks
+        AbstractTeamResultsBean[] table = teamResults.values().toArray(new AbstractTeamResultsBean[teamResults.size()]);
+        Arrays.sort(table);
+        for (int rank = 0; rank < table.length; rank++) {
+            table[rank].rank = rank + 1;
+        }
+        return Arrays.asList(table);
+    }
+
+    public Map<Integer, List<AbstractTeamResultsBean>> getEventResults(List<Integer> events) {
+        Map<Integer, List<AbstractTeamResultsBean>> results = new HashMap<Integer, List<AbstractTeamResultsBean>>();
+        if (events.isEmpty()) {
+            return results;
+        }
+        StatWriteBuffer.flush(events);
 
         Connection conn = null;
         PreparedStatement stmt = null;
         ResultSet rs = null;
 
-        Map<Integer, Map<Integer, Integer>> eventResults = new HashMap<Integer, Map<Integer, Integer>>();
-        Map<Integer, SoccerTeamResultsBean> teamResults = new HashMap<Integer, SoccerTeamResultsBean>();
+        Map<Integer, Map<Integer, Integer>> eventScores = new HashMap<Integer, Map<Integer, Integer>>();
+        Map<Integer, Map<Integer, SoccerTeamResultsBean>> eventTeams = new HashMap<Integer, Map<Integer, SoccerTeamResultsBean>>();
         try {
             conn = provider.getConnection();
             stmt = createEventStatQuery(events, conn);
             rs = stmt.executeQuery();
 
             // Collect the team and event results
-            collectResults(eventResults, teamResults, rs, events);
-
-            // Calculate event winners and add them to the team results
-            calculatePoints(eventResults, teamResults);
-
-            // Add results to the table, then update ranks
-            for (SoccerTeamResultsBean team : teamResults.values()) {
-                table.add(team);
-            }
-
-            int rank = 0;
-            for (AbstractTeamResultsBean team : table) {
-                team.rank = ++rank;
-            }
+            collectResults(eventScores, eventTeams, rs);
         } catch (Exception e) {
             logger.error("Unable to get soccer table results for events: " + e.getMessage());
             logger.debug(APIUtils.getStacktraceAsString(e));
-            table = null;
+            return null;
         }
         finally {
             APIUtils.closeResources(rs, stmt, conn);
         }
-        return table;
+
+        // Calculate event winners and add them to the team results
+        for (Map.Entry<Integer, Map<Integer, SoccerTeamResultsBean>> event : eventTeams.entrySet()) {
+            Map<Integer, Integer> scores = eventScores.get(event.getKey());
+            if (scores != null) {
+                calculatePoints(scores, event.getValue());
+            }
+            results.put(event.getKey(), new ArrayList<AbstractTeamResultsBean>(event.getValue().values()));
+        }
+        return results;
     }
 
+    /**
+     * Create the query for the events' goals per team, along with every team taking part in
+     * each event. Participating teams come back as rows with the last column set.
+     */
     private PreparedStatement createEventStatQuery(List<Integer> events, Connection conn) throws SQLException {
-        String query = APIUtils.createParamString(events.size());
-        query = "SELECT teamID, eventID, SUM(goals), SUM(goalsagainst) FROM SoccerStats WHERE eventID IN (" + query + ") " +
-                "GROUP BY teamID, eventID";
+        String params = APIUtils.createParamString(events.size());
+        String query = "SELECT teamID, eventID, SUM(goals), SUM(goalsagainst), 0 FROM SoccerStats WHERE eventID IN (" + params + ") " +
+                "GROUP BY teamID, eventID " +
+                "UNION ALL " +
+                "SELECT DISTINCT TeamId, EventId, 0, 0, 1 FROM TeamEvent WHERE EventId IN (" + params + ")";
 
         PreparedStatement stmt = conn.prepareStatement(query);
         int idx = 0;
-        for (Integer id : events) {
-            stmt.setInt(++idx, id);
+        for (int i = 0; i < 2; i++) {
+            for (Integer id : events) {
+                stmt.setInt(++idx, id);
+            }
         }
         return stmt;
     }
 
     /**
      * Collate the results of all of the events
-     * @param eventResults map from event ID to event winners (will be filled)
-     * @param teamResults map from team ID to team results beans (will be filled)
+     * @param eventScores map from event ID to goals per team (will be filled)
+     * @param eventTeams map from event ID to the event's team results beans (will be filled)
      * @param rs the result set from the event result query
-     * @param events the list of event IDs
-     * @throws Exception
+     * @throws SQLException
      */
-    private void collectResults(Map<Integer, Map<Integer,Integer>> eventResults, Map<Integer, SoccerTeamResultsBean> teamResults,
-                                ResultSet rs, List<Integer> events) throws Exception {
-        // Get all teams so we can fill in with zeros if needed
-        Connection conn = null;
-        PreparedStatement stmt = null;
-        ResultSet allTeamsRs = null;
-        Set<Integer> allTeamsInTournament = new HashSet<Integer>();
-        Exception ex = null;
-        try {
-            conn = provider.getConnection();
-            stmt = conn.prepareStatement("SELECT DISTINCT(TeamId) FROM TeamEvent " +
-                    "WHERE EventId IN (" + APIUtils.createParamString(events.size()) + ")");
-            int i = 0;
-            for (int id : events) {
-                stmt.setInt(++i, id);
-            }
-            allTeamsRs = stmt.executeQuery();
-            while (allTeamsRs.next()) {
-                allTeamsInTournament.add(allTeamsRs.getInt(1));
-            }
-        } catch (Exception e) {
-            ex = e;
-        } finally {
-            APIUtils.closeResources(allTeamsRs, stmt, conn);
-            if (ex != null) {
-                throw ex;
-            }
-        }
-
+    private void collectResults(Map<Integer, Map<Integer, Integer>> eventScores,
+                                Map<Integer, Map<Integer, SoccerTeamResultsBean>> eventTeams,
+                                ResultSet rs) throws SQLException {
         while (rs.next()) {
             int teamID = rs.getInt(1);
             int eventID = rs.getInt(2);
             int goals = rs.getInt(3);
             int goalsagainst = rs.getInt(4);
+            boolean participantOnly = rs.getInt(5) == 1;
+
+            // Teams with no stats still get a row in the table
+            Map<Integer, SoccerTeamResultsBean> teams = eventTeams.get(eventID);
+            if (teams == null) {
+                teams = new HashMap<Integer, SoccerTeamResultsBean>();
+                eventTeams.put(eventID, teams);
+            }
+            SoccerTeamResultsBean teamRes = teams.get(teamID);
+            if (teamRes == null) {
+                teamRes = new SoccerTeamResultsBean(teamID);
+                teams.put(teamID, teamRes);
+            }
+            if (participantOnly) {
+                continue;
+            }
 
             // Increment event goal count
-            Map<Integer, Integer> eventRes = eventResults.get(eventID);
+            Map<Integer, Integer> eventRes = eventScores.get(eventID);
             if (eventRes == null) {
                 eventRes = new HashMap<Integer, Integer>();
-                eventResults.put(eventID, eventRes);
+                eventScores.put(eventID, eventRes);
             }
             Integer eventGoals = eventRes.get(teamID);
             if (eventGoals == null) {
@@ -169,62 +195,47 @@ public class SoccerTableAPI implements TableAPI {
             eventRes.put(teamID, eventGoals + goals);
 
             // Increment team goal count
-            SoccerTeamResultsBean teamRes = teamResults.get(teamID);
-            if (teamRes == null) {
-                teamRes = new SoccerTeamResultsBean(teamID);
-                teamResults.put(teamID, teamRes);
-                allTeamsInTournament.remove(teamID);
-            }
             teamRes.goalsFor += goals;
             teamRes.goalsAgainst += goalsagainst;
         }
-
-        for (int team : allTeamsInTournament) {
-            SoccerTeamResultsBean teamRes = new SoccerTeamResultsBean(team);
-            teamRes.goalsAgainst = 0;
-            teamRes.goalsFor = 0;
-            teamResults.put(team, teamRes);
-        }
     }
 
     /**
-     * Calculate the table rankings
-     * @param eventResults the map from event IDs to event winners (team IDs)
-     * @param teamResults the map from team IDs to team result beans
+     * Calculate an event's winner(s), and record the result for each team with stats in the event
+     * @param event map from team IDs to the team's goals in the event
+     * @param teamResults map from team IDs to the team's result beans for the event
      */
-    private void calculatePoints(Map<Integer, Map<Integer, Integer>> eventResults, Map<Integer, SoccerTeamResultsBean> teamResults) {
-        for (Map<Integer, Integer> event : eventResults.values()) {
-            Set<Integer> maxTeams = new HashSet<Integer>();
-            int max = -1;
-            // Calculate winner(s)
-            for (int teamID : event.keySet()) {
-                int score = event.get(teamID);
-                if (score == max) {
-                    maxTeams.add(teamID);
-                }
-                if (score > max) {
-                    maxTeams.clear();
-                    maxTeams.add(teamID);
-                    max = score;
-                }
+    private void calculatePoints(Map<Integer, Integer> event, Map<Integer, SoccerTeamResultsBean> teamResults) {
+        Set<Integer> maxTeams = new HashSet<Integer>();
+        int max = -1;
+        // Calculate winner(s)
+        for (int teamID : event.keySet()) {
+            int score = event.get(teamID);
+            if (score == max) {
+                maxTeams.add(teamID);
+            }
+            if (score > max) {
+                maxTeams.clear();
+                maxTeams.add(teamID);
+                max = score;
             }
+        }
 
-            // Store results
-            for (int teamID : event.keySet()) {
-                SoccerTeamResultsBean teamRes = teamResults.get(teamID);
-                if (teamRes == null) {
-                    continue;
-                }
+        // Store results
+        for (int teamID : event.keySet()) {
+            SoccerTeamResultsBean teamRes = teamResults.get(teamID);
+            if (teamRes == null) {
+                continue;
+            }
 
-                if (maxTeams.contains(teamID) && maxTeams.size() == 1) {
-                    teamRes.wins += 1;
-                    teamRes.points += 3;
-                } else if (maxTeams.contains(teamID)) {
-                    teamRes.ties += 1;
-                    teamRes.points += 1;
-                } else {
-                    teamRes.losses += 1;
-                }
+            if (maxTeams.contains(teamID) && maxTeams.size() == 1) {
+                teamRes.wins += 1;
+                teamRes.points += 3;
+            } else if (maxTeams.contains(teamID)) {
+                teamRes.ties += 1;
+                teamRes.points += 1;
+            } else {
+                teamRes.losses += 1;
             }
         }
     }
@@ -10,11 +10,14 @@ import org.sportim.service.soccer.beans.SoccerTeamStatsBean;
 import org.sportim.service.util.*;
 
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.SecurityContext;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -42,16 +45,17 @@ public class SoccerTimeAPI {
      * Record the start of a game
      * @param gameStart body param, contains game info
      * @param eventID path param, the event ID
-     * @param token header param, the user's authentication token
+     * @param security the request's security context
      * @param session header param, the user's stat tracking session ID
      * @return a ResponseBean containing the result status
      */
     @POST
+    @Idempotent
     @Produces("application/json")
     @Path("start/{eventID}")
     public ResponseBean startGame(@PathParam("eventID") final int eventID, @HeaderParam("session") final String session,
-                                  @HeaderParam("token") final String token, SoccerGameBean gameStart) {
-        if (AuthenticationUtil.validateToken(token) == null) {
+                                  @Context final SecurityContext security, SoccerGameBean gameStart) {
+        if (security.getUserPrincipal() == null) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -64,12 +68,19 @@ public class SoccerTimeAPI {
         PreparedStatement stmt = null;
         try {
             conn = provider.getConnection();
+            // the start time and the starters' time on are committed together
+            conn.setAutoCommit(false);
+            if (!StatUtil.lockSession(eventID, conn)) {
+                conn.rollback();
+                return new ResponseBean(400, "You must start a session before tracking any statistics");
+            }
             stmt = conn.prepareStatement("INSERT INTO SoccerTime (eventID, start) VALUES (?,?) " +
                     "ON DUPLICATE KEY UPDATE start = ?");
             stmt.setInt(1, eventID);
             stmt.setLong(2, gameStart.getTimestampMillis());
             stmt.setLong(3, gameStart.getTimestampMillis());
             success = stmt.executeUpdate() > 0;
+            APIUtils.closeResource(stmt);
 
             // Add timestamp for all of the starters
             stmt = conn.prepareStatement("INSERT INTO SoccerStats (eventID, teamID, player, timeOn) VALUES (?,?,?,?) " +
@@ -77,12 +88,18 @@ public class SoccerTimeAPI {
             addStarterBatch(stmt, eventID, gameStart.starters, gameStart.teamID, gameStart.getTimestampMillis());
             addStarterBatch(stmt, eventID, gameStart.starters2, gameStart.teamID2, gameStart.getTimestampMillis());
             stmt.executeBatch();
+            LiveEventState.addPlayers(eventID, gameStart.teamID, gameStart.starters);
+            LiveEventState.addPlayers(eventID, gameStart.teamID2, gameStart.starters2);
+            conn.commit();
         } catch (Exception e) {
             logger.error("Unable to start soccer game: " + e.getMessage());
             logger.debug(APIUtils.getStacktraceAsString(e));
+            APIUtils.rollback(conn);
             success = false;
         } finally {
-            APIUtils.closeResources(stmt, conn);
+            APIUtils.closeResource(stmt);
+            APIUtils.setAutoCommit(conn, true);
+            APIUtils.closeResource(conn);
         }
 
         if (success) {
@@ -95,16 +112,17 @@ public class SoccerTimeAPI {
      * Record the end of the first half
      * @param halfEnd body param, contains half info
      * @param eventID path param, the event ID
-     * @param token header param, the user's authentication token
+     * @param security the request's security context
      * @param session header param, the user's stat tracking session ID
      * @return a ResponseBean containing the result status
      */
     @POST
+    @Idempotent
     @Produces("application/json")
     @Path("halfend/{eventID}")
     public ResponseBean endHalf(@PathParam("eventID") final int eventID, @HeaderParam("session") final String session,
-                                @HeaderParam("token") final String token, SoccerGameBean halfEnd) {
-        if (AuthenticationUtil.validateToken(token) == null) {
+                                @Context final SecurityContext security, SoccerGameBean halfEnd) {
+        if (security.getUserPrincipal() == null) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -139,16 +157,17 @@ public class SoccerTimeAPI {
      * Record the start of the second half
      * @param halfStart body param, contains half info
      * @param eventID path param, the event ID
-     * @param token header param, the user's authentication token
+     * @param security the request's security context
      * @param session header param, the user's stat tracking session ID
      * @return a ResponseBean containing the result status
      */
     @POST
+    @Idempotent
     @Produces("application/json")
     @Path("halfstart/{eventID}")
     public ResponseBean startHalf(@PathParam("eventID") final int eventID, @HeaderParam("session") final String session,
-                                @HeaderParam("token") final String token, SoccerGameBean halfStart) {
-        if (AuthenticationUtil.validateToken(token) == null) {
+                                @Context final SecurityContext security, SoccerGameBean halfStart) {
+        if (security.getUserPrincipal() == null) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -194,16 +213,17 @@ public class SoccerTimeAPI {
      * Record the end of the game
      * @param gameEnd body param, contains game end info
      * @param eventID path param, the event ID
-     * @param token header param, the user's authentication token
+     * @param security the request's security context
      * @param session header param, the user's stat tracking session ID
      * @return a ResponseBean containing the result status
      */
     @POST
+    @Idempotent
     @Produces("application/json")
     @Path("end/{eventID}")
     public ResponseBean endGame(@PathParam("eventID") final int eventID, @HeaderParam("session") final String session,
-                                  @HeaderParam("token") final String token, SoccerGameBean gameEnd) {
-        if (AuthenticationUtil.validateToken(token) == null) {
+                                  @Context final SecurityContext security, SoccerGameBean gameEnd) {
+        if (security.getUserPrincipal() == null) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -217,6 +237,12 @@ public class SoccerTimeAPI {
         ResultSet rs = null;
         try {
             conn = provider.getConnection();
+            // the minutes played are stat rows, so they are written under the session lock
+            conn.setAutoCommit(false);
+            if (!StatUtil.lockSession(eventID, conn)) {
+                conn.rollback();
+                return new ResponseBean(400, "You must start a session before tracking any statistics");
+            }
             stmt = conn.prepareStatement("INSERT INTO SoccerTime (eventID, end) VALUES (?,?) " +
                     "ON DUPLICATE KEY UPDATE end = ?");
             stmt.setInt(1, eventID);
@@ -253,8 +279,10 @@ public class SoccerTimeAPI {
                     int min = minutesPlayed(timeOn, half_end, half_start, end);
                     rs.updateInt(4, min);
                     rs.updateRow();
+                    LiveEventState.setMinutes(eventID, rs.getInt(1), rs.getString(2), min);
                 }
             }
+            conn.commit();
 
             Set<Integer> losers = new HashSet<Integer>();
             int winner = soccerStatAPI.getEventWinner(eventID, losers);
@@ -264,12 +292,16 @@ public class SoccerTimeAPI {
         } catch (Exception e) {
             logger.error("Unable to end soccer game: " + e.getMessage());
             logger.debug(APIUtils.getStacktraceAsString(e));
+            APIUtils.rollback(conn);
             success = false;
         } finally {
-            APIUtils.closeResources(rs, stmt, conn);
+            APIUtils.closeResources(rs, stmt);
+            APIUtils.setAutoCommit(conn, true);
+            APIUtils.closeResource(conn);
         }
 
         if (success) {
+            LiveEventFeed.publish(eventID);
             return new ResponseBean(200, "");
         }
         return new ResponseBean(500, "Unable to end game");
@@ -279,16 +311,17 @@ public class SoccerTimeAPI {
      * Record a substitution
      * @param sub body param, contains the sub's info
      * @param eventID path param, the event ID
-     * @param token header param, the user's authentication token
+     * @param security the request's security context
      * @param session header param, the user's stat tracking session ID
      * @return a ResponseBean containing the result status
      */
     @POST
+    @Idempotent
     @Produces("application/json")
     @Path("sub/{eventID}")
     public ResponseBean substitute(@PathParam("eventID") final int eventID, @HeaderParam("session") final String session,
-                                   @HeaderParam("token") final String token, SoccerGameBean sub) {
-        if (AuthenticationUtil.validateToken(token) == null) {
+                                   @Context final SecurityContext security, SoccerGameBean sub) {
+        if (security.getUserPrincipal() == null) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -303,6 +336,11 @@ public class SoccerTimeAPI {
         long half_end = 0, half_start = 0;
         try {
             conn = provider.getConnection();
+            conn.setAutoCommit(false);
+            if (!StatUtil.lockSession(eventID, conn)) {
+                conn.rollback();
+                return new ResponseBean(400, "You must start a session before tracking any statistics");
+            }
             stmt = conn.prepareStatement("SELECT half_end, half_start FROM SoccerTime WHERE eventID = ?");
             stmt.setInt(1, eventID);
             rs = stmt.executeQuery();
@@ -327,6 +365,7 @@ public class SoccerTimeAPI {
                 int min = minutesPlayed(timeOn, half_end, half_start, sub.getTimestampMillis());
                 rs.updateInt(3, min);
                 rs.updateRow();
+                LiveEventState.setMinutes(eventID, rs.getInt(1), sub.subOff, min);
             } else {
                 success = false;
             }
@@ -340,29 +379,37 @@ public class SoccerTimeAPI {
             stmt.setLong(4, sub.getTimestampMillis());
             stmt.setLong(5, sub.getTimestampMillis());
             success = stmt.executeUpdate() > 0;
+            if (success) {
+                LiveEventState.addPlayers(eventID, sub.teamID, Collections.singletonList(sub.subOn));
+            }
+            conn.commit();
         } catch (Exception e) {
             logger.error("Unable to post substitute: " + e.getMessage());
             logger.debug(APIUtils.getStacktraceAsString(e));
+            APIUtils.rollback(conn);
             success = false;
         } finally {
-            APIUtils.closeResources(rs, stmt, conn);
+            APIUtils.closeResources(rs, stmt);
+            APIUtils.setAutoCommit(conn, true);
+            APIUtils.closeResource(conn);
         }
 
         if (success) {
+            LiveEventFeed.publish(eventID);
             return new ResponseBean(200, "");
         }
         return new ResponseBean(500, "Unable to make substitution. Make sure the game has been started and one of the " +
                 "players was already on the field.");
     }
 
-    private int minutesPlayed(long timeOn, long half_end, long half_start, long end) {
+    static int minutesPlayed(long timeOn, long half_end, long half_start, long end) {
         if (timeOn > half_start) {
             return millisToMinutes(end - timeOn);
         }
         return millisToMinutes(end - timeOn - (half_start - half_end));
     }
 
-    private int millisToMinutes(long millis) {
+    private static int millisToMinutes(long millis) {
         // downcasting's ok here - we'll be small; ~90 minutes tops
         return (int)(millis / 60000);
     }
@@ -0,0 +1,46 @@
+package org.sportim.service.soccer.beans;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.sportim.service.beans.stats.PassBean;
+
+/**
+ * Bean for one action in a batch of soccer stats. The type selects which of
+ * the action fields is used: goal, shot, foul, pass or sub.
+ */
+@JsonSerialize(include=JsonSerialize.Inclusion.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown=true)
+public class SoccerActionBean {
+    public static final String GOAL = "goal";
+    public static final String SHOT = "shot";
+    public static final String FOUL = "foul";
+    public static final String PASS = "pass";
+    public static final String SUB = "sub";
+
+    public String type;
+    public SoccerScoreBean goal;
+    public SoccerShotBean shot;
+    public SoccerFoulBean foul;
+    public PassBean pass;
+    public SoccerGameBean sub;
+
+    public boolean validate() {
+        if (type == null) {
+            return false;
+        }
+        switch (type) {
+            case GOAL:
+                return goal != null && goal.validate();
+            case SHOT:
+                return shot != null && shot.validate();
+            case FOUL:
+                return foul != null && foul.validate();
+            case PASS:
+                return pass != null && pass.validate();
+            case SUB:
+                return sub != null && sub.subOn != null && sub.subOff != null && sub.getTimestamp() != null;
+            default:
+                return false;
+        }
+    }
+}
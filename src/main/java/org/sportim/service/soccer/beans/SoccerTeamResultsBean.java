@@ -19,6 +19,17 @@ public class SoccerTeamResultsBean extends AbstractTeamResultsBean {
         super(SportType.SOCCER, teamID);
     }
 
+    @Override
+    public void add(AbstractTeamResultsBean other, int sign) {
+        super.add(other, sign);
+        if (other instanceof SoccerTeamResultsBean) {
+            SoccerTeamResultsBean result = (SoccerTeamResultsBean)other;
+            goalsFor += sign * result.goalsFor;
+            goalsAgainst += sign * result.goalsAgainst;
+            points += sign * result.points;
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (o instanceof SoccerTeamResultsBean) {
@@ -14,11 +14,18 @@ import org.sportim.service.ultimatefrisbee.beans.UltimateTeamStatsBean;
 import org.sportim.service.util.*;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.SecurityContext;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -44,14 +51,14 @@ public class UltimateFrisbeeAggregationAPI implements AggregationAPI {
      *
      * See {@link org.sportim.service.api.AggregationAPI#deleteEventStats} for more info.
      * @param eventID path param, the event ID
-     * @param token header param, the user's authentication token
+     * @param security the request's security context
      * @return a ResponseBean containing the status
      */
     @DELETE
     @Produces("application/json")
     @Path("event/{eventID}")
-    public ResponseBean deleteEventStatsRest(@PathParam("eventID") final int eventID, @HeaderParam("token") final String token) {
-        if (!PrivilegeUtil.hasEventTracking(token, eventID)) {
+    public ResponseBean deleteEventStatsRest(@PathParam("eventID") final int eventID, @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasEventTracking(security.getUserPrincipal(), eventID)) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -63,24 +70,42 @@ public class UltimateFrisbeeAggregationAPI implements AggregationAPI {
 
     @Override
     public boolean deleteEventStats(int eventID) {
+        StatWriteBuffer.discard(eventID);
+        // stats deleted mid-session are read from the database until the next session
+        LiveEventState.close(eventID);
         Connection conn = null;
         PreparedStatement stmt = null;
         try {
             conn = provider.getConnection();
+            conn.setAutoCommit(false);
+            SeasonStats.unfold(eventID, conn);
             stmt = conn.prepareStatement("DELETE FROM UltimateStats WHERE eventID = ?");
             stmt.setInt(1, eventID);
             stmt.executeUpdate();
             APIUtils.closeResources(stmt);
+            stmt = conn.prepareStatement("DELETE FROM UltimateTeamStats WHERE eventID = ?");
+            stmt.setInt(1, eventID);
+            stmt.executeUpdate();
+            APIUtils.closeResources(stmt);
             stmt = conn.prepareStatement("DELETE FROM Passing WHERE eventID = ?");
             stmt.setInt(1, eventID);
             stmt.executeUpdate();
+            StatLog.delete(eventID, conn);
+            conn.commit();
+            PassGraph.invalidate(eventID);
+            LiveEventFeed.publish(eventID);
         } catch (Exception e) {
             logger.error("Unable to delete ultimate stats: " + e.getMessage());
             logger.debug(APIUtils.getStacktraceAsString(e));
+            APIUtils.rollback(conn);
             return false;
         } finally {
-            APIUtils.closeResources(stmt, conn);
+            APIUtils.closeResource(stmt);
+            APIUtils.setAutoCommit(conn, true);
+            APIUtils.closeResource(conn);
         }
+        // the event no longer counts toward its tournament's standings
+        Standings.update(eventID, SportType.ULTIMATE_FRISBEE, new UltimateFrisbeeTableAPI(provider));
         return true;
     }
 
@@ -89,14 +114,14 @@ public class UltimateFrisbeeAggregationAPI implements AggregationAPI {
      *
      * See {@link org.sportim.service.api.AggregationAPI#getEventStats} for more info.
      * @param eventID path param, the event ID
-     * @param token header param, the user's authentication token
+     * @param security the request's security context
      * @return a ResponseBean containing the status and event results
      */
     @GET
     @Produces("application/json")
     @Path("event/{eventID}")
-    public ResponseBean getEventStatsRest(@PathParam("eventID") final int eventID, @HeaderParam("token") final String token) {
-        if (!PrivilegeUtil.hasEventView(token, eventID)) {
+    public ResponseBean getEventStatsRest(@PathParam("eventID") final int eventID, @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasEventView(security.getUserPrincipal(), eventID)) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -109,8 +134,38 @@ public class UltimateFrisbeeAggregationAPI implements AggregationAPI {
         return new ResponseBean(500, "Unable to retrieve statistics.");
     }
 
+    /**
+     * Long-poll for an event's statistics. Responds as soon as statistics newer than the given
+     * version exist, or with no statistics if none are recorded before the poll times out.
+     *
+     * See {@link org.sportim.service.util.LiveEventFeed} for more info.
+     * @param eventID path param, the event ID
+     * @param version query param, the version the client already has (omit for the current statistics)
+     * @param security the request's security context
+     * @param response the suspended response, resumed with a ResponseBean containing the status,
+     *                 event results and version
+     */
+    @GET
+    @Produces("application/json")
+    @Path("event/{eventID}/live")
+    public void getLiveEventStats(@PathParam("eventID") final int eventID,
+                                  @QueryParam("version") @DefaultValue("-1") final long version,
+                                  @Context final SecurityContext security, @Suspended final AsyncResponse response) {
+        if (!PrivilegeUtil.hasEventView(security.getUserPrincipal(), eventID)) {
+            response.resume(new ResponseBean(401, "Not authorized"));
+            return;
+        }
+        LiveEventFeed.poll(eventID, version, this, response);
+    }
+
     @Override
     public AggregateEventBean getEventStats(int eventID) {
+        AggregateEventBean live = LiveEventState.get(eventID);
+        if (live != null) {
+            return live;
+        }
+
+        StatWriteBuffer.flush(eventID);
         Connection conn = null;
         PreparedStatement stmt = null;
         ResultSet rs = null;
@@ -175,7 +230,7 @@ public class UltimateFrisbeeAggregationAPI implements AggregationAPI {
      *
      * See {@link org.sportim.service.api.AggregationAPI#getPlayerStats} for more info.
      * @param login query param, the player's login
-     * @param token header param, the user's authentication token
+     * @param security the request's security context
      * @param teamID query param, the team ID
      * @return a ResponseBean containing the status and player results
      */
@@ -183,8 +238,8 @@ public class UltimateFrisbeeAggregationAPI implements AggregationAPI {
     @Produces("application/json")
     @Path("player")
     public ResponseBean getPlayerStatsRest(@QueryParam("login") final String login, @QueryParam("teamID") final int teamID,
-                                           @HeaderParam("token") final String token) {
-        if (!PrivilegeUtil.hasUserView(token, login)) {
+                                           @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasUserView(security.getUserPrincipal(), login)) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -202,26 +257,24 @@ public class UltimateFrisbeeAggregationAPI implements AggregationAPI {
 
     @Override
     public PlayerStatsBean getPlayerStats(String login, int teamID) {
+        StatWriteBuffer.flushAll();
         Connection conn = null;
         PreparedStatement stmt = null;
         ResultSet rs = null;
         UltimatePlayerStatsBean playerStats = null;
         try {
             conn = provider.getConnection();
-            if (teamID < 1) {
-                stmt = conn.prepareStatement("SELECT player, SUM(pointsthrown), SUM(pointsreceived), SUM(fouls) FROM UltimateStats " +
-                        "WHERE player = ?" +
-                        "GROUP BY player");
-                stmt.setString(1, login);
-            } else {
-                stmt = conn.prepareStatement("SELECT player, SUM(pointsthrown), SUM(pointsreceived), SUM(fouls) FROM UltimateStats " +
-                        "WHERE player = ? AND teamID = ? " +
-                        "GROUP BY player");
-                stmt.setString(1, login);
-                stmt.setInt(2, teamID);
+            String where = teamID < 1 ? "r.player = ?" : "r.player = ? AND r.teamID = ?";
+            stmt = conn.prepareStatement(SeasonStats.ULTIMATE.createTotals(where, "pointsthrown", "pointsreceived", "fouls"));
+            int params = teamID < 1 ? 1 : 2;
+            for (int i = 0; i < 2; i++) {
+                stmt.setString(i * params + 1, login);
+                if (teamID >= 1) {
+                    stmt.setInt(i * params + 2, teamID);
+                }
             }
             rs = stmt.executeQuery();
-            if (rs.next()) {
+            if (rs.next() && rs.getInt(1) > 0) {
                 playerStats = new UltimatePlayerStatsBean(login);
                 playerStats.pointsThrown = rs.getInt(2);
                 playerStats.pointsReceived = rs.getInt(3);
@@ -242,14 +295,14 @@ public class UltimateFrisbeeAggregationAPI implements AggregationAPI {
      *
      * See {@link org.sportim.service.api.AggregationAPI#getTeamStats} for more info.
      * @param teamID path param, the team ID
-     * @param token header param, the user's authentication token
+     * @param security the request's security context
      * @return a ResponseBean containing the status and team results
      */
     @GET
     @Produces("application/json")
     @Path("team/{teamID}")
-    public ResponseBean getTeamsStatsRest(@PathParam("teamID") final int teamID, @HeaderParam("token") final String token) {
-        if (AuthenticationUtil.validateToken(token) == null) {
+    public ResponseBean getTeamsStatsRest(@PathParam("teamID") final int teamID, @Context final SecurityContext security) {
+        if (security.getUserPrincipal() == null) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -264,16 +317,16 @@ public class UltimateFrisbeeAggregationAPI implements AggregationAPI {
 
     @Override
     public TeamStatsBean getTeamStats(int teamID) {
+        StatWriteBuffer.flushAll();
         Connection conn = null;
         PreparedStatement stmt = null;
         ResultSet rs = null;
         UltimateTeamStatsBean teamStats = new UltimateTeamStatsBean(teamID);
         try {
             conn = provider.getConnection();
-            stmt = conn.prepareStatement("SELECT teamID, SUM(pointsthrown), SUM(fouls) FROM UltimateStats " +
-                    "WHERE teamID = ? " +
-                    "GROUP BY teamID");
+            stmt = conn.prepareStatement(SeasonStats.ULTIMATE.createTotals("r.teamID = ?", "pointsthrown", "fouls"));
             stmt.setInt(1, teamID);
+            stmt.setInt(2, teamID);
             rs = stmt.executeQuery();
             if (rs.next()) {
                 teamStats.pointsFor = rs.getInt(2);
@@ -281,10 +334,9 @@ public class UltimateFrisbeeAggregationAPI implements AggregationAPI {
             }
             APIUtils.closeResources(rs, stmt);
 
-            stmt = conn.prepareStatement("SELECT eventID, SUM(pointsthrown) FROM UltimateStats " +
-                    "WHERE teamID != ? " +
-                    "GROUP BY eventID");
+            stmt = conn.prepareStatement(SeasonStats.ULTIMATE_TEAM.createTotals("r.teamID = ?", "pointsagainst"));
             stmt.setInt(1, teamID);
+            stmt.setInt(2, teamID);
             rs = stmt.executeQuery();
             if (rs.next()) {
                 teamStats.pointsAgainst = rs.getInt(2);
@@ -305,18 +357,21 @@ public class UltimateFrisbeeAggregationAPI implements AggregationAPI {
      *
      * See {@link org.sportim.service.api.AggregationAPI#getPlayerStats} for more info.
      * @param leagueID path param, the league ID
-     * @param token header param, the user's authentication token
+     * @param top query param, the number of players on the scorers leaderboard
+     * @param security the request's security context
      * @return a ResponseBean containing the status and league results
      */
     @GET
     @Produces("application/json")
     @Path("league/{leagueID}")
-    public ResponseBean getLeagueStatsRest(@PathParam("leagueID") final int leagueID, @HeaderParam("token") final String token) {
-        if (AuthenticationUtil.validateToken(token) == null) {
+    public ResponseBean getLeagueStatsRest(@PathParam("leagueID") final int leagueID,
+                                           @QueryParam("top") @DefaultValue("10") final int top,
+                                           @Context final SecurityContext security) {
+        if (security.getUserPrincipal() == null) {
             return new ResponseBean(401, "Not authorized");
         }
 
-        LeagueStatsBean leagueStats = getLeagueStats(leagueID);
+        LeagueStatsBean leagueStats = getLeagueStats(leagueID, top);
         if (leagueStats == null) {
             return new ResponseBean(500, "Unable to retrieve league stats.");
         }
@@ -327,27 +382,78 @@ public class UltimateFrisbeeAggregationAPI implements AggregationAPI {
     }
 
     @Override
-    public LeagueStatsBean getLeagueStats(int leagueID) {
-        List<Integer> teams = StatUtil.getAllTeamsInLeague(leagueID);
-        if (teams == null) {
+    public LeagueStatsBean getLeagueStats(int leagueID, int topScorers) {
+        StatWriteBuffer.flushAll();
+        UltimateLeagueStatsBean leagueStats = new UltimateLeagueStatsBean(leagueID);
+        Map<Integer, UltimateTeamStatsBean> teams = new LinkedHashMap<Integer, UltimateTeamStatsBean>();
+        Leaderboard<UltimatePlayerStatsBean> scorers = new Leaderboard<UltimatePlayerStatsBean>(
+                Math.max(0, Math.min(topScorers, MAX_TOP_SCORERS)), new Comparator<UltimatePlayerStatsBean>() {
+            @Override
+            public int compare(UltimatePlayerStatsBean a, UltimatePlayerStatsBean b) {
+                return a.pointsThrown != b.pointsThrown ? Integer.compare(a.pointsThrown, b.pointsThrown) :
+                        b.login.compareTo(a.login);
+            }
+        });
+
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            conn = provider.getConnection();
+            // every team in the league, with a row per player who has stats for it and a
+            // player-less row for the team's points against
+            stmt = conn.prepareStatement("SELECT tb.TeamId, s.player, SUM(s.c0), SUM(s.c1), SUM(s.c2), SUM(s.c3) " +
+                    "FROM TeamBelongsTo tb " +
+                    "LEFT JOIN (" + SeasonStats.ULTIMATE.createLeagueRows("pointsthrown", "pointsreceived", "fouls", null) +
+                    " UNION ALL " + SeasonStats.ULTIMATE_TEAM.createLeagueRows(null, null, null, "pointsagainst") +
+                    ") s ON s.teamID = tb.TeamId " +
+                    "WHERE tb.LeagueId = ? " +
+                    "GROUP BY tb.TeamId, s.player");
+            for (int i = 1; i <= 5; i++) {
+                stmt.setInt(i, leagueID);
+            }
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                int teamID = rs.getInt(1);
+                UltimateTeamStatsBean team = teams.get(teamID);
+                if (team == null) {
+                    team = new UltimateTeamStatsBean(teamID);
+                    teams.put(teamID, team);
+                }
+                String login = rs.getString(2);
+                if (login == null) {
+                    team.pointsAgainst += rs.getInt(6);
+                    continue;
+                }
+
+                UltimatePlayerStatsBean player = new UltimatePlayerStatsBean(login);
+                player.teamID = teamID;
+                player.pointsThrown = rs.getInt(3);
+                player.pointsReceived = rs.getInt(4);
+                player.fouls = rs.getInt(5);
+                scorers.offer(player);
+
+                team.pointsFor += player.pointsThrown;
+                team.fouls += player.fouls;
+            }
+        } catch (Exception e) {
+            logger.error("Unable to get ultimate league stats: " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
             return null;
+        } finally {
+            APIUtils.closeResources(rs, stmt, conn);
         }
 
-        UltimateLeagueStatsBean leagueStats = new UltimateLeagueStatsBean(leagueID);
-        leagueStats.teamStats = new ArrayList<TeamStatsBean>(teams.size());
-        for (Integer teamID : teams) {
-            TeamStatsBean teamStatsGen = getTeamStats(teamID);
-            if (teamStatsGen != null) {
-                UltimateTeamStatsBean teamStats = (UltimateTeamStatsBean)teamStatsGen;
-                leagueStats.teamStats.add(teamStats);
-                if (teamStats.pointsFor > leagueStats.topTeamScore) {
-                    leagueStats.topScoringTeam = teamID;
-                    leagueStats.topTeamScore = teamStats.pointsFor;
-                }
-                leagueStats.points += teamStats.pointsFor;
-                leagueStats.fouls += teamStats.fouls;
+        leagueStats.teamStats = new ArrayList<TeamStatsBean>(teams.values());
+        for (UltimateTeamStatsBean teamStats : teams.values()) {
+            if (teamStats.pointsFor > leagueStats.topTeamScore) {
+                leagueStats.topScoringTeam = teamStats.teamID;
+                leagueStats.topTeamScore = teamStats.pointsFor;
             }
+            leagueStats.points += teamStats.pointsFor;
+            leagueStats.fouls += teamStats.fouls;
         }
+        leagueStats.topScorers = new ArrayList<PlayerStatsBean>(scorers.getEntries());
         return leagueStats;
     }
 
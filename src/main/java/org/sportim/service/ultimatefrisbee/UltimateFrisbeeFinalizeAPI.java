@@ -1,12 +1,16 @@
 package org.sportim.service.ultimatefrisbee;
 
 import org.sportim.service.beans.ResponseBean;
-import org.sportim.service.util.AuthenticationUtil;
 import org.sportim.service.util.ConnectionManager;
 import org.sportim.service.util.ConnectionProvider;
+import org.sportim.service.util.SportType;
+import org.sportim.service.util.Standings;
 import org.sportim.service.util.StatUtil;
+import org.sportim.service.util.StatWriteBuffer;
 
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.SecurityContext;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -17,30 +21,33 @@ import java.util.Set;
 public class UltimateFrisbeeFinalizeAPI {
     private ConnectionProvider provider;
     private UltimateFrisbeeAggregationAPI ultimateStatAPI;
+    private UltimateFrisbeeTableAPI ultimateTableAPI;
 
     public UltimateFrisbeeFinalizeAPI() {
         provider = ConnectionManager.getInstance();
         ultimateStatAPI = new UltimateFrisbeeAggregationAPI(provider);
+        ultimateTableAPI = new UltimateFrisbeeTableAPI(provider);
     }
 
     public UltimateFrisbeeFinalizeAPI(ConnectionProvider provider) {
         this.provider = provider;
         ultimateStatAPI = new UltimateFrisbeeAggregationAPI(provider);
+        ultimateTableAPI = new UltimateFrisbeeTableAPI(provider);
     }
 
     /**
-     * Finalize the event (triggers bracket calculations)
+     * Finalize the event (triggers bracket calculations and updates the tournament standings)
      * @param eventID path param, the event ID
-     * @param token header param, the user's authentication token
+     * @param security the request's security context
      * @param session header param, the user's stats tracking session ID
      * @return a ResponseBean with the result status
      */
     @POST
     @Path("{eventID}")
     @Produces("application/json")
-    public ResponseBean finalize(@PathParam("eventID") final int eventID, @HeaderParam("token") final String token,
+    public ResponseBean finalize(@PathParam("eventID") final int eventID, @Context final SecurityContext security,
                                  @HeaderParam("session") final String session) {
-        if (AuthenticationUtil.validateToken(token) == null) {
+        if (security.getUserPrincipal() == null) {
             return new ResponseBean(401, "Not authorized");
         }
 
@@ -48,11 +55,15 @@ public class UltimateFrisbeeFinalizeAPI {
             return new ResponseBean(400, "You must start a session before tracking any statistics");
         }
 
+        StatWriteBuffer.flush(eventID);
         Set<Integer> losers = new HashSet<Integer>();
         int winner = ultimateStatAPI.getEventWinner(eventID, losers);
         if (winner != -1) {
             StatUtil.fillNextBracketEvent(eventID, winner, losers);
         }
+        if (!Standings.update(eventID, SportType.ULTIMATE_FRISBEE, ultimateTableAPI)) {
+            return new ResponseBean(500, "Unable to update standings");
+        }
         return new ResponseBean(200, "");
     }
 }
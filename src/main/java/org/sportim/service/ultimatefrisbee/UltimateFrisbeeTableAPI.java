@@ -9,8 +9,11 @@ import org.sportim.service.util.APIUtils;
 import org.sportim.service.util.ConnectionManager;
 import org.sportim.service.util.ConnectionProvider;
 import org.sportim.service.util.PrivilegeUtil;
+import org.sportim.service.util.StatWriteBuffer;
 
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.SecurityContext;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -37,212 +40,207 @@ public class UltimateFrisbeeTableAPI implements TableAPI {
 
     @GET
     @Produces("application/json")
-    public ResponseBean getTableForEvents(@BeanParam List<Integer> events, @HeaderParam("token") final String token) {
-        for (int i : events) {
-            if (!PrivilegeUtil.hasEventView(token, i)) {
-                return new ResponseBean(401, "Not authorized");
-            }
+    public ResponseBean getTableForEvents(@BeanParam List<Integer> events, @Context final SecurityContext security) {
+        if (!PrivilegeUtil.hasEventViewAll(security.getUserPrincipal(), events)) {
+            return new ResponseBean(401, "Not authorized");
         }
 
-        SortedSet<AbstractTeamResultsBean> results = getTableForEvents(events);
+        List<AbstractTeamResultsBean> results = getTableForEvents(events);
         if (results == null) {
             return new ResponseBean(500, "Unable to get table results.");
         }
         ResponseBean resp = new ResponseBean(200, "");
-        resp.setTournamentResults(getTableForEvents(events));
+        resp.setTournamentResults(results);
         return resp;
     }
 
-    public SortedSet<AbstractTeamResultsBean> getTableForEvents(List<Integer> events) {
-        SortedSet<AbstractTeamResultsBean> table = new TreeSet<>();
+    public List<AbstractTeamResultsBean> getTableForEvents(List<Integer> events) {
+        Map<Integer, List<AbstractTeamResultsBean>> eventResults = getEventResults(events);
+        if (eventResults == null) {
+            return null;
+        }
+
+        // Add up each team's results
+        Map<Integer, UltimateTeamResultsBean> teamResults = new HashMap<Integer, UltimateTeamResultsBean>();
+        for (List<AbstractTeamResultsBean> event : eventResults.values()) {
+            for (AbstractTeamResultsBean result : event) {
+                UltimateTeamResultsBean teamRes = teamResults.get(result.teamID);
+                if (teamRes == null) {
+                    teamRes = new UltimateTeamResultsBean(result.teamID);
+                    teamResults.put(result.teamID, teamRes);
+                }
+                teamRes.add(result, 1);
+            }
+        }
+
+        // Sort the teams, then update ranks
+        AbstractTeamResultsBean[] table = teamResults.values().toArray(new AbstractTeamResultsBean[teamResults.size()]);
+        Arrays.sort(table);
+        for (int rank = 0; rank < table.length; rank++) {
+            table[rank].rank = rank + 1;
+        }
+        return Arrays.asList(table);
+    }
+
+    public Map<Integer, List<AbstractTeamResultsBean>> getEventResults(List<Integer> events) {
+        Map<Integer, List<AbstractTeamResultsBean>> results = new HashMap<Integer, List<AbstractTeamResultsBean>>();
+        if (events.isEmpty()) {
+            return results;
+        }
+        StatWriteBuffer.flush(events);
 
         Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
 
-        Map<Integer, Map<Integer, Integer>> eventResults = new HashMap<Integer, Map<Integer, Integer>>();
-        Map<Integer, UltimateTeamResultsBean> teamResults = new HashMap<Integer, UltimateTeamResultsBean>();
+        Map<Integer, Map<Integer, Integer>> eventScores = new HashMap<Integer, Map<Integer, Integer>>();
+        Map<Integer, Map<Integer, UltimateTeamResultsBean>> eventTeams = new HashMap<Integer, Map<Integer, UltimateTeamResultsBean>>();
         try {
             conn = provider.getConnection();
+            stmt = createPointsQuery(events, conn);
+            rs = stmt.executeQuery();
 
             // Collect the team point and event results
-            collectPointResults(teamResults, eventResults, events, conn);
-
-            // Collect points against and transfer event wins to reams
-            transferEventResults(teamResults, eventResults);
-
-            // Add results to the table, then update ranks
-            for (UltimateTeamResultsBean team : teamResults.values()) {
-                table.add(team);
-            }
-
-            int rank = 0;
-            for (AbstractTeamResultsBean team : table) {
-                team.rank = ++rank;
-            }
+            collectPointResults(eventTeams, eventScores, rs);
         } catch (Exception e) {
             logger.error("Unable to get ultimate table: " + e.getMessage());
             logger.debug(APIUtils.getStacktraceAsString(e));
-            table = null;
+            return null;
         }
         finally {
-            APIUtils.closeResources(conn);
+            APIUtils.closeResources(rs, stmt, conn);
+        }
+
+        // Collect points against and transfer event wins to teams
+        for (Map.Entry<Integer, Map<Integer, UltimateTeamResultsBean>> event : eventTeams.entrySet()) {
+            Map<Integer, Integer> scores = eventScores.get(event.getKey());
+            if (scores != null) {
+                transferEventResults(event.getValue(), scores);
+            }
+            results.put(event.getKey(), new ArrayList<AbstractTeamResultsBean>(event.getValue().values()));
         }
-        return table;
+        return results;
     }
 
+    /**
+     * Create the query for the events' points per team, along with every team taking part in
+     * each event. Participating teams come back as rows with the last column set.
+     */
     private PreparedStatement createPointsQuery(List<Integer> events, Connection conn) throws SQLException {
-        String query = APIUtils.createParamString(events.size());
-        query = "SELECT eventID, teamID, SUM(points) FROM UltimateStats WHERE eventID IN (" + query + ") " +
-                "GROUP BY eventID, teamID";
+        String params = APIUtils.createParamString(events.size());
+        String query = "SELECT eventID, teamID, SUM(pointsthrown), 0 FROM UltimateStats WHERE eventID IN (" + params + ") " +
+                "GROUP BY eventID, teamID " +
+                "UNION ALL " +
+                "SELECT DISTINCT EventId, TeamId, 0, 1 FROM TeamEvent WHERE EventId IN (" + params + ")";
 
         PreparedStatement stmt = conn.prepareStatement(query);
         int idx = 0;
-        for (Integer id : events) {
-            stmt.setInt(++idx, id);
+        for (int i = 0; i < 2; i++) {
+            for (Integer id : events) {
+                stmt.setInt(++idx, id);
+            }
         }
         return stmt;
     }
 
     /**
-     * Calculate the table rankings
-     * @param eventResults the map from event IDs to event winners (team IDs)
-     * @param teamResults the map from team IDs to team result beans
+     * Collect each team's points, and each event's points per team
+     * @param eventTeams map from event IDs to the event's team result beans (will be filled)
+     * @param eventScores map from event IDs to points per team (will be filled)
+     * @param rs the result set from the points query
+     * @throws SQLException
      */
-    private void collectPointResults(Map<Integer, UltimateTeamResultsBean> teamResults,
-                                     Map<Integer, Map<Integer, Integer>> eventResults, List<Integer> events,
-                                     Connection conn) {
-        PreparedStatement stmt = null;
-        ResultSet rs = null;
-        try {
-            stmt = createPointsQuery(events, conn);
-            rs = stmt.executeQuery();
-            // Get all teams so we can fill in with zeros if needed
-            Set<Integer> allTeamsInTournament = getAllTeamsInTournament(events);
+    private void collectPointResults(Map<Integer, Map<Integer, UltimateTeamResultsBean>> eventTeams,
+                                     Map<Integer, Map<Integer, Integer>> eventScores, ResultSet rs) throws SQLException {
+        while (rs.next()) {
+            int eventID = rs.getInt(1);
+            int teamID = rs.getInt(2);
+            int points = rs.getInt(3);
+            boolean participantOnly = rs.getInt(4) == 1;
+
+            // Teams with no stats still get a row in the table
+            Map<Integer, UltimateTeamResultsBean> teams = eventTeams.get(eventID);
+            if (teams == null) {
+                teams = new HashMap<Integer, UltimateTeamResultsBean>();
+                eventTeams.put(eventID, teams);
+            }
+            UltimateTeamResultsBean teamRes = teams.get(teamID);
+            if (teamRes == null) {
+                teamRes = new UltimateTeamResultsBean(teamID);
+                teams.put(teamID, teamRes);
+            }
+            if (participantOnly) {
+                continue;
+            }
 
-            while (rs.next()) {
-                int eventID = rs.getInt(1);
-                int teamID = rs.getInt(2);
-                int points = rs.getInt(3);
+            // Increment team point count
+            teamRes.pointsFor += points;
 
-                // Increment team point count
-                UltimateTeamResultsBean teamRes = teamResults.get(teamID);
-                if (teamRes == null) {
-                    teamRes = new UltimateTeamResultsBean(teamID);
-                    teamResults.put(teamID, teamRes);
-                    allTeamsInTournament.remove(teamID);
-                }
-                teamRes.pointsFor += points;
-                teamRes.pointsAgainst = 0;
-
-                // Record event result
-                Map<Integer, Integer> eventResult = eventResults.get(eventID);
-                if (eventResult == null) {
-                    eventResult = new HashMap<Integer, Integer>();
-                    eventResults.put(eventID, eventResult);
-                }
-                Integer eventPoints = eventResult.get(teamID);
-                if (eventPoints == null) {
-                    eventResult.put(teamID, points);
-                } else {
-                    eventPoints += points;
-                    eventResult.put(teamID, eventPoints);
-                }
+            // Record event result
+            Map<Integer, Integer> eventResult = eventScores.get(eventID);
+            if (eventResult == null) {
+                eventResult = new HashMap<Integer, Integer>();
+                eventScores.put(eventID, eventResult);
             }
-
-            for (int team : allTeamsInTournament) {
-                UltimateTeamResultsBean teamRes = new UltimateTeamResultsBean(team);
-                teamRes.pointsFor = 0;
-                teamRes.pointsAgainst = 0;
-                teamResults.put(team, teamRes);
+            Integer eventPoints = eventResult.get(teamID);
+            if (eventPoints == null) {
+                eventResult.put(teamID, points);
+            } else {
+                eventPoints += points;
+                eventResult.put(teamID, eventPoints);
             }
-        } catch (Exception e) {
-            logger.error("Unable to get ultimate table: " + e.getMessage());
-            logger.debug(APIUtils.getStacktraceAsString(e));
-        } finally {
-            APIUtils.closeResources(rs, stmt);
         }
     }
 
     /**
-     * Collate the results of all of the events
-     * @param eventResults map from event ID to event winners (will be filled)
-     * @param teamResults map from team ID to team results beans (will be filled)
-     * @param rs the result set from the event result query
-     * @param events the list of event IDs
-     * @throws Exception
+     * Calculate an event's winner, and each team's points against
+     * @param teamResults map from team ID to the team's result beans for the event
+     * @param eventResult map from team ID to the team's points in the event
      */
     private void transferEventResults(Map<Integer, UltimateTeamResultsBean> teamResults,
-                                      Map<Integer, Map<Integer, Integer>> eventResults) {
-        for (Map<Integer, Integer> eventResult : eventResults.values()) {
-            int maxTeam = -1;
-            int maxScore = -1;
-            Set<Integer> ties = new HashSet<Integer>();
-            for (Integer teamID : eventResult.keySet()) {
-                if (eventResult.get(teamID) > maxScore) {
-                    maxScore = eventResult.get(teamID);
-                    maxTeam = teamID;
-                    ties.clear();
-                } else if (eventResult.get(teamID) == maxScore) {
-                    ties.add(maxTeam);
-                    ties.add(teamID);
-                }
-                for (Integer otherTeamID : eventResult.keySet()) {
-                    if (otherTeamID != teamID) {
-                        UltimateTeamResultsBean teamRes = teamResults.get(otherTeamID);
-                        if (teamRes != null) {
-                            teamRes.pointsAgainst += eventResult.get(teamID);
-                        }
-                    }
-                }
+                                      Map<Integer, Integer> eventResult) {
+        int maxTeam = -1;
+        int maxScore = -1;
+        Set<Integer> ties = new HashSet<Integer>();
+        for (Integer teamID : eventResult.keySet()) {
+            if (eventResult.get(teamID) > maxScore) {
+                maxScore = eventResult.get(teamID);
+                maxTeam = teamID;
+                ties.clear();
+            } else if (eventResult.get(teamID) == maxScore) {
+                ties.add(maxTeam);
+                ties.add(teamID);
             }
-            if (!ties.isEmpty()) {
-                for (Integer teamID : ties) {
-                    UltimateTeamResultsBean teamRes = teamResults.get(teamID);
+            for (Integer otherTeamID : eventResult.keySet()) {
+                if (!otherTeamID.equals(teamID)) {
+                    UltimateTeamResultsBean teamRes = teamResults.get(otherTeamID);
                     if (teamRes != null) {
-                        teamRes.ties += 1;
+                        teamRes.pointsAgainst += eventResult.get(teamID);
                     }
                 }
-            } else {
-                UltimateTeamResultsBean teamRes = teamResults.get(maxTeam);
+            }
+        }
+        if (!ties.isEmpty()) {
+            for (Integer teamID : ties) {
+                UltimateTeamResultsBean teamRes = teamResults.get(teamID);
                 if (teamRes != null) {
-                    teamRes.wins += 1;
+                    teamRes.ties += 1;
                 }
+            }
+        } else {
+            UltimateTeamResultsBean teamRes = teamResults.get(maxTeam);
+            if (teamRes != null) {
+                teamRes.wins += 1;
+            }
 
-                for (Integer otherTeamID : eventResult.keySet()) {
-                    if (otherTeamID != maxTeam) {
-                        teamRes = teamResults.get(otherTeamID);
-                        if (teamRes != null) {
-                            teamRes.losses += 1;
-                        }
+            for (Integer otherTeamID : eventResult.keySet()) {
+                if (otherTeamID != maxTeam) {
+                    teamRes = teamResults.get(otherTeamID);
+                    if (teamRes != null) {
+                        teamRes.losses += 1;
                     }
                 }
             }
         }
     }
-
-    private Set<Integer> getAllTeamsInTournament(List<Integer> events) {
-        Connection conn = null;
-        PreparedStatement stmt = null;
-        ResultSet allTeamsRs = null;
-        Set<Integer> allTeamsInTournament = new HashSet<Integer>();
-        try {
-            conn = provider.getConnection();
-            stmt = conn.prepareStatement("SELECT DISTINCT(TeamId) FROM TeamEvent " +
-                    "WHERE EventId IN (" + APIUtils.createParamString(events.size()) + ")");
-            int i = 0;
-            for (int id : events) {
-                stmt.setInt(++i, id);
-            }
-            allTeamsRs = stmt.executeQuery();
-            while (allTeamsRs.next()) {
-                allTeamsInTournament.add(allTeamsRs.getInt(1));
-            }
-        } catch (Exception e) {
-            logger.error("Unable to get teams in tournament: " + e.getMessage());
-            logger.debug(APIUtils.getStacktraceAsString(e));
-            return null;
-        } finally {
-            APIUtils.closeResources(allTeamsRs, stmt, conn);
-        }
-        return allTeamsInTournament;
-    }
 }
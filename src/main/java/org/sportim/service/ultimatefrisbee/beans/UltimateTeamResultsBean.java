@@ -11,6 +11,16 @@ public class UltimateTeamResultsBean extends AbstractTeamResultsBean {
         super(SportType.ULTIMATE_FRISBEE, teamID);
     }
 
+    @Override
+    public void add(AbstractTeamResultsBean other, int sign) {
+        super.add(other, sign);
+        if (other instanceof UltimateTeamResultsBean) {
+            UltimateTeamResultsBean result = (UltimateTeamResultsBean)other;
+            pointsFor += sign * result.pointsFor;
+            pointsAgainst += sign * result.pointsAgainst;
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (o instanceof UltimateTeamResultsBean) {
@@ -36,6 +46,8 @@ public class UltimateTeamResultsBean extends AbstractTeamResultsBean {
         int otherWinDiff = teamResultsBean.wins - teamResultsBean.losses;
         if (winDiff > otherWinDiff) {
             return -1;
+        } else if (winDiff < otherWinDiff) {
+            return 1;
         }
 
         // Tie-breakers
@@ -44,6 +44,24 @@ public class APIUtils {
         }
     }
 
+    /**
+     * Roll back the current transaction on a connection, ignoring errors
+     * @param conn the connection
+     * @return true if successful, false otherwise
+     */
+    public static boolean rollback(Connection conn) {
+        if (conn == null) {
+            return true;
+        }
+
+        try {
+            conn.rollback();
+        } catch (Exception e) {
+            return false;
+        }
+        return true;
+    }
+
     /**
      * Set auto commit on a connection
      * @param conn the connection
@@ -0,0 +1,60 @@
+package org.sportim.service.util;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.security.Principal;
+
+/**
+ * Request filter that validates the auth token header once per request and
+ * exposes the result as the request's {@link SecurityContext}. Resources read
+ * the caller with {@code @Context SecurityContext}; the user principal is null
+ * when no valid token was sent.
+ */
+@Provider
+@Priority(Priorities.AUTHENTICATION)
+public class AuthenticationFilter implements ContainerRequestFilter {
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) throws IOException {
+        String user = AuthenticationUtil.validateToken(requestContext.getHeaderString("token"));
+        UserPrincipal principal = user != null ? new UserPrincipal(user) : null;
+        boolean secure = requestContext.getSecurityContext() != null &&
+                requestContext.getSecurityContext().isSecure();
+        requestContext.setSecurityContext(new TokenSecurityContext(principal, secure));
+    }
+
+    private static class TokenSecurityContext implements SecurityContext {
+        private final Principal principal;
+        private final boolean secure;
+
+        TokenSecurityContext(Principal principal, boolean secure) {
+            this.principal = principal;
+            this.secure = secure;
+        }
+
+        @Override
+        public Principal getUserPrincipal() {
+            return principal;
+        }
+
+        @Override
+        public boolean isUserInRole(String role) {
+            return false;
+        }
+
+        @Override
+        public boolean isSecure() {
+            return secure;
+        }
+
+        @Override
+        public String getAuthenticationScheme() {
+            return "token";
+        }
+    }
+}
@@ -1,7 +1,8 @@
 package org.sportim.service.util;
 
 import org.apache.log4j.Logger;
-import org.jasypt.encryption.pbe.StandardPBEStringEncryptor;
+import org.jasypt.encryption.pbe.PBEStringEncryptor;
+import org.jasypt.encryption.pbe.PooledPBEStringEncryptor;
 import org.sportim.service.beans.UserBean;
 
 import javax.xml.bind.DatatypeConverter;
@@ -14,6 +15,8 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -24,9 +27,75 @@ import java.util.UUID;
 public class AuthenticationUtil {
     private static Logger logger = Logger.getLogger(AuthenticationUtil.class.getName());
     private static ConnectionProvider provider = ConnectionManager.getInstance();
+    private static final int TOKEN_CACHE_SIZE = 10000;
+    private static final long TOKEN_CACHE_TTL_MILLIS = 5 * 60 * 1000;
+    private static TokenCache tokenCache = new TokenCache(TOKEN_CACHE_SIZE, TOKEN_CACHE_TTL_MILLIS);
+    private static PBEStringEncryptor encryptor = null;
+    private static final long SIGNED_TOKEN_MAX_AGE_MILLIS = 30L * 24 * 60 * 60 * 1000;
+    private static final long GENERATION_CACHE_TTL_MILLIS = 60 * 1000;
+    private static TokenSigner signer = createSigner();
+    // bounded like the token cache; expired entries are also dropped when next looked up
+    private static final Map<String, CachedGeneration> generations =
+            new LinkedHashMap<String, CachedGeneration>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedGeneration> eldest) {
+            return size() > TOKEN_CACHE_SIZE;
+        }
+    };
+    private static InvalidationEpochs generationEpochs = new InvalidationEpochs(TOKEN_CACHE_SIZE);
 
     public static void setConnectionProvider(ConnectionProvider provider) {
         AuthenticationUtil.provider = provider;
+        tokenCache.clear();
+        generationEpochs.invalidateAll();
+        synchronized (generations) {
+            generations.clear();
+        }
+    }
+
+    /**
+     * Signed tokens are issued only when a signing key is configured. Encrypted tokens
+     * are still accepted either way so existing sessions survive the switch.
+     * @return the token signer or null if signed tokens are disabled
+     */
+    private static TokenSigner createSigner() {
+        String key = System.getenv("TOKEN_SIGNING_KEY");
+        if (key == null || key.isEmpty()) {
+            return null;
+        }
+        return new TokenSigner(key, SIGNED_TOKEN_MAX_AGE_MILLIS);
+    }
+
+    /**
+     * Get the number of token validations served from the token cache
+     * @return the cache hit count
+     */
+    public static long getTokenCacheHits() {
+        return tokenCache.getHits();
+    }
+
+    /**
+     * Get the number of token validations that missed the token cache
+     * @return the cache miss count
+     */
+    public static long getTokenCacheMisses() {
+        return tokenCache.getMisses();
+    }
+
+    /**
+     * Get the shared token encryptor, creating and keying it on first use. The encryptor
+     * is pooled (one instance per core) and safe to share between request threads.
+     * @return the token encryptor
+     */
+    private static synchronized PBEStringEncryptor getEncryptor() {
+        if (encryptor == null) {
+            PooledPBEStringEncryptor pooled = new PooledPBEStringEncryptor();
+            pooled.setPoolSize(Runtime.getRuntime().availableProcessors());
+            pooled.setPassword(System.getenv("ENCRYPTION_PASSWORD"));
+            pooled.initialize();
+            encryptor = pooled;
+        }
+        return encryptor;
     }
 
     /**
@@ -35,12 +104,14 @@ public class AuthenticationUtil {
      * @return the token or null if unable to store token
      */
     public static String generateToken(String username) {
+        if (signer != null) {
+            return generateSignedToken(username);
+        }
+
         String token = UUID.randomUUID().toString().toUpperCase() + "#" + username + "#" + System.nanoTime();
-        StandardPBEStringEncryptor jasypt = new StandardPBEStringEncryptor();
-        jasypt.setPassword(System.getenv("ENCRYPTION_PASSWORD"));
         String enToken;
         try {
-            enToken = jasypt.encrypt(token);
+            enToken = getEncryptor().encrypt(token);
         } catch (Exception e) {
             return null;
         }
@@ -50,6 +121,58 @@ public class AuthenticationUtil {
         return enToken;
     }
 
+    /**
+     * Generate and store a signed auth token. Issuing the token bumps the user's
+     * token generation, which revokes any token issued before it.
+     * @param username User to generate auth token for
+     * @return the token or null if unable to store token
+     */
+    private static String generateSignedToken(String username) {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        String token = null;
+        try {
+            conn = provider.getConnection();
+            conn.setAutoCommit(false);
+            stmt = conn.prepareStatement("INSERT INTO Auth (Login, Token, Generation) VALUES (?, '', 1) " +
+                                         "ON DUPLICATE KEY UPDATE Generation = Generation + 1");
+            stmt.setString(1, username);
+            stmt.executeUpdate();
+            APIUtils.closeResource(stmt);
+
+            stmt = conn.prepareStatement("SELECT Generation FROM Auth WHERE Login = ?");
+            stmt.setString(1, username);
+            rs = stmt.executeQuery();
+            if (rs.next()) {
+                token = signer.sign(username, System.currentTimeMillis(), rs.getInt(1));
+            }
+            APIUtils.closeResources(rs, stmt);
+
+            // Keep the stored token current so logout can match on it
+            if (token != null) {
+                stmt = conn.prepareStatement("UPDATE Auth SET Token = ? WHERE Login = ?");
+                stmt.setString(1, token);
+                stmt.setString(2, username);
+                stmt.executeUpdate();
+                conn.commit();
+            } else {
+                conn.rollback();
+            }
+        } catch (SQLException e) {
+            logger.error("Unable to store signed user token: " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
+            token = null;
+        } finally {
+            APIUtils.setAutoCommit(conn, true);
+            APIUtils.closeResources(rs, stmt, conn);
+        }
+
+        invalidateGeneration(username);
+        tokenCache.invalidateUser(username);
+        return token;
+    }
+
     /**
      * Store a token in the database. This token will overwrite any existing token
      * for the given user.
@@ -64,7 +187,7 @@ public class AuthenticationUtil {
         try {
             conn = provider.getConnection();
             stmt = conn.prepareStatement("INSERT INTO Auth (Login, Token) VALUES (?, ?) " +
-                                         "ON DUPLICATE KEY UPDATE Token = ?");
+                                         "ON DUPLICATE KEY UPDATE Token = ?, Generation = Generation + 1");
             stmt.setString(1, username);
             stmt.setString(2, token);
             stmt.setString(3, token);
@@ -75,6 +198,10 @@ public class AuthenticationUtil {
         } finally {
             APIUtils.closeResources(stmt, conn);
         }
+
+        // Any previously cached token for this user is revoked by the new one
+        invalidateGeneration(username);
+        tokenCache.invalidateUser(username);
         return upCount > 0;
     }
 
@@ -88,11 +215,19 @@ public class AuthenticationUtil {
             return null;
         }
 
-        StandardPBEStringEncryptor jasypt = new StandardPBEStringEncryptor();
-        jasypt.setPassword(System.getenv("ENCRYPTION_PASSWORD"));
+        if (TokenSigner.isSignedToken(token)) {
+            return validateSignedToken(token);
+        }
+
+        String cachedUser = tokenCache.get(token);
+        if (cachedUser != null) {
+            return cachedUser;
+        }
+        long epoch = tokenCache.getEpoch();
+
         String[] parts;
         try {
-            parts = jasypt.decrypt(token).split("#");
+            parts = getEncryptor().decrypt(token).split("#");
         } catch (Exception e) {
             return null;
         }
@@ -105,9 +240,130 @@ public class AuthenticationUtil {
         if (userToken == null || !userToken.equals(token)) {
             return null;
         }
+        tokenCache.put(token, user, epoch);
         return user;
     }
 
+    /**
+     * Validates a signed token. The signature is checked in memory; the Auth table is
+     * only read when the cached token generation for the user has gone stale.
+     * @param token the token
+     * @return the user belonging to the token, or null if the token is invalid
+     */
+    private static String validateSignedToken(String token) {
+        if (signer == null) {
+            return null;
+        }
+
+        TokenSigner.SignedToken parsed = signer.verify(token);
+        if (parsed == null) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        CachedGeneration cached;
+        synchronized (generations) {
+            cached = generations.get(parsed.login);
+            if (cached != null && cached.expires < now) {
+                generations.remove(parsed.login);
+                cached = null;
+            }
+        }
+        if (cached == null) {
+            long epoch = generationEpochs.current();
+            int generation = getGenerationForUser(parsed.login);
+            if (generation < 0) {
+                return null;
+            }
+            cached = new CachedGeneration(generation, now + GENERATION_CACHE_TTL_MILLIS);
+            // checked and cached under the epochs' lock, so an invalidation can't land in between
+            synchronized (generationEpochs) {
+                if (generationEpochs.isCurrent(parsed.login, epoch)) {
+                    synchronized (generations) {
+                        generations.put(parsed.login, cached);
+                    }
+                }
+            }
+        }
+
+        if (cached.generation != parsed.generation) {
+            return null;
+        }
+        return parsed.login;
+    }
+
+    /**
+     * Drop a user's cached token generation. The epoch is bumped first, so a generation
+     * read before this call can't be cached after it.
+     * @param username the user
+     */
+    private static void invalidateGeneration(String username) {
+        generationEpochs.invalidate(username);
+        synchronized (generations) {
+            generations.remove(username);
+        }
+    }
+
+    /**
+     * Get the current token generation for a user
+     * @param username the user
+     * @return the generation, or -1 if the user has no token
+     */
+    private static int getGenerationForUser(String username) {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        int generation = -1;
+        try {
+            conn = provider.getConnection();
+            stmt = conn.prepareStatement("SELECT Generation FROM Auth WHERE Login = ?");
+            stmt.setString(1, username);
+            rs = stmt.executeQuery();
+            if (rs.next()) {
+                generation = rs.getInt(1);
+            }
+        } catch (SQLException e) {
+            logger.error("Unable to get token generation for user: " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
+        } finally {
+            APIUtils.closeResources(rs, stmt, conn);
+        }
+        return generation;
+    }
+
+    /**
+     * Revoke a token, logging its user out.
+     * @param token the token
+     * @return true if the token was valid and has been removed
+     */
+    public static boolean removeToken(String token) {
+        String user = validateToken(token);
+        if (user == null) {
+            return false;
+        }
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        int upCount = 0;
+        try {
+            // Bump the generation rather than deleting the row so old signed tokens stay revoked
+            conn = provider.getConnection();
+            stmt = conn.prepareStatement("UPDATE Auth SET Token = '', Generation = Generation + 1 " +
+                                         "WHERE Login = ? AND Token = ?");
+            stmt.setString(1, user);
+            stmt.setString(2, token);
+            upCount = stmt.executeUpdate();
+        } catch (SQLException e) {
+            logger.error("Unable to remove user token: " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
+        } finally {
+            APIUtils.closeResources(stmt, conn);
+        }
+
+        invalidateGeneration(user);
+        tokenCache.invalidateUser(user);
+        return upCount > 0;
+    }
+
     /**
      * Get the auth token from the database for a user
      * @param username the user
@@ -230,4 +486,14 @@ public class AuthenticationUtil {
         APIUtils.closeResources(rs, stmt, conn);
         return user;
     }
+
+    private static class CachedGeneration {
+        final int generation;
+        final long expires;
+
+        CachedGeneration(int generation, long expires) {
+            this.generation = generation;
+            this.expires = expires;
+        }
+    }
 }
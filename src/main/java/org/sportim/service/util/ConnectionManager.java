@@ -6,11 +6,11 @@ import javax.naming.InitialContext;
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.sql.Statement;
 
 /**
  * Connection management for the SportIM APIs. Uses the initial context JNDI for connection
- * information.
+ * information. Connections are instrumented (see {@link InstrumentedConnectionProvider}) and
+ * the metrics are published over JMX as org.sportim.service:type=ConnectionMetrics.
  *
  * @Author Hannah Brock
  */
@@ -18,6 +18,13 @@ public class ConnectionManager implements ConnectionProvider {
     private static Logger logger = Logger.getLogger(ConnectionManager.class.getName());
     private static ConnectionManager instance = null;
     private DataSource ds;
+    private final ConnectionMetrics metrics = new ConnectionMetrics();
+    private final ConnectionProvider pool = new InstrumentedConnectionProvider(new ConnectionProvider() {
+        @Override
+        public Connection getConnection() throws SQLException {
+            return ds.getConnection();
+        }
+    }, metrics);
 
     /**
      * Create a new connection manager using the connection information for
@@ -29,6 +36,7 @@ public class ConnectionManager implements ConnectionProvider {
         try {
             InitialContext ctx = new InitialContext();
             ds = (DataSource) ctx.lookup("java:comp/env/jdbc/SportIMDB");
+            metrics.register("org.sportim.service:type=ConnectionMetrics");
         } catch (Exception e) {
             logger.error("Unable to get datasource: " + e.getMessage());
             logger.debug(APIUtils.getStacktraceAsString(e));
@@ -36,19 +44,54 @@ public class ConnectionManager implements ConnectionProvider {
     }
 
     /**
-     * Get a connection from the pool
+     * Get a connection from the pool. Session settings (time zone) are applied once
+     * per physical connection by {@link SessionInitCustomizer}, not on each borrow.
+     *
+     * If a {@link UnitOfWork} is bound to the current thread, this returns a handle to
+     * the unit of work's connection instead of borrowing another one.
      * @return a Connection
      * @throws SQLException if a connection cannot be retrieved
      */
     public Connection getConnection() throws SQLException {
-        // Set the timezone on the connection
         if (ds == null)
             return null;
 
-        Connection conn = ds.getConnection();
-        Statement stmt = conn.createStatement();
-        stmt.execute("SET time_zone='+00:00'");
-        return conn;
+        UnitOfWork work = UnitOfWork.current();
+        if (work != null) {
+            return work.getConnection(pool);
+        }
+        return pool.getConnection();
+    }
+
+    /**
+     * Get a provider that always borrows its own pooled connection, even while a
+     * {@link UnitOfWork} is bound to the current thread. Used for writes that must be
+     * durable when they return, whatever happens to the caller's transaction.
+     * @return the provider
+     */
+    public ConnectionProvider getDedicatedProvider() {
+        return new ConnectionProvider() {
+            @Override
+            public Connection getConnection() throws SQLException {
+                return ds == null ? null : pool.getConnection();
+            }
+        };
+    }
+
+    /**
+     * Get the number of connections borrowed from the pool
+     * @return the borrow count
+     */
+    public long getBorrowCount() {
+        return metrics.getBorrowCount();
+    }
+
+    /**
+     * Get the pool and query metrics for connections handed out by this manager
+     * @return the connection metrics
+     */
+    public ConnectionMetrics getMetrics() {
+        return metrics;
     }
 
     /**
@@ -0,0 +1,245 @@
+package org.sportim.service.util;
+
+import org.apache.log4j.Logger;
+import org.sportim.service.beans.MetricsBean;
+import org.sportim.service.beans.QueryMetricsBean;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection pool and query metrics recorded by {@link InstrumentedConnectionProvider}.
+ *
+ * Queries are tracked per SQL text. IN lists of varying length are collapsed so that
+ * they count as one statement, and once MAX_TRACKED_QUERIES distinct statements have
+ * been seen any new ones are folded into a single catch-all entry.
+ */
+public class ConnectionMetrics implements ConnectionMetricsMBean {
+    private static Logger logger = Logger.getLogger(ConnectionMetrics.class.getName());
+    private static final int MAX_TRACKED_QUERIES = 500;
+    private static final String OTHER_QUERIES = "(other)";
+
+    private volatile State state = new State();
+
+    /**
+     * Register these metrics with the platform MBean server
+     * @param name the JMX object name
+     */
+    public void register(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (Exception e) {
+            logger.error("Unable to register connection metrics MBean: " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
+        }
+    }
+
+    /**
+     * Record a successful borrow
+     * @param waitNanos time spent waiting for the connection
+     * @return a token to pass back to recordRelease when the connection is closed
+     */
+    Object recordBorrow(long waitNanos) {
+        State s = state;
+        s.borrowWait.record(waitNanos);
+        s.active.incrementAndGet();
+        return s;
+    }
+
+    void recordBorrowFailure(long waitNanos) {
+        State s = state;
+        s.borrowWait.record(waitNanos);
+        s.borrowFailures.incrementAndGet();
+    }
+
+    void recordRelease(Object borrowToken, long holdNanos, int statements) {
+        State s = state;
+        s.hold.record(holdNanos);
+        s.statements.addAndGet(statements);
+        if (borrowToken == s) {
+            s.active.decrementAndGet();
+        }
+    }
+
+    void recordRows(QueryMetrics query, long rows) {
+        query.rows.addAndGet(rows);
+        state.rows.addAndGet(rows);
+    }
+
+    /**
+     * Get the metrics entry for a SQL statement, creating it if needed
+     * @param sql the statement text
+     * @return the query metrics
+     */
+    QueryMetrics getQuery(String sql) {
+        State s = state;
+        String key = normalize(sql);
+        QueryMetrics query = s.queries.get(key);
+        if (query != null) {
+            return query;
+        }
+
+        if (s.queries.size() >= MAX_TRACKED_QUERIES) {
+            key = OTHER_QUERIES;
+        }
+        query = new QueryMetrics();
+        QueryMetrics existing = s.queries.putIfAbsent(key, query);
+        return existing != null ? existing : query;
+    }
+
+    /**
+     * Collapse whitespace and IN lists so that the same statement built with a
+     * different number of parameters is tracked as one query.
+     */
+    private static String normalize(String sql) {
+        if (sql == null) {
+            return OTHER_QUERIES;
+        }
+        return sql.replaceAll("\\s+", " ").replaceAll("\\?( ?, ?\\?)+", "?, ...").trim();
+    }
+
+    /**
+     * Get a snapshot of the metrics
+     * @return the metrics, with queries ordered by total execution time
+     */
+    public MetricsBean snapshot() {
+        State s = state;
+        MetricsBean bean = new MetricsBean();
+        bean.borrowCount = s.borrowWait.getCount();
+        bean.borrowFailures = s.borrowFailures.get();
+        bean.activeConnections = s.active.get();
+        bean.borrowWaitMeanMillis = s.borrowWait.getMeanMillis();
+        bean.borrowWaitMaxMillis = s.borrowWait.getMaxMillis();
+        bean.borrowWaitBuckets = s.borrowWait.getBuckets();
+        bean.holdMeanMillis = s.hold.getMeanMillis();
+        bean.holdMaxMillis = s.hold.getMaxMillis();
+        bean.holdBuckets = s.hold.getBuckets();
+        bean.statementsPerBorrow = statementsPerBorrow(s);
+        bean.rowsReturned = s.rows.get();
+        bean.bucketBoundsMillis = LatencyHistogram.getBucketBoundsMillis();
+
+        List<QueryMetricsBean> queries = new ArrayList<QueryMetricsBean>(s.queries.size());
+        for (Map.Entry<String, QueryMetrics> entry : s.queries.entrySet()) {
+            QueryMetrics query = entry.getValue();
+            QueryMetricsBean q = new QueryMetricsBean();
+            q.sql = entry.getKey();
+            q.executions = query.latency.getCount();
+            q.errors = query.errors.get();
+            q.rowsReturned = query.rows.get();
+            q.totalMillis = query.latency.getTotalMillis();
+            q.meanMillis = query.latency.getMeanMillis();
+            q.maxMillis = query.latency.getMaxMillis();
+            q.latencyBuckets = query.latency.getBuckets();
+            queries.add(q);
+        }
+        Collections.sort(queries, new Comparator<QueryMetricsBean>() {
+            @Override
+            public int compare(QueryMetricsBean o1, QueryMetricsBean o2) {
+                return Double.compare(o2.totalMillis, o1.totalMillis);
+            }
+        });
+        bean.queries = queries;
+        return bean;
+    }
+
+    private static double statementsPerBorrow(State s) {
+        long released = s.hold.getCount();
+        return released == 0 ? 0 : (double) s.statements.get() / released;
+    }
+
+    @Override
+    public long getBorrowCount() {
+        return state.borrowWait.getCount();
+    }
+
+    @Override
+    public long getBorrowFailures() {
+        return state.borrowFailures.get();
+    }
+
+    @Override
+    public long getActiveConnections() {
+        return state.active.get();
+    }
+
+    @Override
+    public double getBorrowWaitMeanMillis() {
+        return state.borrowWait.getMeanMillis();
+    }
+
+    @Override
+    public double getBorrowWaitMaxMillis() {
+        return state.borrowWait.getMaxMillis();
+    }
+
+    @Override
+    public double getHoldMeanMillis() {
+        return state.hold.getMeanMillis();
+    }
+
+    @Override
+    public double getHoldMaxMillis() {
+        return state.hold.getMaxMillis();
+    }
+
+    @Override
+    public double getStatementsPerBorrow() {
+        return statementsPerBorrow(state);
+    }
+
+    @Override
+    public long getRowsReturned() {
+        return state.rows.get();
+    }
+
+    @Override
+    public String[] getQuerySummaries() {
+        List<QueryMetricsBean> queries = snapshot().queries;
+        String[] summaries = new String[queries.size()];
+        for (int i = 0; i < summaries.length; i++) {
+            QueryMetricsBean q = queries.get(i);
+            summaries[i] = String.format("%.1fms total, %d runs, %.2fms mean, %.2fms max, %d rows: %s",
+                    q.totalMillis, q.executions, q.meanMillis, q.maxMillis, q.rowsReturned, q.sql);
+        }
+        return summaries;
+    }
+
+    /**
+     * Clear all metrics. Connections borrowed before the reset are not counted as active afterwards.
+     */
+    @Override
+    public void reset() {
+        state = new State();
+    }
+
+    /**
+     * Metrics for a single SQL text
+     */
+    static class QueryMetrics {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong rows = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+    }
+
+    /**
+     * All counters, swapped out as a unit on reset
+     */
+    private static class State {
+        final LatencyHistogram borrowWait = new LatencyHistogram();
+        final LatencyHistogram hold = new LatencyHistogram();
+        final AtomicLong borrowFailures = new AtomicLong();
+        final AtomicLong active = new AtomicLong();
+        final AtomicLong statements = new AtomicLong();
+        final AtomicLong rows = new AtomicLong();
+        final ConcurrentHashMap<String, QueryMetrics> queries = new ConcurrentHashMap<String, QueryMetrics>();
+    }
+}
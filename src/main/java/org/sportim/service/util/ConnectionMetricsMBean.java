@@ -0,0 +1,18 @@
+package org.sportim.service.util;
+
+/**
+ * JMX view of {@link ConnectionMetrics}.
+ */
+public interface ConnectionMetricsMBean {
+    public long getBorrowCount();
+    public long getBorrowFailures();
+    public long getActiveConnections();
+    public double getBorrowWaitMeanMillis();
+    public double getBorrowWaitMaxMillis();
+    public double getHoldMeanMillis();
+    public double getHoldMaxMillis();
+    public double getStatementsPerBorrow();
+    public long getRowsReturned();
+    public String[] getQuerySummaries();
+    public void reset();
+}
@@ -0,0 +1,384 @@
+package org.sportim.service.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.log4j.Logger;
+import org.sportim.service.beans.ResponseBean;
+
+import javax.annotation.Priority;
+import javax.xml.bind.DatatypeConverter;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Principal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Filter that makes stat writes carrying an Idempotency-Key header safe to retry. It only
+ * runs for resource methods marked {@link Idempotent}.
+ *
+ * The first request with a key claims it by inserting an IdempotencyKeys row in a
+ * transaction that stays open while the resource runs. The resource's own writes join
+ * that transaction (see {@link UnitOfWork}), so a successful response is stored in the
+ * same commit as the writes it reports, and a failed one leaves the key free to retry.
+ * A retry that arrives while the first request is still running waits on the row lock.
+ * Retries get the stored response back without running the resource again.
+ *
+ * Keys are scoped to the user and the eventID path parameter and are kept for
+ * IDEMPOTENCY_WINDOW seconds (default one day). Each key also stores a fingerprint of the
+ * request's path and body; reusing a key for a different request gets a 422 instead of
+ * the stored response. Recent responses are also cached in memory so most retries don't
+ * touch the database.
+ */
+@Provider
+@Idempotent
+@Priority(Priorities.USER)
+public class IdempotencyFilter implements ContainerRequestFilter, ContainerResponseFilter {
+    private static Logger logger = Logger.getLogger(IdempotencyFilter.class.getName());
+    public static final String HEADER = "Idempotency-Key";
+    private static final String CLAIM_PROPERTY = IdempotencyFilter.class.getName() + ".claim";
+    private static final int MAX_KEY_LENGTH = 64;
+    private static final int MAX_CACHED_RESPONSES = 10000;
+    private static final int PURGE_INTERVAL = 1000;
+    private static final long DEFAULT_WINDOW_SECONDS = 24 * 60 * 60;
+    private static final long WINDOW_MILLIS = getWindowMillis();
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final ResponseCache cache = new ResponseCache();
+    private static final AtomicInteger claims = new AtomicInteger();
+    private static ConnectionProvider provider = ConnectionManager.getInstance();
+
+    public static void setConnectionProvider(ConnectionProvider provider) {
+        IdempotencyFilter.provider = provider;
+        cache.clear();
+    }
+
+    /**
+     * The dedupe window is read from IDEMPOTENCY_WINDOW (seconds)
+     * @return the window in milliseconds
+     */
+    private static long getWindowMillis() {
+        String window = System.getenv("IDEMPOTENCY_WINDOW");
+        if (window != null && !window.isEmpty()) {
+            try {
+                return Long.parseLong(window.trim()) * 1000;
+            } catch (NumberFormatException e) {
+                logger.error("Invalid IDEMPOTENCY_WINDOW, using default: " + e.getMessage());
+            }
+        }
+        return DEFAULT_WINDOW_SECONDS * 1000;
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) throws IOException {
+        String key = requestContext.getHeaderString(HEADER);
+        Principal principal = requestContext.getSecurityContext().getUserPrincipal();
+        // unauthenticated requests are rejected by the resource and never replayed
+        if (!"POST".equals(requestContext.getMethod()) || key == null || key.isEmpty() || principal == null) {
+            return;
+        }
+        if (key.length() > MAX_KEY_LENGTH) {
+            requestContext.abortWith(Response.ok(new ResponseBean(400, "Invalid " + HEADER),
+                    MediaType.APPLICATION_JSON_TYPE).build());
+            return;
+        }
+
+        Claim claim = new Claim(getEventID(requestContext), UserPrincipal.getLogin(principal), key,
+                fingerprint(requestContext));
+        StoredResponse response = cache.get(claim.cacheKey());
+        if (response != null) {
+            requestContext.abortWith(replay(claim, response));
+            return;
+        }
+
+        try {
+            response = claim(claim);
+        } catch (Exception e) {
+            // without the store, behave as if no key was sent
+            logger.error("Unable to claim idempotency key: " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
+            claim.release(false);
+            return;
+        }
+
+        if (response != null) {
+            cache.put(claim.cacheKey(), response);
+            requestContext.abortWith(replay(claim, response));
+        } else {
+            requestContext.setProperty(CLAIM_PROPERTY, claim);
+        }
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) throws IOException {
+        Object property = requestContext.getProperty(CLAIM_PROPERTY);
+        if (!(property instanceof Claim)) {
+            return;
+        }
+        requestContext.removeProperty(CLAIM_PROPERTY);
+        Claim claim = (Claim) property;
+
+        Object entity = responseContext.getEntity();
+        if (!(entity instanceof ResponseBean) || ((ResponseBean) entity).getStatus() == null ||
+                ((ResponseBean) entity).getStatus().getCode() != 200) {
+            // failures aren't stored, so the client can retry them
+            claim.release(false);
+            return;
+        }
+
+        String response = mapper.writeValueAsString(entity);
+        try {
+            complete(claim, response);
+            cache.put(claim.cacheKey(), new StoredResponse(response, claim.fingerprint));
+        } catch (Exception e) {
+            logger.error("Unable to store idempotent response: " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
+            claim.release(false);
+            // the resource's writes were rolled back with the claim
+            responseContext.setEntity(new ResponseBean(500, "Unable to save request"));
+        }
+    }
+
+    /**
+     * Claim a key, or find the response stored for it
+     * @param claim the key to claim
+     * @return the stored response, or null if the key was claimed by this request
+     * @throws SQLException
+     */
+    private static StoredResponse claim(Claim claim) throws SQLException {
+        long now = System.currentTimeMillis();
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            claim.conn = provider.getConnection();
+            claim.conn.setAutoCommit(false);
+            stmt = claim.conn.prepareStatement("INSERT IGNORE INTO IdempotencyKeys (eventID, login, idemKey, created, " +
+                    "fingerprint) VALUES (?,?,?,?,?)");
+            claim.setKey(stmt);
+            stmt.setLong(4, now);
+            stmt.setString(5, claim.fingerprint);
+            if (stmt.executeUpdate() > 0) {
+                return null;
+            }
+            APIUtils.closeResource(stmt);
+
+            // an expired key is reused as if it were new
+            stmt = claim.conn.prepareStatement("UPDATE IdempotencyKeys SET created = ?, response = NULL, fingerprint = ? " +
+                    "WHERE eventID = ? AND login = ? AND idemKey = ? AND created < ?");
+            stmt.setLong(1, now);
+            stmt.setString(2, claim.fingerprint);
+            stmt.setInt(3, claim.eventID);
+            stmt.setString(4, claim.login);
+            stmt.setString(5, claim.key);
+            stmt.setLong(6, now - WINDOW_MILLIS);
+            if (stmt.executeUpdate() > 0) {
+                return null;
+            }
+            APIUtils.closeResource(stmt);
+
+            stmt = claim.conn.prepareStatement("SELECT response, fingerprint FROM IdempotencyKeys " +
+                    "WHERE eventID = ? AND login = ? AND idemKey = ?");
+            claim.setKey(stmt);
+            rs = stmt.executeQuery();
+            StoredResponse response = rs.next() && rs.getString(1) != null ?
+                    new StoredResponse(rs.getString(1), rs.getString(2)) : null;
+            if (response == null) {
+                throw new SQLException("Idempotency key has no stored response");
+            }
+            claim.release(true);
+            return response;
+        } finally {
+            APIUtils.closeResources(rs, stmt);
+        }
+    }
+
+    /**
+     * Store the response for a claimed key and commit the request's writes
+     */
+    private static void complete(Claim claim, String response) throws SQLException {
+        PreparedStatement stmt = null;
+        try {
+            stmt = claim.conn.prepareStatement("UPDATE IdempotencyKeys SET response = ? " +
+                    "WHERE eventID = ? AND login = ? AND idemKey = ?");
+            stmt.setString(1, response);
+            stmt.setInt(2, claim.eventID);
+            stmt.setString(3, claim.login);
+            stmt.setString(4, claim.key);
+            stmt.executeUpdate();
+            APIUtils.closeResource(stmt);
+            claim.conn.commit();
+
+            if (claims.incrementAndGet() % PURGE_INTERVAL == 0) {
+                stmt = claim.conn.prepareStatement("DELETE FROM IdempotencyKeys WHERE created < ?");
+                stmt.setLong(1, System.currentTimeMillis() - WINDOW_MILLIS);
+                stmt.executeUpdate();
+                claim.conn.commit();
+            }
+        } finally {
+            APIUtils.closeResource(stmt);
+        }
+        claim.release(true);
+    }
+
+    /**
+     * Replay a stored response, unless the key was stored for a different request
+     */
+    private static Response replay(Claim claim, StoredResponse stored) {
+        // keys stored before fingerprints were recorded have an empty one and are trusted
+        if (!stored.fingerprint.isEmpty() && !stored.fingerprint.equals(claim.fingerprint)) {
+            return Response.ok(new ResponseBean(422, HEADER + " was already used for a different request"),
+                    MediaType.APPLICATION_JSON_TYPE).build();
+        }
+        return Response.ok(stored.response, MediaType.APPLICATION_JSON_TYPE).build();
+    }
+
+    /**
+     * Hash the request's path and body. The body is buffered and put back for the resource.
+     * @return the hex SHA-256 fingerprint
+     */
+    private static String fingerprint(ContainerRequestContext requestContext) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        InputStream in = requestContext.getEntityStream();
+        if (in != null) {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+        }
+        byte[] bytes = body.toByteArray();
+        requestContext.setEntityStream(new ByteArrayInputStream(bytes));
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(requestContext.getUriInfo().getPath().getBytes("UTF-8"));
+            digest.update((byte) '\n');
+            digest.update(bytes);
+            return DatatypeConverter.printHexBinary(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static int getEventID(ContainerRequestContext requestContext) {
+        String eventID = requestContext.getUriInfo().getPathParameters().getFirst("eventID");
+        try {
+            return eventID != null ? Integer.parseInt(eventID) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * A key being claimed, and the connection holding its transaction
+     */
+    private static class Claim {
+        final int eventID;
+        final String login;
+        final String key;
+        final String fingerprint;
+        Connection conn = null;
+
+        Claim(int eventID, String login, String key, String fingerprint) {
+            this.eventID = eventID;
+            this.login = login;
+            this.key = key;
+            this.fingerprint = fingerprint;
+        }
+
+        String cacheKey() {
+            return eventID + ":" + login + ":" + key;
+        }
+
+        void setKey(PreparedStatement stmt) throws SQLException {
+            stmt.setInt(1, eventID);
+            stmt.setString(2, login);
+            stmt.setString(3, key);
+        }
+
+        /**
+         * End the claim's transaction and return its connection
+         * @param committed true if the transaction was already committed
+         */
+        void release(boolean committed) {
+            if (conn == null) {
+                return;
+            }
+            if (!committed) {
+                APIUtils.rollback(conn);
+            }
+            APIUtils.setAutoCommit(conn, true);
+            APIUtils.closeResource(conn);
+            conn = null;
+        }
+    }
+
+    /**
+     * Bounded cache of recent responses, oldest evicted first
+     */
+    private static class ResponseCache {
+        private final Map<String, CachedResponse> responses = new LinkedHashMap<String, CachedResponse>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                return size() > MAX_CACHED_RESPONSES;
+            }
+        };
+
+        synchronized StoredResponse get(String key) {
+            CachedResponse cached = responses.get(key);
+            if (cached == null) {
+                return null;
+            }
+            if (cached.stored + WINDOW_MILLIS < System.currentTimeMillis()) {
+                responses.remove(key);
+                return null;
+            }
+            return cached.response;
+        }
+
+        synchronized void put(String key, StoredResponse response) {
+            responses.put(key, new CachedResponse(response));
+        }
+
+        synchronized void clear() {
+            responses.clear();
+        }
+    }
+
+    private static class CachedResponse {
+        final StoredResponse response;
+        final long stored = System.currentTimeMillis();
+
+        CachedResponse(StoredResponse response) {
+            this.response = response;
+        }
+    }
+
+    /**
+     * A key's stored response and the fingerprint of the request that produced it
+     */
+    private static class StoredResponse {
+        final String response;
+        final String fingerprint;
+
+        StoredResponse(String response, String fingerprint) {
+            this.response = response;
+            this.fingerprint = fingerprint != null ? fingerprint : "";
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package org.sportim.service.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+
+/**
+ * Decorating connection provider that records pool and query metrics.
+ *
+ * Connections, statements and result sets are wrapped in dynamic proxies so callers
+ * are unchanged. Borrow wait is the time spent in the delegate's getConnection, hold
+ * time runs from borrow to close, and every execute call is timed against its SQL text.
+ */
+public class InstrumentedConnectionProvider implements ConnectionProvider {
+    private final ConnectionProvider delegate;
+    private final ConnectionMetrics metrics;
+
+    /**
+     * Create a new instrumented provider
+     * @param delegate the provider to take connections from
+     * @param metrics where to record metrics
+     */
+    public InstrumentedConnectionProvider(ConnectionProvider delegate, ConnectionMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        Connection conn;
+        try {
+            conn = delegate.getConnection();
+        } catch (SQLException e) {
+            metrics.recordBorrowFailure(System.nanoTime() - start);
+            throw e;
+        }
+        if (conn == null) {
+            return null;
+        }
+
+        long borrowed = System.nanoTime();
+        Object token = metrics.recordBorrow(borrowed - start);
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new ConnectionHandler(conn, borrowed, token));
+    }
+
+    public ConnectionMetrics getMetrics() {
+        return metrics;
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Tracks hold time and statement count for one borrow
+     */
+    private class ConnectionHandler implements InvocationHandler {
+        private final Connection conn;
+        private final long borrowed;
+        private final Object token;
+        private int statements = 0;
+        private boolean closed = false;
+
+        ConnectionHandler(Connection conn, long borrowed, Object token) {
+            this.conn = conn;
+            this.borrowed = borrowed;
+            this.token = token;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                synchronized (this) {
+                    if (!closed) {
+                        closed = true;
+                        metrics.recordRelease(token, System.nanoTime() - borrowed, statements);
+                    }
+                }
+            }
+
+            Object result = InstrumentedConnectionProvider.invoke(conn, method, args);
+            if (result instanceof Statement) {
+                String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+                Class<?> type = result instanceof CallableStatement ? CallableStatement.class :
+                        result instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+                return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{type},
+                        new StatementHandler((Statement) result, sql, this));
+            }
+            return result;
+        }
+
+        synchronized void statementExecuted() {
+            statements++;
+        }
+    }
+
+    /**
+     * Times execute calls and counts the rows read from their result sets
+     */
+    private class StatementHandler implements InvocationHandler {
+        private final Statement stmt;
+        private final String sql;
+        private final ConnectionHandler connection;
+        private ConnectionMetrics.QueryMetrics lastQuery = null;
+
+        StatementHandler(Statement stmt, String sql, ConnectionHandler connection) {
+            this.stmt = stmt;
+            this.sql = sql;
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (!name.startsWith("execute")) {
+                Object result = InstrumentedConnectionProvider.invoke(stmt, method, args);
+                if (name.equals("getResultSet") && result != null && lastQuery != null) {
+                    return wrap((ResultSet) result, lastQuery);
+                }
+                return result;
+            }
+
+            // plain statements pass their SQL to execute; prepared statements were given it up front
+            String text = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : sql;
+            ConnectionMetrics.QueryMetrics query = metrics.getQuery(text);
+            lastQuery = query;
+            connection.statementExecuted();
+
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = InstrumentedConnectionProvider.invoke(stmt, method, args);
+            } catch (Throwable t) {
+                query.errors.incrementAndGet();
+                throw t;
+            } finally {
+                query.latency.record(System.nanoTime() - start);
+            }
+
+            if (result instanceof ResultSet) {
+                return wrap((ResultSet) result, query);
+            }
+            return result;
+        }
+
+        private ResultSet wrap(ResultSet rs, ConnectionMetrics.QueryMetrics query) {
+            return (ResultSet) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{ResultSet.class}, new ResultSetHandler(rs, query));
+        }
+    }
+
+    /**
+     * Counts rows as they are read
+     */
+    private class ResultSetHandler implements InvocationHandler {
+        private final ResultSet rs;
+        private final ConnectionMetrics.QueryMetrics query;
+
+        ResultSetHandler(ResultSet rs, ConnectionMetrics.QueryMetrics query) {
+            this.rs = rs;
+            this.query = query;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = InstrumentedConnectionProvider.invoke(rs, method, args);
+            if (method.getName().equals("next") && Boolean.TRUE.equals(result)) {
+                metrics.recordRows(query, 1);
+            }
+            return result;
+        }
+    }
+}
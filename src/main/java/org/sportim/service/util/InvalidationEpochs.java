@@ -0,0 +1,71 @@
+package org.sportim.service.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tracks when each key of a cache was last invalidated, so a value read from the database
+ * before an invalidation can't be cached after it.
+ *
+ * Readers take {@link #current()} before their read and cache the result only if
+ * {@link #isCurrent} still holds. Writers call {@link #invalidate} before evicting.
+ * Only the most recently invalidated keys are remembered; a forgotten key is treated
+ * as invalidated when it was forgotten, which can only cause extra misses.
+ */
+public class InvalidationEpochs {
+    private final int maxSize;
+    private long epoch = 0;
+    private long forgotten = 0;
+    private final LinkedHashMap<String, Long> invalidated;
+
+    /**
+     * @param maxSize the number of invalidated keys to remember
+     */
+    public InvalidationEpochs(final int maxSize) {
+        this.maxSize = maxSize;
+        this.invalidated = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                if (size() > InvalidationEpochs.this.maxSize) {
+                    forgotten = Math.max(forgotten, eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the epoch to hold on to while reading
+     */
+    public synchronized long current() {
+        return epoch;
+    }
+
+    /**
+     * Record that a key's cached value is no longer valid
+     * @param key the key
+     */
+    public synchronized void invalidate(String key) {
+        invalidated.put(key, ++epoch);
+    }
+
+    /**
+     * Record that every cached value is no longer valid
+     */
+    public synchronized void invalidateAll() {
+        invalidated.clear();
+        forgotten = ++epoch;
+    }
+
+    /**
+     * Check that a key hasn't been invalidated since a read started
+     * @param key the key
+     * @param readEpoch the epoch taken before the read
+     * @return true if a value read at readEpoch may still be cached
+     */
+    public synchronized boolean isCurrent(String key, long readEpoch) {
+        Long last = invalidated.get(key);
+        return (last == null ? forgotten : last) <= readEpoch;
+    }
+}
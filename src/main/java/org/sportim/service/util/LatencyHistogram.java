@@ -0,0 +1,80 @@
+package org.sportim.service.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with fixed buckets, for metrics that are recorded
+ * on request threads and read from JMX or the metrics API.
+ */
+public class LatencyHistogram {
+    /** Upper bucket bounds in microseconds; the last bucket holds everything slower */
+    private static final long[] BOUNDS_MICROS = {100, 250, 500, 1000, 2500, 5000, 10000, 25000,
+            50000, 100000, 250000, 500000, 1000000, 5000000};
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS_MICROS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Record one sample
+     * @param nanos the sample, in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = 0;
+        while (bucket < BOUNDS_MICROS.length && micros > BOUNDS_MICROS[bucket]) {
+            bucket++;
+        }
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getMeanMillis() {
+        long n = count.get();
+        return n == 0 ? 0 : totalNanos.get() / 1e6 / n;
+    }
+
+    public double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    public double getTotalMillis() {
+        return totalNanos.get() / 1e6;
+    }
+
+    /**
+     * Get a snapshot of the bucket counts
+     * @return the count per bucket, in the order of {@link #getBucketBoundsMillis()}
+     */
+    public long[] getBuckets() {
+        long[] snapshot = new long[buckets.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = buckets.get(i);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Get the upper bound of each bucket. The final bucket has no upper bound.
+     * @return bucket upper bounds, in milliseconds
+     */
+    public static double[] getBucketBoundsMillis() {
+        double[] bounds = new double[BOUNDS_MICROS.length];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = BOUNDS_MICROS[i] / 1000.0;
+        }
+        return bounds;
+    }
+}
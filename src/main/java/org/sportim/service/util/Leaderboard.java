@@ -0,0 +1,49 @@
+package org.sportim.service.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the top K of a stream of entries, in O(n log K) time and O(K) space
+ * @param <T> the entry type
+ */
+public class Leaderboard<T> {
+    private final int size;
+    private final Comparator<T> order;
+    // the smallest kept entry is at the head, so it's the one a better entry replaces
+    private final PriorityQueue<T> top;
+
+    /**
+     * @param size the number of entries to keep
+     * @param order orders entries from worst to best
+     */
+    public Leaderboard(int size, Comparator<T> order) {
+        this.size = size;
+        this.order = order;
+        top = new PriorityQueue<T>(Math.max(size, 1), order);
+    }
+
+    public void offer(T entry) {
+        if (size < 1) {
+            return;
+        }
+        if (top.size() < size) {
+            top.add(entry);
+        } else if (order.compare(entry, top.peek()) > 0) {
+            top.poll();
+            top.add(entry);
+        }
+    }
+
+    /**
+     * @return the kept entries, best first
+     */
+    public List<T> getEntries() {
+        List<T> entries = new ArrayList<T>(top);
+        Collections.sort(entries, Collections.reverseOrder(order));
+        return entries;
+    }
+}
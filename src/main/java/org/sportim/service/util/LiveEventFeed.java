@@ -0,0 +1,235 @@
+package org.sportim.service.util;
+
+import org.apache.log4j.Logger;
+import org.sportim.service.api.AggregationAPI;
+import org.sportim.service.beans.ResponseBean;
+import org.sportim.service.beans.stats.AggregateEventBean;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-poll feed of live event statistics.
+ *
+ * Spectators poll with the version of the stats they already have. If a newer version
+ * exists they get it right away; otherwise the request is suspended until a stat write for
+ * the event commits (see {@link #publish}) or the poll times out. Each version is loaded
+ * once and the same snapshot is handed to every waiting spectator, so the number of
+ * spectators doesn't change the number of stat queries.
+ */
+public class LiveEventFeed {
+    private static Logger logger = Logger.getLogger(LiveEventFeed.class.getName());
+    private static final long POLL_TIMEOUT_SECONDS = 25;
+    private static final long IDLE_FEED_MILLIS = 10 * 60 * 1000;
+    private static final ConcurrentHashMap<Integer, Feed> feeds = new ConcurrentHashMap<Integer, Feed>();
+    private static final ExecutorService notifier = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "live-event-feed");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Wait for stats newer than a given version
+     * @param eventID the event ID
+     * @param version the version the client already has, or -1 for the current stats
+     * @param stats the aggregation API for the event's sport
+     * @param response the suspended response to resume
+     */
+    public static void poll(int eventID, long version, AggregationAPI stats, final AsyncResponse response) {
+        final Feed feed = getFeed(eventID, stats);
+        synchronized (feed) {
+            if (version == feed.version) {
+                final long current = version;
+                response.setTimeoutHandler(new TimeoutHandler() {
+                    @Override
+                    public void handleTimeout(AsyncResponse asyncResponse) {
+                        synchronized (feed) {
+                            feed.waiters.remove(asyncResponse);
+                        }
+                        // no change; the client polls again with the same version
+                        ResponseBean resp = new ResponseBean(200, "");
+                        resp.setVersion(current);
+                        asyncResponse.resume(resp);
+                    }
+                });
+                response.setTimeout(POLL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                feed.waiters.add(response);
+                return;
+            }
+        }
+        response.resume(createResponse(feed.getSnapshot()));
+    }
+
+    /**
+     * Notify spectators that an event's stats changed. If the caller is inside a transaction,
+     * spectators are notified once it commits.
+     * @param eventID the event ID
+     */
+    public static void publish(final int eventID) {
+        UnitOfWork.runAfterCommit(new Runnable() {
+            @Override
+            public void run() {
+                Feed feed = feeds.get(eventID);
+                if (feed != null) {
+                    feed.changed();
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop following an event, handing its final stats to anyone still waiting
+     * @param eventID the event ID
+     */
+    public static void close(int eventID) {
+        Feed feed = feeds.remove(eventID);
+        if (feed != null) {
+            feed.changed();
+        }
+    }
+
+    /**
+     * Stop the notifier thread
+     */
+    public static void shutdown() {
+        notifier.shutdownNow();
+    }
+
+    private static Feed getFeed(int eventID, AggregationAPI stats) {
+        Feed feed = feeds.get(eventID);
+        if (feed == null) {
+            removeIdleFeeds();
+            Feed existing = feeds.putIfAbsent(eventID, feed = new Feed(eventID, stats));
+            if (existing != null) {
+                feed = existing;
+            }
+        }
+        feed.lastPolled = System.currentTimeMillis();
+        return feed;
+    }
+
+    /**
+     * Drop feeds nobody has polled for a while, for events whose session was never closed here
+     */
+    private static void removeIdleFeeds() {
+        long cutoff = System.currentTimeMillis() - IDLE_FEED_MILLIS;
+        Iterator<Map.Entry<Integer, Feed>> it = feeds.entrySet().iterator();
+        while (it.hasNext()) {
+            Feed feed = it.next().getValue();
+            synchronized (feed) {
+                if (feed.lastPolled < cutoff && feed.waiters.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private static ResponseBean createResponse(Snapshot snapshot) {
+        if (snapshot.stats == null) {
+            return new ResponseBean(500, "Unable to retrieve statistics.");
+        }
+        ResponseBean resp = new ResponseBean(200, "");
+        resp.setEventStats(snapshot.stats);
+        resp.setVersion(snapshot.version);
+        return resp;
+    }
+
+    /**
+     * The stats of one event, and the spectators waiting for them to change
+     */
+    private static class Feed {
+        final AggregationAPI stats;
+        final int eventID;
+        final Object loadLock = new Object();
+        // versions start from the clock so a client can't match a recreated feed by accident
+        long version = System.currentTimeMillis();
+        List<AsyncResponse> waiters = new ArrayList<AsyncResponse>();
+        boolean notifyPending = false;
+        volatile long lastPolled;
+        Snapshot snapshot = null;
+
+        Feed(int eventID, AggregationAPI stats) {
+            this.eventID = eventID;
+            this.stats = stats;
+        }
+
+        /**
+         * Bump the version and, if anyone is waiting, load the new stats on the notifier thread
+         */
+        void changed() {
+            synchronized (this) {
+                version++;
+                if (waiters.isEmpty() || notifyPending) {
+                    return;
+                }
+                notifyPending = true;
+            }
+            try {
+                notifier.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        notifyWaiters();
+                    }
+                });
+            } catch (Exception e) {
+                logger.error("Unable to notify live event spectators: " + e.getMessage());
+                synchronized (this) {
+                    notifyPending = false;
+                }
+            }
+        }
+
+        void notifyWaiters() {
+            List<AsyncResponse> waiting;
+            synchronized (this) {
+                notifyPending = false;
+                waiting = waiters;
+                waiters = new ArrayList<AsyncResponse>();
+            }
+            ResponseBean resp = createResponse(getSnapshot());
+            for (AsyncResponse response : waiting) {
+                response.resume(resp);
+            }
+        }
+
+        /**
+         * Get the stats for the current version, loading them only if the version changed.
+         * Concurrent callers share one load.
+         */
+        Snapshot getSnapshot() {
+            synchronized (loadLock) {
+                long current;
+                synchronized (this) {
+                    current = version;
+                }
+                // a write that commits during the load bumps the version, so the next caller reloads
+                if (snapshot == null || snapshot.version != current || snapshot.stats == null) {
+                    snapshot = new Snapshot(current, stats.getEventStats(eventID));
+                }
+                return snapshot;
+            }
+        }
+    }
+
+    private static class Snapshot {
+        final long version;
+        final AggregateEventBean stats;
+
+        Snapshot(long version, AggregateEventBean stats) {
+            this.version = version;
+            this.stats = stats;
+        }
+    }
+}
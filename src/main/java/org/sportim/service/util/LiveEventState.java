@@ -0,0 +1,336 @@
+package org.sportim.service.util;
+
+import org.apache.log4j.Logger;
+import org.sportim.service.beans.stats.AggregateEventBean;
+import org.sportim.service.beans.stats.PlayerStatsBean;
+import org.sportim.service.beans.stats.TeamStatsBean;
+import org.sportim.service.soccer.beans.SoccerEventBean;
+import org.sportim.service.soccer.beans.SoccerPlayerStatsBean;
+import org.sportim.service.soccer.beans.SoccerTeamStatsBean;
+import org.sportim.service.ultimatefrisbee.beans.UltimateEventBean;
+import org.sportim.service.ultimatefrisbee.beans.UltimatePlayerStatsBean;
+import org.sportim.service.ultimatefrisbee.beans.UltimateTeamStatsBean;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory stats for events with a stat tracking session open on this node.
+ *
+ * An event's stats are loaded from the database when its session starts. From then on every
+ * committed stat write applies its counter changes here (see {@link StatLog}), and the
+ * substitution and game clock writes report the players and minutes they change, so reads of
+ * a live event are a map lookup instead of aggregation queries. The state is dropped when
+ * the session ends.
+ *
+ * With STAT_SESSION_MULTI_NODE set, an event's writes can land on any node, so no state is
+ * kept and reads always go to the database.
+ */
+public class LiveEventState {
+    private static Logger logger = Logger.getLogger(LiveEventState.class.getName());
+    private static ConnectionProvider provider = ConnectionManager.getInstance();
+    private static final boolean MULTI_NODE = Boolean.parseBoolean(System.getenv("STAT_SESSION_MULTI_NODE"));
+    private static final ConcurrentHashMap<Integer, LiveEvent> events = new ConcurrentHashMap<Integer, LiveEvent>();
+
+    private static final StatTable SOCCER = StatTable.SOCCER_STATS;
+    private static final int GOALS = SOCCER.indexOf("goals");
+    private static final int SHOTS = SOCCER.indexOf("shots");
+    private static final int SHOTS_ON_GOAL = SOCCER.indexOf("shotsongoal");
+    private static final int ASSISTS = SOCCER.indexOf("assists");
+    private static final int GOALS_AGAINST = SOCCER.indexOf("goalsagainst");
+    private static final int SAVES = SOCCER.indexOf("saves");
+    private static final int SOCCER_FOULS = SOCCER.indexOf("fouls");
+    private static final int YELLOW = SOCCER.indexOf("yellow");
+    private static final int RED = SOCCER.indexOf("red");
+
+    private static final StatTable ULTIMATE = StatTable.ULTIMATE_STATS;
+    private static final int POINTS_THROWN = ULTIMATE.indexOf("pointsthrown");
+    private static final int POINTS_RECEIVED = ULTIMATE.indexOf("pointsreceived");
+    private static final int ULTIMATE_FOULS = ULTIMATE.indexOf("fouls");
+
+    public static void setConnectionProvider(ConnectionProvider provider) {
+        LiveEventState.provider = provider;
+        events.clear();
+    }
+
+    /**
+     * Start keeping an event's stats in memory. Call once the event's session has started,
+     * before any stats can be written under it.
+     * @param eventID the event ID
+     * @return true if the event's stats are now kept in memory
+     */
+    public static boolean open(int eventID) {
+        if (MULTI_NODE) {
+            return false;
+        }
+        StatWriteBuffer.flush(eventID);
+        LiveEvent event = load(eventID);
+        if (event == null) {
+            events.remove(eventID);
+            return false;
+        }
+        events.put(eventID, event);
+        return true;
+    }
+
+    /**
+     * Stop keeping an event's stats in memory
+     * @param eventID the event ID
+     */
+    public static void close(int eventID) {
+        events.remove(eventID);
+    }
+
+    /**
+     * Get a live event's stats. The returned bean is shared and must not be modified.
+     * @param eventID the event ID
+     * @return the event's stats, or null if the event isn't live on this node
+     */
+    public static AggregateEventBean get(int eventID) {
+        LiveEvent event = events.get(eventID);
+        return event != null ? event.getStats() : null;
+    }
+
+    /**
+     * Apply counter changes once the caller's transaction commits
+     * @param eventID the event ID
+     * @param deltas the changes
+     */
+    public static void apply(final int eventID, final StatDeltas deltas) {
+        if (!events.containsKey(eventID)) {
+            return;
+        }
+        UnitOfWork.runAfterCommit(new Runnable() {
+            @Override
+            public void run() {
+                LiveEvent event = events.get(eventID);
+                if (event != null) {
+                    event.apply(deltas);
+                }
+            }
+        });
+    }
+
+    /**
+     * Record a player's soccer minutes once the caller's transaction commits
+     * @param eventID the event ID
+     * @param teamID the player's team ID
+     * @param player the player
+     * @param minutes the minutes played
+     */
+    public static void setMinutes(final int eventID, final int teamID, final String player, final int minutes) {
+        if (!events.containsKey(eventID)) {
+            return;
+        }
+        UnitOfWork.runAfterCommit(new Runnable() {
+            @Override
+            public void run() {
+                LiveEvent event = events.get(eventID);
+                if (event != null) {
+                    event.setMinutes(teamID, player, minutes);
+                }
+            }
+        });
+    }
+
+    /**
+     * Add players who took the field, but have no stats yet, once the caller's transaction commits
+     * @param eventID the event ID
+     * @param teamID the players' team ID
+     * @param players the players
+     */
+    public static void addPlayers(final int eventID, final int teamID, final Collection<String> players) {
+        if (!events.containsKey(eventID) || players == null) {
+            return;
+        }
+        UnitOfWork.runAfterCommit(new Runnable() {
+            @Override
+            public void run() {
+                LiveEvent event = events.get(eventID);
+                if (event != null) {
+                    for (String player : players) {
+                        event.setMinutes(teamID, player, -1);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Load an event's stats from the database
+     * @param eventID the event ID
+     * @return the event, or null if its sport has no live stats or the load failed
+     */
+    private static LiveEvent load(int eventID) {
+        SportType sport = StatUtil.getEventSport(eventID);
+        StatTable table = sport == SportType.SOCCER ? SOCCER : sport == SportType.ULTIMATE_FRISBEE ? ULTIMATE : null;
+        if (table == null) {
+            return null;
+        }
+
+        LiveEvent event = new LiveEvent(eventID, sport, table);
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            conn = provider.getConnection();
+            stmt = conn.prepareStatement(table.createSelect());
+            stmt.setInt(1, eventID);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                int[] counters = new int[table.getColumnCount()];
+                for (int i = 0; i < counters.length; i++) {
+                    counters[i] = rs.getInt(i + 3);
+                }
+                event.counters.addRow(table, rs.getInt(1), rs.getString(2), counters);
+            }
+            APIUtils.closeResources(rs, stmt);
+            rs = null;
+            stmt = null;
+
+            if (sport == SportType.SOCCER) {
+                stmt = conn.prepareStatement("SELECT teamID, player, minutes FROM SoccerStats WHERE eventID = ? AND minutes > 0");
+                stmt.setInt(1, eventID);
+                rs = stmt.executeQuery();
+                while (rs.next()) {
+                    event.minutes.put(new StatDeltas.Row(table, rs.getInt(1), rs.getString(2)), rs.getInt(3));
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Unable to load live event stats: " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
+            return null;
+        } finally {
+            APIUtils.closeResources(rs, stmt, conn);
+        }
+        return event;
+    }
+
+    /**
+     * One live event: its counters by row, and the bean built from them
+     */
+    private static class LiveEvent {
+        final int eventID;
+        final SportType sport;
+        final StatTable table;
+        final StatDeltas counters = new StatDeltas();
+        final Map<StatDeltas.Row, Integer> minutes = new HashMap<StatDeltas.Row, Integer>();
+        // rebuilt on the first read after a change, then shared by every reader
+        AggregateEventBean stats = null;
+
+        LiveEvent(int eventID, SportType sport, StatTable table) {
+            this.eventID = eventID;
+            this.sport = sport;
+            this.table = table;
+        }
+
+        synchronized void apply(StatDeltas deltas) {
+            for (Map.Entry<StatDeltas.Row, int[]> row : deltas.getRows().entrySet()) {
+                StatDeltas.Row key = row.getKey();
+                if (key.table == table) {
+                    counters.addRow(table, key.teamID, key.player, row.getValue());
+                }
+            }
+            stats = null;
+        }
+
+        /**
+         * Set a player's minutes, adding the player if needed. Negative minutes leave them unchanged.
+         */
+        synchronized void setMinutes(int teamID, String player, int played) {
+            counters.addRow(table, teamID, player, new int[table.getColumnCount()]);
+            if (played >= 0) {
+                minutes.put(new StatDeltas.Row(table, teamID, player), played);
+            }
+            stats = null;
+        }
+
+        synchronized AggregateEventBean getStats() {
+            if (stats == null) {
+                stats = sport == SportType.SOCCER ? buildSoccer() : buildUltimate();
+            }
+            return stats;
+        }
+
+        private AggregateEventBean buildSoccer() {
+            SoccerEventBean event = new SoccerEventBean(eventID);
+            Map<Integer, SoccerTeamStatsBean> teams = new LinkedHashMap<Integer, SoccerTeamStatsBean>();
+            for (Map.Entry<StatDeltas.Row, int[]> row : counters.getRows().entrySet()) {
+                int[] c = row.getValue();
+                SoccerPlayerStatsBean player = new SoccerPlayerStatsBean(row.getKey().player);
+                player.goals = c[GOALS];
+                player.shots = c[SHOTS];
+                player.shotsOnGoal = c[SHOTS_ON_GOAL];
+                player.assists = c[ASSISTS];
+                player.goalsAgainst = c[GOALS_AGAINST];
+                player.saves = c[SAVES];
+                player.fouls = c[SOCCER_FOULS];
+                player.yellow = c[YELLOW];
+                player.red = c[RED];
+                Integer played = minutes.get(row.getKey());
+                player.minutes = played != null ? played : 0;
+
+                SoccerTeamStatsBean team = teams.get(row.getKey().teamID);
+                if (team == null) {
+                    team = new SoccerTeamStatsBean(row.getKey().teamID);
+                    team.playerStats = new ArrayList<PlayerStatsBean>();
+                    teams.put(team.teamID, team);
+                }
+                team.playerStats.add(player);
+                team.goals += player.goals;
+                team.shots += player.shots;
+                team.shotsOnGoal += player.shotsOnGoal;
+                team.goalsAgainst += player.goalsAgainst;
+                team.saves += player.saves;
+                team.fouls += player.fouls;
+                team.yellow += player.yellow;
+                team.red += player.red;
+            }
+
+            event.teamStats = new ArrayList<TeamStatsBean>(teams.values());
+            for (SoccerTeamStatsBean team : teams.values()) {
+                event.totalGoals += team.goals;
+                event.totalShots += team.shots;
+                event.totalShotsOnGoal += team.shotsOnGoal;
+            }
+            return event;
+        }
+
+        private AggregateEventBean buildUltimate() {
+            UltimateEventBean event = new UltimateEventBean(eventID);
+            // in team ID order, the order the SQL path's GROUP BY lists them in
+            Map<Integer, UltimateTeamStatsBean> teams = new TreeMap<Integer, UltimateTeamStatsBean>();
+            for (Map.Entry<StatDeltas.Row, int[]> row : counters.getRows().entrySet()) {
+                int[] c = row.getValue();
+                UltimatePlayerStatsBean player = new UltimatePlayerStatsBean(row.getKey().player);
+                player.pointsThrown = c[POINTS_THROWN];
+                player.pointsReceived = c[POINTS_RECEIVED];
+                player.fouls = c[ULTIMATE_FOULS];
+
+                UltimateTeamStatsBean team = teams.get(row.getKey().teamID);
+                if (team == null) {
+                    team = new UltimateTeamStatsBean(row.getKey().teamID);
+                    team.playerStats = new ArrayList<PlayerStatsBean>();
+                    teams.put(team.teamID, team);
+                }
+                team.playerStats.add(player);
+                team.pointsFor += player.pointsThrown;
+                team.fouls += player.fouls;
+                event.totalPoints += player.pointsThrown;
+            }
+
+            // points against are added up the way the SQL path does it, so both give the same bean
+            event.teamStats = new ArrayList<TeamStatsBean>(teams.size());
+            for (UltimateTeamStatsBean team : teams.values()) {
+                for (TeamStatsBean other : event.teamStats) {
+                    ((UltimateTeamStatsBean)other).pointsAgainst += team.pointsFor;
+                }
+                event.teamStats.add(team);
+            }
+            return event;
+        }
+    }
+}
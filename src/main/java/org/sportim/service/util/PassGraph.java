@@ -0,0 +1,437 @@
+package org.sportim.service.util;
+
+import org.sportim.service.beans.stats.PassBean;
+import org.sportim.service.beans.stats.PassGraphBean;
+import org.sportim.service.beans.stats.PassGraphPlayerBean;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A team's passing network: players are nodes and the number of passes from one player
+ * to another is the weight of a directed edge.
+ *
+ * Logins are interned to int indices once, when the graph is built, and edges are kept in
+ * compressed rows (the out edges of player i are targets[offsets[i]] to targets[offsets[i + 1] - 1]),
+ * so the metrics below run over primitive arrays only. Metrics are computed once per graph.
+ *
+ * Graphs of events without an active stat session are cached per event, since their
+ * passes only change again if the event is restarted, rebuilt or has its stats deleted.
+ */
+public class PassGraph {
+    private static final int CACHE_SIZE = 256;
+
+    private static final Map<Integer, Map<Integer, PassGraph>> cache =
+            new LinkedHashMap<Integer, Map<Integer, PassGraph>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Map<Integer, PassGraph>> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    // bumped on every invalidation, so a graph read before one can't be cached after it
+    private static long generation = 0;
+
+    private final int teamID;
+    private final String[] logins;
+    private final int[] offsets;
+    private final int[] targets;
+    private final int[] weights;
+    private final int totalPasses;
+
+    private final int[] passesMade;
+    private final int[] passesReceived;
+    private final int[] inDegree;
+    private final double[] betweenness;
+    private final double[] clustering;
+    private final double averageClustering;
+
+    /**
+     * Get the cached graphs of an event
+     * @param eventID the event ID
+     * @return the event's graphs keyed by team ID, or null if not cached
+     */
+    public static synchronized Map<Integer, PassGraph> getCached(int eventID) {
+        return cache.get(eventID);
+    }
+
+    /**
+     * @return the current cache generation, to pass to {@link #cache} once the graphs are read
+     */
+    public static synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Cache an event's graphs, unless the cache was invalidated since they were read
+     * @param eventID the event ID
+     * @param graphs the event's graphs keyed by team ID
+     * @param readGeneration the generation from before the graphs were read
+     */
+    public static synchronized void cache(int eventID, Map<Integer, PassGraph> graphs, long readGeneration) {
+        if (readGeneration == generation) {
+            cache.put(eventID, graphs);
+        }
+    }
+
+    /**
+     * Drop an event's cached graphs because its passes changed
+     * @param eventID the event ID
+     */
+    public static synchronized void invalidate(int eventID) {
+        generation++;
+        cache.remove(eventID);
+    }
+
+    /**
+     * Drop the cached graphs of a set of events
+     * @param eventIDs the event IDs
+     */
+    public static synchronized void invalidate(Iterable<Integer> eventIDs) {
+        generation++;
+        for (Integer eventID : eventIDs) {
+            cache.remove(eventID);
+        }
+    }
+
+    private PassGraph(int teamID, String[] logins, int[] offsets, int[] targets, int[] weights) {
+        this.teamID = teamID;
+        this.logins = logins;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+
+        int n = logins.length;
+        passesMade = new int[n];
+        passesReceived = new int[n];
+        inDegree = new int[n];
+        int total = 0;
+        for (int v = 0; v < n; v++) {
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                passesMade[v] += weights[e];
+                passesReceived[targets[e]] += weights[e];
+                inDegree[targets[e]]++;
+                total += weights[e];
+            }
+        }
+        totalPasses = total;
+        betweenness = computeBetweenness();
+        clustering = computeClustering();
+
+        double sum = 0;
+        for (double c : clustering) {
+            sum += c;
+        }
+        averageClustering = n > 0 ? sum / n : 0;
+    }
+
+    public int getTeamID() {
+        return teamID;
+    }
+
+    public int getPlayerCount() {
+        return logins.length;
+    }
+
+    public int getTotalPasses() {
+        return totalPasses;
+    }
+
+    /**
+     * Create a bean for this graph
+     * @param topPasses the number of heaviest edges to include
+     * @return the bean
+     */
+    public PassGraphBean toBean(int topPasses) {
+        PassGraphBean bean = new PassGraphBean(teamID);
+        bean.totalPasses = totalPasses;
+        bean.averageClustering = averageClustering;
+
+        for (int v = 0; v < logins.length; v++) {
+            PassGraphPlayerBean player = new PassGraphPlayerBean(logins[v]);
+            player.passesMade = passesMade[v];
+            player.passesReceived = passesReceived[v];
+            player.outDegree = offsets[v + 1] - offsets[v];
+            player.inDegree = inDegree[v];
+            player.passShare = totalPasses > 0 ? (double)passesMade[v] / totalPasses : 0;
+            player.betweenness = betweenness[v];
+            player.clustering = clustering[v];
+            bean.players.add(player);
+        }
+
+        // edges are offered as indices and only the kept ones become beans
+        Leaderboard<Integer> heaviest = new Leaderboard<Integer>(topPasses, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                if (weights[a] != weights[b]) {
+                    return weights[a] < weights[b] ? -1 : 1;
+                }
+                // lower edge index wins ties, so the order is stable between requests
+                return b.compareTo(a);
+            }
+        });
+        for (int e = 0; e < targets.length; e++) {
+            heaviest.offer(e);
+        }
+        for (Integer e : heaviest.getEntries()) {
+            PassBean pass = new PassBean();
+            pass.from = logins[source(e)];
+            pass.to = logins[targets[e]];
+            pass.count = weights[e];
+            bean.topPasses.add(pass);
+        }
+        return bean;
+    }
+
+    private int source(int edge) {
+        // offsets is sorted, so find the last row starting at or before the edge
+        int lo = 0;
+        int hi = logins.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (offsets[mid] <= edge) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Brandes' algorithm on the unweighted directed graph: one BFS per player, then
+     * dependencies are accumulated in reverse BFS order. O(nm) time, O(n) extra space.
+     * Scores are normalized by (n - 1)(n - 2), the number of ordered pairs a player can sit between.
+     */
+    private double[] computeBetweenness() {
+        int n = logins.length;
+        double[] scores = new double[n];
+        int[] order = new int[n];
+        int[] dist = new int[n];
+        long[] paths = new long[n];
+        double[] dependency = new double[n];
+
+        for (int s = 0; s < n; s++) {
+            Arrays.fill(dist, -1);
+            Arrays.fill(paths, 0);
+            Arrays.fill(dependency, 0);
+            dist[s] = 0;
+            paths[s] = 1;
+
+            // order doubles as the BFS queue
+            int head = 0;
+            int tail = 0;
+            order[tail++] = s;
+            while (head < tail) {
+                int v = order[head++];
+                for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                    int w = targets[e];
+                    if (dist[w] < 0) {
+                        dist[w] = dist[v] + 1;
+                        order[tail++] = w;
+                    }
+                    if (dist[w] == dist[v] + 1) {
+                        paths[w] += paths[v];
+                    }
+                }
+            }
+
+            for (int i = tail - 1; i > 0; i--) {
+                int v = order[i];
+                for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                    int w = targets[e];
+                    if (dist[w] == dist[v] + 1) {
+                        dependency[v] += (double)paths[v] / paths[w] * (1 + dependency[w]);
+                    }
+                }
+                scores[v] += dependency[v];
+            }
+        }
+
+        if (n > 2) {
+            double scale = 1.0 / ((double)(n - 1) * (n - 2));
+            for (int v = 0; v < n; v++) {
+                scores[v] *= scale;
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Local clustering coefficient on the undirected graph: the share of a player's pairs of
+     * passing partners that also pass to each other.
+     */
+    private double[] computeClustering() {
+        int n = logins.length;
+        int[][] neighbours = undirectedNeighbours();
+        double[] coefficients = new double[n];
+        int[] mark = new int[n];
+        Arrays.fill(mark, -1);
+
+        for (int v = 0; v < n; v++) {
+            int k = neighbours[v].length;
+            if (k < 2) {
+                continue;
+            }
+            for (int u : neighbours[v]) {
+                mark[u] = v;
+            }
+            // each link between two neighbours is seen from both ends
+            int links = 0;
+            for (int u : neighbours[v]) {
+                for (int w : neighbours[u]) {
+                    if (mark[w] == v) {
+                        links++;
+                    }
+                }
+            }
+            coefficients[v] = (double)links / ((long)k * (k - 1));
+        }
+        return coefficients;
+    }
+
+    private int[][] undirectedNeighbours() {
+        int n = logins.length;
+        int[] counts = new int[n];
+        for (int v = 0; v < n; v++) {
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                counts[v]++;
+                counts[targets[e]]++;
+            }
+        }
+        int[][] all = new int[n][];
+        for (int v = 0; v < n; v++) {
+            all[v] = new int[counts[v]];
+            counts[v] = 0;
+        }
+        for (int v = 0; v < n; v++) {
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                int w = targets[e];
+                all[v][counts[v]++] = w;
+                all[w][counts[w]++] = v;
+            }
+        }
+
+        // a pair that passes both ways appears twice
+        for (int v = 0; v < n; v++) {
+            int[] list = all[v];
+            Arrays.sort(list);
+            int size = 0;
+            for (int i = 0; i < list.length; i++) {
+                if (i == 0 || list[i] != list[i - 1]) {
+                    list[size++] = list[i];
+                }
+            }
+            all[v] = size == list.length ? list : Arrays.copyOf(list, size);
+        }
+        return all;
+    }
+
+    /**
+     * Collects passes and builds a graph from them
+     */
+    public static class Builder {
+        private final int teamID;
+        private final List<String> froms = new ArrayList<String>();
+        private final List<String> tos = new ArrayList<String>();
+        private int[] counts = new int[16];
+
+        public Builder(int teamID) {
+            this.teamID = teamID;
+        }
+
+        /**
+         * Add passes from one player to another. Repeated pairs are summed and passes
+         * a player made to themselves are ignored.
+         */
+        public Builder add(String from, String to, int count) {
+            if (from == null || to == null || from.equals(to) || count <= 0) {
+                return this;
+            }
+            if (froms.size() == counts.length) {
+                counts = Arrays.copyOf(counts, counts.length * 2);
+            }
+            counts[froms.size()] = count;
+            froms.add(from);
+            tos.add(to);
+            return this;
+        }
+
+        public PassGraph build() {
+            int m = froms.size();
+
+            // intern: sort the distinct logins once and look each one up by binary search
+            String[] all = new String[m * 2];
+            for (int i = 0; i < m; i++) {
+                all[2 * i] = froms.get(i);
+                all[2 * i + 1] = tos.get(i);
+            }
+            Arrays.sort(all);
+            int n = 0;
+            for (int i = 0; i < all.length; i++) {
+                if (i == 0 || !all[i].equals(all[i - 1])) {
+                    all[n++] = all[i];
+                }
+            }
+            String[] logins = Arrays.copyOf(all, n);
+
+            int[] src = new int[m];
+            int[] dst = new int[m];
+            int[] offsets = new int[n + 1];
+            for (int i = 0; i < m; i++) {
+                src[i] = Arrays.binarySearch(logins, froms.get(i));
+                dst[i] = Arrays.binarySearch(logins, tos.get(i));
+                offsets[src[i] + 1]++;
+            }
+            for (int v = 0; v < n; v++) {
+                offsets[v + 1] += offsets[v];
+            }
+
+            // bucket edges by source
+            int[] next = Arrays.copyOf(offsets, n);
+            int[] targets = new int[m];
+            int[] weights = new int[m];
+            for (int i = 0; i < m; i++) {
+                int slot = next[src[i]]++;
+                targets[slot] = dst[i];
+                weights[slot] = counts[i];
+            }
+
+            // sort each row by target and merge repeated pairs
+            int[] merged = new int[n + 1];
+            int size = 0;
+            for (int v = 0; v < n; v++) {
+                int start = offsets[v];
+                int end = offsets[v + 1];
+                for (int i = start + 1; i < end; i++) {
+                    int t = targets[i];
+                    int w = weights[i];
+                    int j = i - 1;
+                    while (j >= start && targets[j] > t) {
+                        targets[j + 1] = targets[j];
+                        weights[j + 1] = weights[j];
+                        j--;
+                    }
+                    targets[j + 1] = t;
+                    weights[j + 1] = w;
+                }
+                merged[v] = size;
+                for (int i = start; i < end; i++) {
+                    if (size > merged[v] && targets[size - 1] == targets[i]) {
+                        weights[size - 1] += weights[i];
+                    } else {
+                        targets[size] = targets[i];
+                        weights[size] = weights[i];
+                        size++;
+                    }
+                }
+            }
+            merged[n] = size;
+
+            return new PassGraph(teamID, logins, merged, Arrays.copyOf(targets, size), Arrays.copyOf(weights, size));
+        }
+    }
+}
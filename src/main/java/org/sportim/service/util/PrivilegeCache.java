@@ -0,0 +1,186 @@
+package org.sportim.service.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Time-limited cache of privilege decisions, keyed by (user, action, resource).
+ *
+ * Decisions are grouped by action and resource so that a mutation can evict every
+ * user's decision for the resource it touched, or every decision for an action
+ * whose answer depends on rows that are not tied to a single resource (rosters, for example).
+ * A TTL of zero or less disables the cache.
+ *
+ * Callers take {@link #getEpoch()} before reading a decision from the database and pass it
+ * to {@link #put}, which drops the decision if it was invalidated in the meantime.
+ */
+public class PrivilegeCache {
+    private final int maxSize;
+    private final long ttlMillis;
+    private final Map<String, Map<String, Entry>> decisions = new HashMap<String, Map<String, Entry>>();
+    private final InvalidationEpochs epochs;
+    private int size = 0;
+
+    /**
+     * Create a new privilege cache
+     * @param maxSize the maximum number of decisions to hold
+     * @param ttlMillis how long a decision may be served from the cache
+     */
+    public PrivilegeCache(int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.epochs = new InvalidationEpochs(maxSize);
+    }
+
+    /**
+     * @return the epoch to pass to {@link #put} for a decision read from now on
+     */
+    public synchronized long getEpoch() {
+        return epochs.current();
+    }
+
+    /**
+     * Get a cached decision
+     * @param user the requesting user
+     * @param action the action being checked
+     * @param resource the resource the action applies to
+     * @return the cached decision, or null if not cached or expired
+     */
+    public synchronized Boolean get(String user, String action, Object resource) {
+        if (ttlMillis <= 0) {
+            return null;
+        }
+
+        String key = key(action, resource);
+        Map<String, Entry> users = decisions.get(key);
+        Entry entry = users == null ? null : users.get(user);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires < System.currentTimeMillis()) {
+            users.remove(user);
+            size--;
+            if (users.isEmpty()) {
+                decisions.remove(key);
+            }
+            return null;
+        }
+        return entry.allowed;
+    }
+
+    /**
+     * Cache a decision
+     * @param user the requesting user
+     * @param action the action being checked
+     * @param resource the resource the action applies to
+     * @param allowed the decision
+     * @param readEpoch the epoch taken before the decision was read
+     */
+    public synchronized void put(String user, String action, Object resource, boolean allowed, long readEpoch) {
+        String key = key(action, resource);
+        if (ttlMillis <= 0 || !epochs.isCurrent(key, readEpoch) || !epochs.isCurrent(action, readEpoch)) {
+            return;
+        }
+
+        if (size >= maxSize) {
+            removeExpired();
+            if (size >= maxSize) {
+                evictAll();
+            }
+        }
+
+        Map<String, Entry> users = decisions.get(key);
+        if (users == null) {
+            users = new HashMap<String, Entry>();
+            decisions.put(key, users);
+        }
+        if (users.put(user, new Entry(allowed, System.currentTimeMillis() + ttlMillis)) == null) {
+            size++;
+        }
+    }
+
+    /**
+     * Drop every user's decision for an action on a resource
+     * @param action the action
+     * @param resource the resource
+     */
+    public synchronized void invalidate(String action, Object resource) {
+        String key = key(action, resource);
+        epochs.invalidate(key);
+        Map<String, Entry> users = decisions.remove(key);
+        if (users != null) {
+            size -= users.size();
+        }
+    }
+
+    /**
+     * Drop every decision for an action, regardless of resource
+     * @param action the action
+     */
+    public synchronized void invalidateAction(String action) {
+        // action keys have no resource part, so they can't collide with a decision's key
+        epochs.invalidate(action);
+        String prefix = action + ":";
+        Iterator<Map.Entry<String, Map<String, Entry>>> it = decisions.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Map<String, Entry>> group = it.next();
+            if (group.getKey().startsWith(prefix)) {
+                size -= group.getValue().size();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drop everything from the cache
+     */
+    public synchronized void clear() {
+        epochs.invalidateAll();
+        evictAll();
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Drop everything to make room; unlike {@link #clear()} nothing was invalidated
+     */
+    private void evictAll() {
+        decisions.clear();
+        size = 0;
+    }
+
+    private void removeExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Map<String, Entry>> groups = decisions.values().iterator();
+        while (groups.hasNext()) {
+            Map<String, Entry> users = groups.next();
+            Iterator<Entry> entries = users.values().iterator();
+            while (entries.hasNext()) {
+                if (entries.next().expires < now) {
+                    entries.remove();
+                    size--;
+                }
+            }
+            if (users.isEmpty()) {
+                groups.remove();
+            }
+        }
+    }
+
+    private static String key(String action, Object resource) {
+        return action + ":" + resource;
+    }
+
+    private static class Entry {
+        final boolean allowed;
+        final long expires;
+
+        Entry(boolean allowed, long expires) {
+            this.allowed = allowed;
+            this.expires = expires;
+        }
+    }
+}
@@ -2,30 +2,134 @@ package org.sportim.service.util;
 
 import org.apache.log4j.Logger;
 
+import java.security.Principal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Utilities for determining availability of actions to a user.
+ *
+ * Decisions are cached per (user, action, resource) for a short TTL. APIs that
+ * change ownership or membership must call the matching invalidate method.
  */
 public class PrivilegeUtil {
     private static Logger logger = Logger.getLogger(PrivilegeUtil.class.getName());
     private static ConnectionProvider provider = ConnectionManager.getInstance();
+    private static final int PRIVILEGE_CACHE_SIZE = 50000;
+    private static final long DEFAULT_PRIVILEGE_CACHE_TTL_SECONDS = 60;
+    private static PrivilegeCache cache = new PrivilegeCache(PRIVILEGE_CACHE_SIZE, getCacheTTLMillis());
+    private static final Set<String> operators = getOperators();
+
+    private static final String USER_VIEW = "userView";
+    private static final String LEAGUE_UPDATE = "leagueUpdate";
+    private static final String TEAM_UPDATE = "teamUpdate";
+    private static final String TEAM_VIEW = "teamView";
+    private static final String TOURNAMENT_UPDATE = "tournamentUpdate";
+    private static final String EVENT_VIEW = "eventView";
+    private static final String EVENT_UPDATE = "eventUpdate";
 
     public static void setConnectionProvider(ConnectionProvider provider) {
         PrivilegeUtil.provider = provider;
+        cache.clear();
+    }
+
+    /**
+     * The decision TTL is read from PRIVILEGE_CACHE_TTL (seconds). Zero disables caching.
+     * @return the decision TTL in milliseconds
+     */
+    private static long getCacheTTLMillis() {
+        String ttl = System.getenv("PRIVILEGE_CACHE_TTL");
+        if (ttl != null && !ttl.isEmpty()) {
+            try {
+                return Long.parseLong(ttl.trim()) * 1000;
+            } catch (NumberFormatException e) {
+                logger.error("Invalid PRIVILEGE_CACHE_TTL, using default: " + e.getMessage());
+            }
+        }
+        return DEFAULT_PRIVILEGE_CACHE_TTL_SECONDS * 1000;
+    }
+
+    /**
+     * Operators are read from SERVICE_OPERATORS, a comma separated list of logins.
+     * @return the operator logins, empty if none are configured
+     */
+    private static Set<String> getOperators() {
+        Set<String> logins = new HashSet<String>();
+        String configured = System.getenv("SERVICE_OPERATORS");
+        if (configured != null) {
+            for (String login : configured.split(",")) {
+                if (!login.trim().isEmpty()) {
+                    logins.add(login.trim());
+                }
+            }
+        }
+        return logins;
+    }
+
+    /**
+     * Evict cached decisions after a team's ownership or details change. User view
+     * depends on team ownership, so all user view decisions go too.
+     * @param teamID the team ID
+     */
+    public static void invalidateTeam(int teamID) {
+        cache.invalidate(TEAM_UPDATE, teamID);
+        cache.invalidate(TEAM_VIEW, teamID);
+        cache.invalidateAction(USER_VIEW);
+    }
+
+    /**
+     * Evict cached decisions after a team's roster changes. Event view is granted
+     * through rosters, so every event view decision is evicted as well.
+     * @param teamID the team ID
+     */
+    public static void invalidateRoster(int teamID) {
+        invalidateTeam(teamID);
+        cache.invalidateAction(EVENT_VIEW);
+    }
+
+    /**
+     * Evict cached decisions after a league's ownership or membership changes.
+     * League owners gain view of the league's teams and players and update rights
+     * on its tournaments, so those decisions are evicted as well.
+     * @param leagueID the league ID
+     */
+    public static void invalidateLeague(int leagueID) {
+        cache.invalidate(LEAGUE_UPDATE, leagueID);
+        cache.invalidateAction(TEAM_VIEW);
+        cache.invalidateAction(USER_VIEW);
+        cache.invalidateAction(TOURNAMENT_UPDATE);
+    }
+
+    /**
+     * Evict cached decisions after a tournament is created, deleted or moved to another league
+     * @param tournamentID the tournament ID
+     */
+    public static void invalidateTournament(int tournamentID) {
+        cache.invalidate(TOURNAMENT_UPDATE, tournamentID);
+    }
+
+    /**
+     * Evict cached decisions after an event's owner, teams or players change
+     * @param eventID the event ID
+     */
+    public static void invalidateEvent(int eventID) {
+        cache.invalidate(EVENT_VIEW, eventID);
+        cache.invalidate(EVENT_UPDATE, eventID);
     }
 
     /**
      * A user must be the team/league owner of an organization to which the
      * requested user belongs or be the user to have user view privileges.
-     * @param token the token of the user requesting the view
+     * @param principal the user requesting the view
      * @param userToView the user being requested
      * @return true if the requesting user can view the given user
      */
-    public static boolean hasUserView(String token, String userToView) {
-        String user = AuthenticationUtil.validateToken(token);
+    public static boolean hasUserView(Principal principal, String userToView) {
+        String user = UserPrincipal.getLogin(principal);
         if (user == null) {
             return false;
         }
@@ -34,6 +138,13 @@ public class PrivilegeUtil {
             return true;
         }
 
+        Boolean cached = cache.get(user, USER_VIEW, userToView);
+        if (cached != null) {
+            return cached;
+        }
+        // taken before the read, so a decision that changes while we read isn't cached
+        long epoch = cache.getEpoch();
+
         boolean ok = false;
         Connection conn = null;
         PreparedStatement stmt = null;
@@ -52,6 +163,7 @@ public class PrivilegeUtil {
             stmt.setString(3, user);
             rs = stmt.executeQuery();
             ok = rs.next() && rs.getInt(1) > 0;
+            cache.put(user, USER_VIEW, userToView, ok, epoch);
         } catch (Exception e) {
             logger.error("Unable to check user view privilege: " + e.getMessage());
             logger.debug(APIUtils.getStacktraceAsString(e));
@@ -65,28 +177,44 @@ public class PrivilegeUtil {
 
     /**
      * Check if a user can update the given user
-     * @param token the user's token
+     * @param principal the requesting user
      * @param userToUpdate the user to update
      * @return true if user can update
      */
-    public static boolean hasUserUpdate(String token, String userToUpdate) {
+    public static boolean hasUserUpdate(Principal principal, String userToUpdate) {
         // This is simple for now - users can only update themselves
-        String user = AuthenticationUtil.validateToken(token);
+        String user = UserPrincipal.getLogin(principal);
         return user != null && user.equals(userToUpdate);
     }
 
+    /**
+     * Check if a user is a service operator and can see service internals
+     * @param principal the requesting user
+     * @return true if the user is listed in SERVICE_OPERATORS
+     */
+    public static boolean hasOperatorAccess(Principal principal) {
+        String user = UserPrincipal.getLogin(principal);
+        return user != null && operators.contains(user);
+    }
+
     /**
      * Check if a user can update a league
-     * @param token the user's token
+     * @param principal the requesting user
      * @param leagueID the league ID
      * @return true if the user can update
      */
-    public static boolean hasLeagueUpdate(String token, int leagueID) {
-        String user = AuthenticationUtil.validateToken(token);
+    public static boolean hasLeagueUpdate(Principal principal, int leagueID) {
+        String user = UserPrincipal.getLogin(principal);
         if (user == null) {
             return false;
         }
 
+        Boolean cached = cache.get(user, LEAGUE_UPDATE, leagueID);
+        if (cached != null) {
+            return cached;
+        }
+        long epoch = cache.getEpoch();
+
         Connection conn = null;
         PreparedStatement stmt = null;
         ResultSet rs = null;
@@ -98,6 +226,7 @@ public class PrivilegeUtil {
             stmt.setInt(2, leagueID);
             rs = stmt.executeQuery();
             res = rs.next() && rs.getInt(1) > 0;
+            cache.put(user, LEAGUE_UPDATE, leagueID, res, epoch);
         } catch (Exception e) {
             logger.error("Unable to check league update privilege: " + e.getMessage());
             logger.debug(APIUtils.getStacktraceAsString(e));
@@ -111,16 +240,22 @@ public class PrivilegeUtil {
 
     /**
      * Check if a user can update a team
-     * @param token the user's token
+     * @param principal the requesting user
      * @param teamID the team ID
      * @return true if the user can update
      */
-    public static boolean hasTeamUpdate(String token, int teamID) {
-        String user = AuthenticationUtil.validateToken(token);
+    public static boolean hasTeamUpdate(Principal principal, int teamID) {
+        String user = UserPrincipal.getLogin(principal);
         if (user == null) {
             return false;
         }
 
+        Boolean cached = cache.get(user, TEAM_UPDATE, teamID);
+        if (cached != null) {
+            return cached;
+        }
+        long epoch = cache.getEpoch();
+
         Connection conn = null;
         PreparedStatement stmt = null;
         ResultSet rs = null;
@@ -132,6 +267,7 @@ public class PrivilegeUtil {
             stmt.setInt(2, teamID);
             rs = stmt.executeQuery();
             res = rs.next() && rs.getInt(1) > 0;
+            cache.put(user, TEAM_UPDATE, teamID, res, epoch);
         } catch (Exception e) {
             logger.error("Unable to check team update privilege: " + e.getMessage());
             logger.debug(APIUtils.getStacktraceAsString(e));
@@ -145,16 +281,22 @@ public class PrivilegeUtil {
 
     /**
      * Check if a user can view a team
-     * @param token the user's token
+     * @param principal the requesting user
      * @param teamID the team ID
      * @return true if the user can view
      */
-    public static boolean hasTeamView(String token, int teamID) {
-        String user = AuthenticationUtil.validateToken(token);
+    public static boolean hasTeamView(Principal principal, int teamID) {
+        String user = UserPrincipal.getLogin(principal);
         if (user == null) {
             return false;
         }
 
+        Boolean cached = cache.get(user, TEAM_VIEW, teamID);
+        if (cached != null) {
+            return cached;
+        }
+        long epoch = cache.getEpoch();
+
         Connection conn = null;
         PreparedStatement stmt = null;
         ResultSet rs = null;
@@ -179,6 +321,7 @@ public class PrivilegeUtil {
                 rs = stmt.executeQuery();
                 res = rs.next() && rs.getInt(1) > 0;
             }
+            cache.put(user, TEAM_VIEW, teamID, res, epoch);
         } catch (Exception e) {
             logger.error("Unable to check team view privilege: " + e.getMessage());
             logger.debug(APIUtils.getStacktraceAsString(e));
@@ -190,16 +333,22 @@ public class PrivilegeUtil {
 
     /**
      * Check if a user can update a tournament
-     * @param token the user's token
+     * @param principal the requesting user
      * @param tournamentID the tournament ID
      * @return true if the user can update
      */
-    public static boolean hasTournamentUpdate(String token, int tournamentID) {
-        String user = AuthenticationUtil.validateToken(token);
+    public static boolean hasTournamentUpdate(Principal principal, int tournamentID) {
+        String user = UserPrincipal.getLogin(principal);
         if (user == null) {
             return false;
         }
 
+        Boolean cached = cache.get(user, TOURNAMENT_UPDATE, tournamentID);
+        if (cached != null) {
+            return cached;
+        }
+        long epoch = cache.getEpoch();
+
         Connection conn = null;
         PreparedStatement stmt = null;
         ResultSet rs = null;
@@ -213,6 +362,7 @@ public class PrivilegeUtil {
             stmt.setInt(2, tournamentID);
             rs = stmt.executeQuery();
             res = rs.next() && rs.getInt(1) > 0;
+            cache.put(user, TOURNAMENT_UPDATE, tournamentID, res, epoch);
         } catch (Exception e) {
             logger.error("Unable to check tournament update privilege: " + e.getMessage());
             logger.debug(APIUtils.getStacktraceAsString(e));
@@ -226,16 +376,22 @@ public class PrivilegeUtil {
 
     /**
      * Check if a user has view rights to an event
-     * @param token the user's token
+     * @param principal the requesting user
      * @param eventID the event ID to check
      * @return true if the user can view
      */
-    public static boolean hasEventView(String token, int eventID) {
-        String user = AuthenticationUtil.validateToken(token);
+    public static boolean hasEventView(Principal principal, int eventID) {
+        String user = UserPrincipal.getLogin(principal);
         if (user == null) {
             return false;
         }
 
+        Boolean cached = cache.get(user, EVENT_VIEW, eventID);
+        if (cached != null) {
+            return cached;
+        }
+        long epoch = cache.getEpoch();
+
         boolean res = false;
         Connection conn = null;
         PreparedStatement stmt = null;
@@ -273,6 +429,7 @@ public class PrivilegeUtil {
                 rs = stmt.executeQuery();
                 res = rs.next() && rs.getInt(1) > 0;
             }
+            cache.put(user, EVENT_VIEW, eventID, res, epoch);
         } catch (Exception e) {
             logger.error("Unable to check event view privilege: " + e.getMessage());
             logger.debug(APIUtils.getStacktraceAsString(e));
@@ -284,18 +441,90 @@ public class PrivilegeUtil {
         return res;
     }
 
+    /**
+     * Check if a user has view rights to every event in a set. Decisions that are
+     * not cached are resolved together in a single query.
+     * @param principal the requesting user
+     * @param eventIDs the event IDs to check
+     * @return true if the user can view all of the events
+     */
+    public static boolean hasEventViewAll(Principal principal, Collection<Integer> eventIDs) {
+        String user = UserPrincipal.getLogin(principal);
+        if (user == null) {
+            return false;
+        }
+
+        Set<Integer> unresolved = new HashSet<Integer>();
+        for (int eventID : eventIDs) {
+            Boolean cached = cache.get(user, EVENT_VIEW, eventID);
+            if (cached == null) {
+                unresolved.add(eventID);
+            } else if (!cached) {
+                return false;
+            }
+        }
+        if (unresolved.isEmpty()) {
+            return true;
+        }
+        long epoch = cache.getEpoch();
+
+        boolean res = false;
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            conn = provider.getConnection();
+            stmt = conn.prepareStatement("SELECT e.EventId FROM Event e " +
+                    "WHERE e.EventId IN (" + APIUtils.createParamString(unresolved.size()) + ") " +
+                    "AND (e.EventOwner = ? " +
+                    "     OR EXISTS (SELECT 1 FROM PlayerEvent pe " +
+                    "                WHERE pe.EventId = e.EventId AND pe.Login = ?) " +
+                    "     OR EXISTS (SELECT 1 FROM TeamEvent te INNER JOIN PlaysFor pf ON te.TeamId = pf.TeamID " +
+                    "                WHERE te.EventId = e.EventId AND pf.Login = ?))");
+            int i = 0;
+            for (int eventID : unresolved) {
+                stmt.setInt(++i, eventID);
+            }
+            stmt.setString(++i, user);
+            stmt.setString(++i, user);
+            stmt.setString(++i, user);
+            rs = stmt.executeQuery();
+
+            Set<Integer> viewable = new HashSet<Integer>();
+            while (rs.next()) {
+                viewable.add(rs.getInt(1));
+            }
+            for (int eventID : unresolved) {
+                cache.put(user, EVENT_VIEW, eventID, viewable.contains(eventID), epoch);
+            }
+            res = viewable.size() == unresolved.size();
+        } catch (Exception e) {
+            logger.error("Unable to check event view privilege: " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
+        } finally {
+            APIUtils.closeResources(rs, stmt, conn);
+        }
+        return res;
+    }
+
     /**
      * Check if a user can update an event
-     * @param token the user's token
+     * @param principal the requesting user
      * @param eventID the event id
      * @return true if the user can update the event
      */
-    public static boolean hasEventUpdate(String token, int eventID) {
-        String user = AuthenticationUtil.validateToken(token);
+    public static boolean hasEventUpdate(Principal principal, int eventID) {
+        String user = UserPrincipal.getLogin(principal);
         if (user == null) {
             return false;
         }
 
+        Boolean cached = cache.get(user, EVENT_UPDATE, eventID);
+        if (cached != null) {
+            return cached;
+        }
+        long epoch = cache.getEpoch();
+
         Connection conn = null;
         PreparedStatement stmt = null;
         ResultSet rs = null;
@@ -307,6 +536,7 @@ public class PrivilegeUtil {
             stmt.setString(2, user);
             rs = stmt.executeQuery();
             res = rs.next() && rs.getInt(1) > 0;
+            cache.put(user, EVENT_UPDATE, eventID, res, epoch);
         } catch (Exception e) {
             logger.error("Unable to check event update privilege: " + e.getMessage());
             logger.debug(APIUtils.getStacktraceAsString(e));
@@ -320,11 +550,11 @@ public class PrivilegeUtil {
 
     /**
      * Check if a user can edit stats for an event
-     * @param token the user's token
+     * @param principal the requesting user
      * @param eventID the event ID
      * @return true if the user can update the stats
      */
-    public static boolean hasEventTracking(String token, int eventID) {
-        return hasEventView(token, eventID);
+    public static boolean hasEventTracking(Principal principal, int eventID) {
+        return hasEventView(principal, eventID);
     }
 }
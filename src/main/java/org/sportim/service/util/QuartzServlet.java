@@ -46,6 +46,15 @@ public class QuartzServlet extends HttpServlet {
             scheduler.start();
             scheduler.scheduleJob(job, trigger);
 
+            JobDetail seasonJob = new JobDetail();
+            seasonJob.setName("seasonStatsCheck");
+            seasonJob.setJobClass(SeasonStatsCheckJob.class);
+
+            CronTrigger seasonTrigger = new CronTrigger();
+            seasonTrigger.setName("SeasonStatsCheckTrigger");
+            seasonTrigger.setCronExpression("0 0 4 * * ?");
+            scheduler.scheduleJob(seasonJob, seasonTrigger);
+
         } catch (SchedulerException ex) {
             Logger.getLogger(QuartzServlet.class.getName()).log(Level.SEVERE, null, ex);
         } catch (ParseException ex) {
@@ -0,0 +1,369 @@
+package org.sportim.service.util;
+
+import org.apache.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+
+/**
+ * Season totals for teams and players, so team and player stats don't have to sum every
+ * event ever played.
+ *
+ * An event's stats are folded into the season tables (keyed by season, team and player) when
+ * its tracking session ends, and the event is recorded in SeasonEvents. Events with an active
+ * session are still read from the raw stat tables, so a stat read is the season rows plus the
+ * rows of the events being tracked right now. Anything that changes a folded event's raw
+ * rows (a new session, a rebuild, a delete) unfolds it first.
+ *
+ * The season is the year the event starts. {@link #recompute} rebuilds everything from the
+ * raw rows and is run nightly as a consistency check (see {@link SeasonStatsCheckJob}).
+ */
+public class SeasonStats {
+    private static Logger logger = Logger.getLogger(SeasonStats.class.getName());
+    private static ConnectionProvider provider = ConnectionManager.getInstance();
+
+    public static final SeasonTable SOCCER = new SeasonTable(StatTable.SOCCER_STATS, "SoccerSeasonStats",
+            "goals", "shots", "shotsongoal", "assists", "goalsagainst", "saves", "fouls", "yellow", "red", "minutes");
+    public static final SeasonTable ULTIMATE = new SeasonTable(StatTable.ULTIMATE_STATS, "UltimateSeasonStats",
+            "pointsthrown", "pointsreceived", "fouls");
+    public static final SeasonTable ULTIMATE_TEAM = new SeasonTable(StatTable.ULTIMATE_TEAM_STATS,
+            "UltimateTeamSeasonStats", "pointsagainst");
+    private static final SeasonTable[] ALL = {SOCCER, ULTIMATE, ULTIMATE_TEAM};
+
+    public static void setConnectionProvider(ConnectionProvider provider) {
+        SeasonStats.provider = provider;
+    }
+
+    /**
+     * Fold an event whose session just ended into the season totals
+     * @param eventID the event ID
+     * @return true if successful
+     */
+    public static boolean fold(int eventID) {
+        Connection conn = null;
+        boolean success = false;
+        try {
+            conn = provider.getConnection();
+            conn.setAutoCommit(false);
+            fold(eventID, conn);
+            conn.commit();
+            success = true;
+        } catch (Exception e) {
+            // the nightly recompute will pick the event up
+            logger.error("Unable to fold event into season stats: " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
+            APIUtils.rollback(conn);
+        } finally {
+            APIUtils.setAutoCommit(conn, true);
+            APIUtils.closeResource(conn);
+        }
+        return success;
+    }
+
+    /**
+     * Add an event's raw rows to the season totals, unless it was already folded. The caller
+     * owns the connection and transaction.
+     * @param eventID the event ID
+     * @param conn the connection to use
+     * @throws SQLException
+     */
+    public static void fold(int eventID, Connection conn) throws SQLException {
+        PreparedStatement stmt = null;
+        try {
+            stmt = conn.prepareStatement("INSERT IGNORE INTO SeasonEvents (eventID, season) " +
+                    "SELECT ?, IFNULL(MAX(YEAR(FROM_UNIXTIME(StartDate / 1000))), 0) FROM Event WHERE EventId = ?");
+            stmt.setInt(1, eventID);
+            stmt.setInt(2, eventID);
+            if (stmt.executeUpdate() == 0) {
+                return;
+            }
+            APIUtils.closeResource(stmt);
+            stmt = null;
+
+            for (SeasonTable table : ALL) {
+                stmt = conn.prepareStatement(table.fold);
+                stmt.setInt(1, eventID);
+                stmt.executeUpdate();
+                APIUtils.closeResource(stmt);
+                stmt = null;
+            }
+        } finally {
+            APIUtils.closeResource(stmt);
+        }
+    }
+
+    /**
+     * Fold a set of events. The caller owns the connection and transaction.
+     * @param eventIDs the event IDs
+     * @param conn the connection to use
+     * @throws SQLException
+     */
+    public static void fold(Collection<Integer> eventIDs, Connection conn) throws SQLException {
+        for (Integer eventID : eventIDs) {
+            fold(eventID, conn);
+        }
+    }
+
+    /**
+     * Take an event's raw rows back out of the season totals, if it was folded. Must be called
+     * before the event's raw rows change. The caller owns the connection and transaction.
+     * @param eventID the event ID
+     * @param conn the connection to use
+     * @throws SQLException
+     */
+    public static void unfold(int eventID, Connection conn) throws SQLException {
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = conn.prepareStatement("SELECT season FROM SeasonEvents WHERE eventID = ? FOR UPDATE");
+            stmt.setInt(1, eventID);
+            rs = stmt.executeQuery();
+            if (!rs.next()) {
+                return;
+            }
+            APIUtils.closeResources(rs, stmt);
+            rs = null;
+            stmt = null;
+
+            for (SeasonTable table : ALL) {
+                stmt = conn.prepareStatement(table.unfold);
+                stmt.setInt(1, eventID);
+                stmt.executeUpdate();
+                APIUtils.closeResource(stmt);
+                stmt = null;
+            }
+
+            stmt = conn.prepareStatement("DELETE FROM SeasonEvents WHERE eventID = ?");
+            stmt.setInt(1, eventID);
+            stmt.executeUpdate();
+        } finally {
+            APIUtils.closeResources(rs, stmt);
+        }
+    }
+
+    /**
+     * Unfold a set of events. The caller owns the connection and transaction.
+     * @param eventIDs the event IDs
+     * @param conn the connection to use
+     * @throws SQLException
+     */
+    public static void unfold(Collection<Integer> eventIDs, Connection conn) throws SQLException {
+        for (Integer eventID : eventIDs) {
+            unfold(eventID, conn);
+        }
+    }
+
+    /**
+     * Recompute every season total from the raw rows of events without an active session,
+     * logging how many totals were out of date
+     * @return the number of season rows that changed, or -1 on error
+     */
+    public static int recompute() {
+        StatWriteBuffer.flushAll();
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        int changed = 0;
+        boolean success = false;
+        try {
+            conn = provider.getConnection();
+            conn.setAutoCommit(false);
+
+            // keep sessions from starting or ending while the totals are rebuilt
+            stmt = conn.prepareStatement("SELECT eventID FROM StatSessions FOR UPDATE");
+            rs = stmt.executeQuery();
+            APIUtils.closeResources(rs, stmt);
+            rs = null;
+
+            stmt = conn.prepareStatement("DELETE FROM SeasonEvents");
+            stmt.executeUpdate();
+            APIUtils.closeResource(stmt);
+            stmt = conn.prepareStatement("INSERT INTO SeasonEvents (eventID, season) " +
+                    "SELECT s.eventID, IFNULL(MAX(YEAR(FROM_UNIXTIME(e.StartDate / 1000))), 0) FROM (" +
+                    "SELECT eventID FROM " + SOCCER.raw.getName() + " UNION SELECT eventID FROM " + ULTIMATE.raw.getName() +
+                    " UNION SELECT eventID FROM " + ULTIMATE_TEAM.raw.getName() + ") s " +
+                    "LEFT JOIN Event e ON e.EventId = s.eventID " +
+                    "WHERE s.eventID NOT IN (SELECT eventID FROM StatSessions) GROUP BY s.eventID");
+            stmt.executeUpdate();
+            APIUtils.closeResource(stmt);
+            stmt = null;
+
+            for (SeasonTable table : ALL) {
+                changed += table.recompute(conn);
+            }
+            conn.commit();
+            success = true;
+        } catch (Exception e) {
+            logger.error("Unable to recompute season stats: " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
+            APIUtils.rollback(conn);
+        } finally {
+            APIUtils.closeResources(rs, stmt);
+            APIUtils.setAutoCommit(conn, true);
+            APIUtils.closeResource(conn);
+        }
+
+        if (!success) {
+            return -1;
+        }
+        if (changed > 0) {
+            logger.warn("Season stats were out of date; " + changed + " rows recomputed");
+        }
+        return changed;
+    }
+
+    /**
+     * A season table and the raw stat table it totals
+     */
+    public static class SeasonTable {
+        private final StatTable raw;
+        private final String name;
+        private final String[] columns;
+        private final String keys;
+        private final String fold;
+        private final String unfold;
+
+        private SeasonTable(StatTable raw, String name, String... columns) {
+            this.raw = raw;
+            this.name = name;
+            this.columns = columns;
+            keys = raw.isPlayerKeyed() ? "teamID, player" : "teamID";
+
+            StringBuilder cols = new StringBuilder();
+            StringBuilder rawCols = new StringBuilder();
+            StringBuilder add = new StringBuilder();
+            StringBuilder subtract = new StringBuilder();
+            for (String col : columns) {
+                String sep = cols.length() > 0 ? ", " : "";
+                cols.append(sep).append(col);
+                rawCols.append(sep).append("r.").append(col);
+                add.append(sep).append(col).append(" = ").append(col).append(" + VALUES(").append(col).append(")");
+                subtract.append(sep).append("t.").append(col).append(" = t.").append(col).append(" - r.").append(col);
+            }
+
+            fold = "INSERT INTO " + name + " (season, " + keys + ", " + cols + ") " +
+                    "SELECT se.season, r.teamID" + (raw.isPlayerKeyed() ? ", r.player, " : ", ") + rawCols +
+                    " FROM " + raw.getName() + " r INNER JOIN SeasonEvents se ON se.eventID = r.eventID " +
+                    "WHERE r.eventID = ? ON DUPLICATE KEY UPDATE " + add;
+            unfold = "UPDATE " + name + " t INNER JOIN SeasonEvents se ON se.season = t.season " +
+                    "INNER JOIN " + raw.getName() + " r ON r.eventID = se.eventID AND r.teamID = t.teamID" +
+                    (raw.isPlayerKeyed() ? " AND r.player = t.player" : "") +
+                    " SET " + subtract + " WHERE se.eventID = ?";
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Create a query for a team's or player's totals: the season rows plus the rows of
+         * events being tracked now. The query returns a row count followed by the sum of each
+         * of the given columns.
+         * @param where the condition on r.teamID and/or r.player, using ? parameters
+         * @param columns the columns to total
+         * @return the SQL, whose parameters are the condition's parameters, twice
+         */
+        public String createTotals(String where, String... columns) {
+            StringBuilder sums = new StringBuilder("COUNT(*)");
+            StringBuilder cols = new StringBuilder();
+            for (String col : columns) {
+                sums.append(", IFNULL(SUM(").append(col).append("), 0)");
+                cols.append(cols.length() > 0 ? ", " : "").append("r.").append(col);
+            }
+            return "SELECT " + sums + " FROM (" +
+                    "SELECT " + cols + " FROM " + name + " r WHERE " + where +
+                    " UNION ALL " +
+                    "SELECT " + cols + " FROM " + raw.getName() + " r " +
+                    "INNER JOIN StatSessions ss ON ss.eventID = r.eventID " +
+                    "LEFT JOIN SeasonEvents se ON se.eventID = r.eventID " +
+                    "WHERE se.eventID IS NULL AND " + where + ") totals";
+        }
+
+        /**
+         * Create a query for the per-team, per-player rows of every team in a league: the
+         * season rows plus the rows of events being tracked now. Rows are not summed, so the
+         * caller groups them. Team-keyed tables return a null player.
+         * @param columns the columns to select, in order; null for a column this table doesn't
+         *                have, which is selected as 0
+         * @return the SQL, whose parameters are the league ID, twice
+         */
+        public String createLeagueRows(String... columns) {
+            StringBuilder cols = new StringBuilder("r.teamID AS teamID, ");
+            cols.append(raw.isPlayerKeyed() ? "r.player" : "NULL").append(" AS player");
+            for (int i = 0; i < columns.length; i++) {
+                String col = columns[i];
+                cols.append(", ").append(col != null ? "r." + col : "0").append(" AS c").append(i);
+            }
+            return "SELECT " + cols + " FROM " + name + " r " +
+                    "INNER JOIN TeamBelongsTo l ON l.TeamId = r.teamID WHERE l.LeagueId = ?" +
+                    " UNION ALL " +
+                    "SELECT " + cols + " FROM " + raw.getName() + " r " +
+                    "INNER JOIN TeamBelongsTo l ON l.TeamId = r.teamID " +
+                    "INNER JOIN StatSessions ss ON ss.eventID = r.eventID " +
+                    "LEFT JOIN SeasonEvents se ON se.eventID = r.eventID " +
+                    "WHERE se.eventID IS NULL AND l.LeagueId = ?";
+        }
+
+        /**
+         * Rebuild this table from the raw rows of the events in SeasonEvents
+         * @return the number of season rows whose totals changed
+         */
+        private int recompute(Connection conn) throws SQLException {
+            String scratch = name + "Check";
+            StringBuilder cols = new StringBuilder();
+            StringBuilder sums = new StringBuilder();
+            StringBuilder differs = new StringBuilder();
+            for (String col : columns) {
+                String sep = cols.length() > 0 ? ", " : "";
+                cols.append(sep).append(col);
+                sums.append(sep).append("SUM(r.").append(col).append(")");
+                differs.append(differs.length() > 0 ? " OR " : "").append("t.").append(col).append(" <> c.").append(col);
+            }
+            String join = "c.season = t.season AND c.teamID = t.teamID" + (raw.isPlayerKeyed() ? " AND c.player = t.player" : "");
+
+            PreparedStatement stmt = null;
+            ResultSet rs = null;
+            try {
+                stmt = conn.prepareStatement("CREATE TEMPORARY TABLE IF NOT EXISTS " + scratch + " LIKE " + name);
+                stmt.executeUpdate();
+                APIUtils.closeResource(stmt);
+                stmt = conn.prepareStatement("DELETE FROM " + scratch);
+                stmt.executeUpdate();
+                APIUtils.closeResource(stmt);
+                stmt = conn.prepareStatement("INSERT INTO " + scratch + " (season, " + keys + ", " + cols + ") " +
+                        "SELECT se.season, r.teamID" + (raw.isPlayerKeyed() ? ", r.player, " : ", ") + sums +
+                        " FROM " + raw.getName() + " r INNER JOIN SeasonEvents se ON se.eventID = r.eventID " +
+                        "GROUP BY se.season, r.teamID" + (raw.isPlayerKeyed() ? ", r.player" : ""));
+                stmt.executeUpdate();
+                APIUtils.closeResource(stmt);
+
+                // MySQL can only open a temporary table once per statement, so count in two passes:
+                // stored rows that are wrong or shouldn't exist, then rows that are missing
+                int changed = 0;
+                stmt = conn.prepareStatement("SELECT COUNT(*) FROM " + name + " t LEFT JOIN " + scratch + " c ON " +
+                        join + " WHERE c.season IS NULL OR " + differs);
+                rs = stmt.executeQuery();
+                changed += rs.next() ? rs.getInt(1) : 0;
+                APIUtils.closeResources(rs, stmt);
+                stmt = conn.prepareStatement("SELECT COUNT(*) FROM " + scratch + " c LEFT JOIN " + name + " t ON " +
+                        join + " WHERE t.season IS NULL");
+                rs = stmt.executeQuery();
+                changed += rs.next() ? rs.getInt(1) : 0;
+                APIUtils.closeResources(rs, stmt);
+                rs = null;
+
+                stmt = conn.prepareStatement("DELETE FROM " + name);
+                stmt.executeUpdate();
+                APIUtils.closeResource(stmt);
+                stmt = conn.prepareStatement("INSERT INTO " + name + " SELECT * FROM " + scratch);
+                stmt.executeUpdate();
+                return changed;
+            } finally {
+                APIUtils.closeResources(rs, stmt);
+            }
+        }
+    }
+}
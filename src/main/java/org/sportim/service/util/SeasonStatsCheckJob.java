@@ -0,0 +1,19 @@
+package org.sportim.service.util;
+
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+
+/**
+ * Nightly job that recomputes season stats from the raw stat rows, repairing any event that
+ * failed to fold or unfold
+ */
+public class SeasonStatsCheckJob implements Job {
+
+    @Override
+    public void execute(JobExecutionContext context) throws JobExecutionException {
+        if (SeasonStats.recompute() < 0) {
+            throw new JobExecutionException("Unable to recompute season stats");
+        }
+    }
+}
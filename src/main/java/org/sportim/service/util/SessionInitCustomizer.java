@@ -0,0 +1,38 @@
+package org.sportim.service.util;
+
+import com.mchange.v2.c3p0.AbstractConnectionCustomizer;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * c3p0 connection customizer that initializes the MySQL session once, when the pool
+ * acquires a physical connection, rather than every time a connection is borrowed.
+ *
+ * Configured on the pooled data source with connectionCustomizerClassName.
+ */
+public class SessionInitCustomizer extends AbstractConnectionCustomizer {
+    private static final AtomicLong sessionInits = new AtomicLong();
+
+    @Override
+    public void onAcquire(Connection conn, String parentDataSourceIdentityToken) throws Exception {
+        Statement stmt = null;
+        try {
+            stmt = conn.createStatement();
+            stmt.execute("SET time_zone='+00:00'");
+            sessionInits.incrementAndGet();
+        } finally {
+            APIUtils.closeResource(stmt);
+        }
+    }
+
+    /**
+     * Get the number of times a session has been initialized. This tracks physical
+     * connections acquired by the pool, so it should stay well below the borrow count.
+     * @return the session initialization count
+     */
+    public static long getSessionInitCount() {
+        return sessionInits.get();
+    }
+}
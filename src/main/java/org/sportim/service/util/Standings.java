@@ -0,0 +1,476 @@
+package org.sportim.service.util;
+
+import org.apache.log4j.Logger;
+import org.sportim.service.api.TableAPI;
+import org.sportim.service.beans.stats.AbstractTeamResultsBean;
+import org.sportim.service.soccer.beans.SoccerTeamResultsBean;
+import org.sportim.service.ultimatefrisbee.beans.UltimateTeamResultsBean;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Materialized tournament standings.
+ *
+ * A tournament's table is built from its events the first time it's read, and stored in
+ * rank order along with each event's share of it (StandingsResults). Events with an active
+ * tracking session are left out, so a stored share is never a game in progress. When an
+ * event is finalized or its session ends only that event's share is recomputed: the difference is applied to the teams it
+ * changed, and each of those teams is moved to its new place with a binary search over the
+ * stored order. Only the rows between a team's old and new places are rewritten. Reading
+ * the standings is a single scan of the tournament's rows in rank order.
+ *
+ * Stat changes to an event show up in the standings when the event is finalized (again) or
+ * its session ends.
+ * Deleting an event, moving it or changing its teams drops the stored standings it counts
+ * toward, and they are rebuilt on the next read.
+ */
+public class Standings {
+    private static Logger logger = Logger.getLogger(Standings.class.getName());
+    private static ConnectionProvider provider = ConnectionManager.getInstance();
+    private static final String COLUMNS = "teamID, points, wins, ties, losses, scoreFor, scoreAgainst";
+
+    public static void setConnectionProvider(ConnectionProvider provider) {
+        Standings.provider = provider;
+    }
+
+    /**
+     * Get a tournament's standings, building them if they haven't been yet
+     * @param tournamentID the tournament ID
+     * @param sport the tournament's sport
+     * @param api the sport's table API
+     * @return the teams in rank order, or null if an error occurred
+     */
+    public static List<AbstractTeamResultsBean> get(int tournamentID, SportType sport, TableAPI api) {
+        Connection conn = null;
+        List<AbstractTeamResultsBean> table = null;
+        try {
+            conn = provider.getConnection();
+            table = load(tournamentID, sport, false, conn);
+        } catch (Exception e) {
+            logger.error("Unable to get standings: " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
+            return null;
+        } finally {
+            APIUtils.closeResource(conn);
+        }
+        return table.isEmpty() ? build(tournamentID, sport, api) : table;
+    }
+
+    /**
+     * Update a tournament's standings with the results of one of its events. Standings that
+     * haven't been built yet are left alone; they'll include the event when they are.
+     * @param eventID the event ID
+     * @param sport the event's sport
+     * @param api the sport's table API
+     * @return true if successful
+     */
+    public static boolean update(int eventID, SportType sport, TableAPI api) {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        boolean success = false;
+
+        // read before taking a connection, so a request never holds two
+        Map<Integer, List<AbstractTeamResultsBean>> eventResults = api.getEventResults(Collections.singletonList(eventID));
+        if (eventResults == null) {
+            return false;
+        }
+        List<AbstractTeamResultsBean> results = eventResults.get(eventID);
+        if (results == null) {
+            results = new ArrayList<AbstractTeamResultsBean>();
+        }
+
+        try {
+            conn = provider.getConnection();
+            int tournamentID = getTournament(eventID, conn);
+            if (tournamentID < 1) {
+                return true;
+            }
+
+            conn.setAutoCommit(false);
+            // locks the tournament's standings until the update commits
+            List<AbstractTeamResultsBean> table = load(tournamentID, sport, true, conn);
+            if (table.isEmpty()) {
+                conn.commit();
+                return true;
+            }
+
+            // the change to each team is the event's new results less what it counted before
+            Map<Integer, AbstractTeamResultsBean> changes = new LinkedHashMap<Integer, AbstractTeamResultsBean>();
+            for (AbstractTeamResultsBean result : results) {
+                getOrCreate(changes, sport, result.teamID).add(result, 1);
+            }
+            stmt = conn.prepareStatement("SELECT " + COLUMNS + " FROM StandingsResults WHERE eventID = ?");
+            stmt.setInt(1, eventID);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                getOrCreate(changes, sport, rs.getInt(1)).add(readRow(sport, rs), -1);
+            }
+            APIUtils.closeResources(rs, stmt);
+            rs = null;
+            stmt = null;
+
+            int[] changed = reposition(table, changes, sport);
+
+            stmt = conn.prepareStatement("DELETE FROM StandingsResults WHERE eventID = ?");
+            stmt.setInt(1, eventID);
+            stmt.executeUpdate();
+            APIUtils.closeResource(stmt);
+            stmt = null;
+            saveResults(tournamentID, Collections.singletonMap(eventID, results), conn);
+            if (changed != null) {
+                saveTable(tournamentID, table.subList(changed[0], changed[1] + 1), conn);
+            }
+            conn.commit();
+            success = true;
+        } catch (Exception e) {
+            logger.error("Unable to update standings: " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
+            APIUtils.rollback(conn);
+        } finally {
+            APIUtils.closeResources(rs, stmt);
+            APIUtils.setAutoCommit(conn, true);
+            APIUtils.closeResource(conn);
+        }
+        return success;
+    }
+
+    /**
+     * Drop the stored standings an event counts toward, and those of the tournament it is in now,
+     * so they are rebuilt on the next read. Called after an event is deleted, moved to another
+     * tournament or has its teams changed, on the connection that made the change.
+     * @param eventID the event ID
+     * @param conn the connection to use
+     * @throws SQLException
+     */
+    public static void dropEvent(int eventID, Connection conn) throws SQLException {
+        Set<Integer> tournaments = new HashSet<Integer>();
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = conn.prepareStatement("SELECT tournamentID FROM StandingsResults WHERE eventID = ? " +
+                    "UNION SELECT TournamentId FROM Event WHERE EventId = ? AND TournamentId IS NOT NULL");
+            stmt.setInt(1, eventID);
+            stmt.setInt(2, eventID);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                tournaments.add(rs.getInt(1));
+            }
+        } finally {
+            APIUtils.closeResources(rs, stmt);
+        }
+        for (int tournamentID : tournaments) {
+            drop(tournamentID, conn);
+        }
+    }
+
+    /**
+     * Drop the stored standings an event counts toward on a connection of its own, for when
+     * they can't be updated in place
+     * @param eventID the event ID
+     * @return true if successful
+     */
+    public static boolean dropEvent(int eventID) {
+        Connection conn = null;
+        boolean success = false;
+        try {
+            conn = provider.getConnection();
+            conn.setAutoCommit(false);
+            dropEvent(eventID, conn);
+            conn.commit();
+            success = true;
+        } catch (Exception e) {
+            logger.error("Unable to drop standings: " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
+            APIUtils.rollback(conn);
+        } finally {
+            APIUtils.setAutoCommit(conn, true);
+            APIUtils.closeResource(conn);
+        }
+        return success;
+    }
+
+    /**
+     * Drop a tournament's stored standings and event results
+     * @param tournamentID the tournament ID
+     * @param conn the connection to use
+     * @throws SQLException
+     */
+    public static void drop(int tournamentID, Connection conn) throws SQLException {
+        PreparedStatement stmt = null;
+        try {
+            stmt = conn.prepareStatement("DELETE FROM Standings WHERE tournamentID = ?");
+            stmt.setInt(1, tournamentID);
+            stmt.executeUpdate();
+            APIUtils.closeResource(stmt);
+            stmt = conn.prepareStatement("DELETE FROM StandingsResults WHERE tournamentID = ?");
+            stmt.setInt(1, tournamentID);
+            stmt.executeUpdate();
+        } finally {
+            APIUtils.closeResource(stmt);
+        }
+    }
+
+    /**
+     * Build and store a tournament's standings from its events without an active session
+     * @return the teams in rank order, or null if an error occurred
+     */
+    private static List<AbstractTeamResultsBean> build(int tournamentID, SportType sport, TableAPI api) {
+        List<Integer> events = new ArrayList<Integer>();
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            conn = provider.getConnection();
+            stmt = conn.prepareStatement("SELECT EventId FROM Event WHERE TournamentId = ? " +
+                    "AND EventId NOT IN (SELECT eventID FROM StatSessions)");
+            stmt.setInt(1, tournamentID);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                events.add(rs.getInt(1));
+            }
+        } catch (Exception e) {
+            logger.error("Unable to get events for standings: " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
+            return null;
+        } finally {
+            APIUtils.closeResources(rs, stmt, conn);
+        }
+
+        Map<Integer, List<AbstractTeamResultsBean>> eventResults = api.getEventResults(events);
+        if (eventResults == null) {
+            return null;
+        }
+        Map<Integer, AbstractTeamResultsBean> teams = new HashMap<Integer, AbstractTeamResultsBean>();
+        for (List<AbstractTeamResultsBean> results : eventResults.values()) {
+            for (AbstractTeamResultsBean result : results) {
+                getOrCreate(teams, sport, result.teamID).add(result, 1);
+            }
+        }
+        AbstractTeamResultsBean[] sorted = teams.values().toArray(new AbstractTeamResultsBean[teams.size()]);
+        Arrays.sort(sorted);
+        List<AbstractTeamResultsBean> table = Arrays.asList(sorted);
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i].rank = i + 1;
+        }
+
+        conn = null;
+        stmt = null;
+        try {
+            conn = provider.getConnection();
+            conn.setAutoCommit(false);
+            // another request may have built the standings since they were read
+            if (load(tournamentID, sport, true, conn).isEmpty()) {
+                stmt = conn.prepareStatement("DELETE FROM StandingsResults WHERE tournamentID = ?");
+                stmt.setInt(1, tournamentID);
+                stmt.executeUpdate();
+                saveResults(tournamentID, eventResults, conn);
+                saveTable(tournamentID, table, conn);
+            }
+            conn.commit();
+        } catch (Exception e) {
+            // the table is still correct; it just isn't stored this time
+            logger.error("Unable to store standings: " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
+            APIUtils.rollback(conn);
+        } finally {
+            APIUtils.closeResource(stmt);
+            APIUtils.setAutoCommit(conn, true);
+            APIUtils.closeResource(conn);
+        }
+        return table;
+    }
+
+    /**
+     * Apply changes to a sorted table, moving each changed team to its new place
+     * @param table the table in rank order; updated in place
+     * @param changes map from team ID to the change in the team's results
+     * @return the first and last index of the rows whose place or results changed, or null if none did
+     */
+    static int[] reposition(List<AbstractTeamResultsBean> table, Map<Integer, AbstractTeamResultsBean> changes,
+                            SportType sport) {
+        Map<Integer, AbstractTeamResultsBean> byTeam = new HashMap<Integer, AbstractTeamResultsBean>();
+        for (AbstractTeamResultsBean team : table) {
+            byTeam.put(team.teamID, team);
+        }
+
+        int first = Integer.MAX_VALUE;
+        int last = -1;
+        for (AbstractTeamResultsBean change : changes.values()) {
+            AbstractTeamResultsBean team = byTeam.get(change.teamID);
+            int from;
+            if (team != null) {
+                from = Collections.binarySearch(table, team);
+                table.remove(from);
+            } else {
+                // a new team pushes down everyone below it
+                team = createBean(sport, change.teamID);
+                from = table.size();
+            }
+            team.add(change, 1);
+            int to = -(Collections.binarySearch(table, team) + 1);
+            table.add(to, team);
+            first = Math.min(first, Math.min(from, to));
+            last = Math.max(last, Math.max(from, to));
+        }
+
+        if (last < 0) {
+            return null;
+        }
+        last = Math.min(last, table.size() - 1);
+        for (int i = first; i <= last; i++) {
+            table.get(i).rank = i + 1;
+        }
+        return new int[] {first, last};
+    }
+
+    /**
+     * Load a tournament's standings in rank order
+     */
+    private static List<AbstractTeamResultsBean> load(int tournamentID, SportType sport, boolean lock, Connection conn)
+            throws SQLException {
+        List<AbstractTeamResultsBean> table = new ArrayList<AbstractTeamResultsBean>();
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = conn.prepareStatement("SELECT " + COLUMNS + ", place FROM Standings " +
+                    "WHERE tournamentID = ? ORDER BY place" + (lock ? " FOR UPDATE" : ""));
+            stmt.setInt(1, tournamentID);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                AbstractTeamResultsBean team = readRow(sport, rs);
+                team.rank = rs.getInt(8);
+                table.add(team);
+            }
+        } finally {
+            APIUtils.closeResources(rs, stmt);
+        }
+        return table;
+    }
+
+    private static void saveTable(int tournamentID, List<AbstractTeamResultsBean> rows, Connection conn) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        PreparedStatement stmt = null;
+        try {
+            stmt = conn.prepareStatement("INSERT INTO Standings (tournamentID, " + COLUMNS + ", place) " +
+                    "VALUES (?,?,?,?,?,?,?,?,?) ON DUPLICATE KEY UPDATE points = VALUES(points), wins = VALUES(wins), " +
+                    "ties = VALUES(ties), losses = VALUES(losses), scoreFor = VALUES(scoreFor), " +
+                    "scoreAgainst = VALUES(scoreAgainst), place = VALUES(place)");
+            for (AbstractTeamResultsBean row : rows) {
+                stmt.setInt(1, tournamentID);
+                setRow(stmt, 2, row);
+                stmt.setInt(9, row.rank);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        } finally {
+            APIUtils.closeResource(stmt);
+        }
+    }
+
+    private static void saveResults(int tournamentID, Map<Integer, List<AbstractTeamResultsBean>> eventResults,
+                                    Connection conn) throws SQLException {
+        PreparedStatement stmt = null;
+        try {
+            stmt = conn.prepareStatement("INSERT INTO StandingsResults (eventID, tournamentID, " + COLUMNS + ") " +
+                    "VALUES (?,?,?,?,?,?,?,?,?)");
+            int rows = 0;
+            for (Map.Entry<Integer, List<AbstractTeamResultsBean>> event : eventResults.entrySet()) {
+                for (AbstractTeamResultsBean result : event.getValue()) {
+                    stmt.setInt(1, event.getKey());
+                    stmt.setInt(2, tournamentID);
+                    setRow(stmt, 3, result);
+                    stmt.addBatch();
+                    rows++;
+                }
+            }
+            if (rows > 0) {
+                stmt.executeBatch();
+            }
+        } finally {
+            APIUtils.closeResource(stmt);
+        }
+    }
+
+    private static int getTournament(int eventID, Connection conn) throws SQLException {
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = conn.prepareStatement("SELECT TournamentId FROM Event WHERE EventId = ?");
+            stmt.setInt(1, eventID);
+            rs = stmt.executeQuery();
+            return rs.next() ? rs.getInt(1) : 0;
+        } finally {
+            APIUtils.closeResources(rs, stmt);
+        }
+    }
+
+    private static AbstractTeamResultsBean getOrCreate(Map<Integer, AbstractTeamResultsBean> teams, SportType sport, int teamID) {
+        AbstractTeamResultsBean team = teams.get(teamID);
+        if (team == null) {
+            team = createBean(sport, teamID);
+            teams.put(teamID, team);
+        }
+        return team;
+    }
+
+    private static AbstractTeamResultsBean createBean(SportType sport, int teamID) {
+        if (sport == SportType.ULTIMATE_FRISBEE) {
+            return new UltimateTeamResultsBean(teamID);
+        }
+        return new SoccerTeamResultsBean(teamID);
+    }
+
+    /**
+     * Read a row in {@link #COLUMNS} order
+     */
+    private static AbstractTeamResultsBean readRow(SportType sport, ResultSet rs) throws SQLException {
+        AbstractTeamResultsBean result = createBean(sport, rs.getInt(1));
+        result.wins = rs.getInt(3);
+        result.ties = rs.getInt(4);
+        result.losses = rs.getInt(5);
+        if (result instanceof SoccerTeamResultsBean) {
+            SoccerTeamResultsBean soccer = (SoccerTeamResultsBean)result;
+            soccer.points = rs.getInt(2);
+            soccer.goalsFor = rs.getInt(6);
+            soccer.goalsAgainst = rs.getInt(7);
+        } else {
+            UltimateTeamResultsBean ultimate = (UltimateTeamResultsBean)result;
+            ultimate.pointsFor = rs.getInt(6);
+            ultimate.pointsAgainst = rs.getInt(7);
+        }
+        return result;
+    }
+
+    /**
+     * Set a row's parameters in {@link #COLUMNS} order, starting at the given index
+     */
+    private static void setRow(PreparedStatement stmt, int idx, AbstractTeamResultsBean result) throws SQLException {
+        int points = 0;
+        int scoreFor = 0;
+        int scoreAgainst = 0;
+        if (result instanceof SoccerTeamResultsBean) {
+            SoccerTeamResultsBean soccer = (SoccerTeamResultsBean)result;
+            points = soccer.points;
+            scoreFor = soccer.goalsFor;
+            scoreAgainst = soccer.goalsAgainst;
+        } else if (result instanceof UltimateTeamResultsBean) {
+            UltimateTeamResultsBean ultimate = (UltimateTeamResultsBean)result;
+            scoreFor = ultimate.pointsFor;
+            scoreAgainst = ultimate.pointsAgainst;
+        }
+        stmt.setInt(idx, result.teamID);
+        stmt.setInt(idx + 1, points);
+        stmt.setInt(idx + 2, result.wins);
+        stmt.setInt(idx + 3, result.ties);
+        stmt.setInt(idx + 4, result.losses);
+        stmt.setInt(idx + 5, scoreFor);
+        stmt.setInt(idx + 6, scoreAgainst);
+    }
+}
@@ -0,0 +1,294 @@
+package org.sportim.service.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Changes to the stat counter tables and Passing for one event. Counter changes commute,
+ * so changes to the same row are summed and written as one row of a multi-row upsert.
+ */
+public class StatDeltas {
+    private static final int MAX_ROWS_PER_STATEMENT = 500;
+    private static final String PASS_UPSERT_PREFIX = "INSERT INTO Passing (`to`, `from`, eventID, passes) VALUES ";
+    private static final String PASS_UPSERT_SUFFIX = " ON DUPLICATE KEY UPDATE passes = passes + VALUES(passes)";
+
+    private final Map<Row, int[]> rows = new LinkedHashMap<Row, int[]>();
+    private final Map<Pass, Integer> passes = new LinkedHashMap<Pass, Integer>();
+
+    /**
+     * Add one to each of the given counters
+     * @param table the stat table
+     * @param teamID the team ID
+     * @param player the player, or null for team tables
+     * @param columns the counter columns
+     * @return this
+     */
+    public StatDeltas add(StatTable table, int teamID, String player, String... columns) {
+        int[] deltas = get(new Row(table, teamID, player));
+        for (String column : columns) {
+            deltas[table.indexOf(column)]++;
+        }
+        return this;
+    }
+
+    /**
+     * Add a pass
+     * @param from the passer
+     * @param to the receiver
+     * @return this
+     */
+    public StatDeltas addPass(String from, String to) {
+        addPasses(new Pass(from, to), 1);
+        return this;
+    }
+
+    /**
+     * Add all changes from another set
+     * @param other the changes to add
+     * @param sign 1 to apply them, -1 to reverse them
+     */
+    public void addAll(StatDeltas other, int sign) {
+        for (Map.Entry<Row, int[]> row : other.rows.entrySet()) {
+            int[] deltas = get(row.getKey());
+            for (int i = 0; i < deltas.length; i++) {
+                deltas[i] += sign * row.getValue()[i];
+            }
+        }
+        for (Map.Entry<Pass, Integer> pass : other.passes.entrySet()) {
+            addPasses(pass.getKey(), sign * pass.getValue());
+        }
+    }
+
+    /**
+     * Add to a single row's counters
+     * @param table the stat table
+     * @param teamID the team ID
+     * @param player the player, or null for team tables
+     * @param deltas the amount to add to each counter, in the table's column order
+     */
+    void addRow(StatTable table, int teamID, String player, int[] deltas) {
+        int[] row = get(new Row(table, teamID, player));
+        for (int i = 0; i < row.length; i++) {
+            row[i] += deltas[i];
+        }
+    }
+
+    /**
+     * @return the counter changes, keyed by row
+     */
+    Map<Row, int[]> getRows() {
+        return rows;
+    }
+
+    public boolean isEmpty() {
+        return rows.isEmpty() && passes.isEmpty();
+    }
+
+    public boolean hasPasses() {
+        return !passes.isEmpty();
+    }
+
+    /**
+     * Hand the counter changes to the write-behind buffer
+     * @param eventID the event ID
+     */
+    void buffer(int eventID) {
+        for (Map.Entry<Row, int[]> row : rows.entrySet()) {
+            Row key = row.getKey();
+            StatWriteBuffer.add(key.table, eventID, key.teamID, key.player, row.getValue());
+        }
+    }
+
+    /**
+     * Write the changes for one event. The caller owns the connection and any transaction.
+     * @param eventID the event ID
+     * @param conn the connection to use
+     * @throws SQLException
+     */
+    public void write(int eventID, Connection conn) throws SQLException {
+        write(Collections.singletonMap(eventID, this), true, true, conn);
+    }
+
+    /**
+     * Write only the pass changes for one event
+     * @param eventID the event ID
+     * @param conn the connection to use
+     * @throws SQLException
+     */
+    void writePasses(int eventID, Connection conn) throws SQLException {
+        write(Collections.singletonMap(eventID, this), false, true, conn);
+    }
+
+    /**
+     * Write the changes for many events, with up to MAX_ROWS_PER_STATEMENT rows per statement.
+     * The caller owns the connection and any transaction.
+     * @param events the changes keyed by event ID
+     * @param conn the connection to use
+     * @throws SQLException
+     */
+    public static void writeAll(Map<Integer, StatDeltas> events, Connection conn) throws SQLException {
+        write(events, true, true, conn);
+    }
+
+    private static void write(Map<Integer, StatDeltas> events, boolean counters, boolean passes,
+                              Connection conn) throws SQLException {
+        if (counters) {
+            for (StatTable table : StatTable.ALL) {
+                List<Object[]> values = new ArrayList<Object[]>();
+                for (Map.Entry<Integer, StatDeltas> event : events.entrySet()) {
+                    for (Map.Entry<Row, int[]> row : event.getValue().rows.entrySet()) {
+                        if (row.getKey().table == table && !isZero(row.getValue())) {
+                            values.add(row.getKey().toValues(event.getKey(), row.getValue()));
+                        }
+                    }
+                }
+                upsert(values, table, conn);
+            }
+        }
+
+        if (passes) {
+            List<Object[]> values = new ArrayList<Object[]>();
+            for (Map.Entry<Integer, StatDeltas> event : events.entrySet()) {
+                for (Map.Entry<Pass, Integer> pass : event.getValue().passes.entrySet()) {
+                    if (pass.getValue() != 0) {
+                        values.add(new Object[]{pass.getKey().to, pass.getKey().from, event.getKey(), pass.getValue()});
+                    }
+                }
+            }
+            upsert(values, null, conn);
+        }
+    }
+
+    /**
+     * Run multi-row upserts for a list of rows
+     * @param values the parameter values for each row
+     * @param table the stat table, or null for Passing
+     * @param conn the connection to use
+     * @throws SQLException
+     */
+    private static void upsert(List<Object[]> values, StatTable table, Connection conn) throws SQLException {
+        PreparedStatement stmt = null;
+        try {
+            for (int start = 0; start < values.size(); start += MAX_ROWS_PER_STATEMENT) {
+                int count = Math.min(MAX_ROWS_PER_STATEMENT, values.size() - start);
+                stmt = conn.prepareStatement(table != null ? table.createUpsert(count) : createPassUpsert(count));
+                int idx = 0;
+                for (Object[] row : values.subList(start, start + count)) {
+                    for (Object value : row) {
+                        if (value instanceof String) {
+                            stmt.setString(++idx, (String) value);
+                        } else {
+                            stmt.setInt(++idx, (Integer) value);
+                        }
+                    }
+                }
+                stmt.executeUpdate();
+                APIUtils.closeResource(stmt);
+                stmt = null;
+            }
+        } finally {
+            APIUtils.closeResource(stmt);
+        }
+    }
+
+    private static String createPassUpsert(int rows) {
+        StringBuilder sql = new StringBuilder(PASS_UPSERT_PREFIX);
+        for (int i = 0; i < rows; i++) {
+            sql.append(i > 0 ? ", (?,?,?,?)" : "(?,?,?,?)");
+        }
+        return sql.append(PASS_UPSERT_SUFFIX).toString();
+    }
+
+    private static boolean isZero(int[] deltas) {
+        for (int delta : deltas) {
+            if (delta != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int[] get(Row key) {
+        int[] deltas = rows.get(key);
+        if (deltas == null) {
+            deltas = new int[key.table.getColumnCount()];
+            rows.put(key, deltas);
+        }
+        return deltas;
+    }
+
+    private void addPasses(Pass key, int count) {
+        Integer current = passes.get(key);
+        passes.put(key, current == null ? count : current + count);
+    }
+
+    /**
+     * A row of a stat table within an event
+     */
+    static class Row {
+        final StatTable table;
+        final int teamID;
+        final String player;
+
+        Row(StatTable table, int teamID, String player) {
+            this.table = table;
+            this.teamID = teamID;
+            this.player = player;
+        }
+
+        Object[] toValues(int eventID, int[] deltas) {
+            Object[] values = new Object[(table.isPlayerKeyed() ? 3 : 2) + deltas.length];
+            int idx = 0;
+            values[idx++] = eventID;
+            values[idx++] = teamID;
+            if (table.isPlayerKeyed()) {
+                values[idx++] = player;
+            }
+            for (int delta : deltas) {
+                values[idx++] = delta;
+            }
+            return values;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Row)) {
+                return false;
+            }
+            Row other = (Row) o;
+            return table == other.table && teamID == other.teamID &&
+                    (player == null ? other.player == null : player.equals(other.player));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * table.hashCode() + teamID) + (player == null ? 0 : player.hashCode());
+        }
+    }
+
+    private static class Pass {
+        final String from;
+        final String to;
+
+        Pass(String from, String to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Pass)) {
+                return false;
+            }
+            Pass other = (Pass) o;
+            return from.equals(other.from) && to.equals(other.to);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * from.hashCode() + to.hashCode();
+        }
+    }
+}
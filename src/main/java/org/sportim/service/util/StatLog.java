@@ -0,0 +1,486 @@
+package org.sportim.service.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.log4j.Logger;
+import org.sportim.service.beans.stats.FoulBean;
+import org.sportim.service.beans.stats.PassBean;
+import org.sportim.service.soccer.beans.SoccerFoulBean;
+import org.sportim.service.soccer.beans.SoccerScoreBean;
+import org.sportim.service.soccer.beans.SoccerShotBean;
+import org.sportim.service.ultimatefrisbee.beans.UltimateScoreBean;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Append-only log of stat tracking actions.
+ *
+ * Every goal, shot, foul, pass and point is appended to StatEvent along with the
+ * counter changes it makes, in one transaction. SoccerStats, UltimateStats,
+ * UltimateTeamStats and Passing are projections of the log: undoing an action appends
+ * an undo entry and applies the reverse changes, and {@link #rebuild} recomputes the
+ * projections for a set of events from their logs.
+ *
+ * Clock and substitution data (time on, minutes) is not part of the log.
+ */
+public class StatLog {
+    private static Logger logger = Logger.getLogger(StatLog.class.getName());
+    private static ConnectionProvider provider = ConnectionManager.getInstance();
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    public static final String SOCCER_GOAL = "soccer.goal";
+    public static final String SOCCER_SHOT = "soccer.shot";
+    public static final String SOCCER_FOUL = "soccer.foul";
+    public static final String PASS = "pass";
+    public static final String ULTIMATE_POINT = "ultimate.point";
+    public static final String ULTIMATE_FOUL = "ultimate.foul";
+    public static final String UNDO = "undo";
+
+    /** Returned by record and undo when the event has no active session */
+    public static final int NO_SESSION = -2;
+
+    public static void setConnectionProvider(ConnectionProvider provider) {
+        StatLog.provider = provider;
+    }
+
+    /**
+     * Record a single action
+     * @param eventID the event ID
+     * @param type the action type
+     * @param action the action bean
+     * @return 1 if the action was recorded, NO_SESSION if the event has no active session, or -1 on error
+     */
+    public static int record(int eventID, String type, Object action) {
+        Connection conn = null;
+        boolean success = false;
+        StatDeltas deltas = project(type, action);
+        try {
+            conn = provider.getConnection();
+            conn.setAutoCommit(false);
+            if (!StatUtil.lockSession(eventID, conn)) {
+                conn.rollback();
+                return NO_SESSION;
+            }
+            append(eventID, Collections.singletonList(new Action(type, action)), conn);
+            apply(eventID, deltas, conn);
+            conn.commit();
+            success = true;
+        } catch (Exception e) {
+            logger.error("Unable to record " + type + ": " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
+            APIUtils.rollback(conn);
+        } finally {
+            APIUtils.setAutoCommit(conn, true);
+            APIUtils.closeResource(conn);
+        }
+
+        if (!success) {
+            return -1;
+        }
+        committed(eventID, deltas);
+        return 1;
+    }
+
+    /**
+     * Append actions to an event's log. The caller owns the connection and transaction,
+     * and is responsible for locking the event's session (see {@link StatUtil#lockSession})
+     * and applying the actions' changes (see {@link #project}).
+     * @param eventID the event ID
+     * @param actions the actions, in order
+     * @param conn the connection to use
+     * @throws SQLException
+     * @throws IOException if an action can't be serialized
+     */
+    public static void append(int eventID, List<Action> actions, Connection conn) throws SQLException, IOException {
+        if (actions.isEmpty()) {
+            return;
+        }
+
+        PreparedStatement stmt = null;
+        long now = System.currentTimeMillis();
+        try {
+            stmt = conn.prepareStatement("INSERT INTO StatEvent (eventID, type, payload, ts) VALUES (?,?,?,?)");
+            for (Action action : actions) {
+                stmt.setInt(1, eventID);
+                stmt.setString(2, action.type);
+                stmt.setString(3, mapper.writeValueAsString(action.data));
+                stmt.setLong(4, now);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        } finally {
+            APIUtils.closeResource(stmt);
+        }
+    }
+
+    /**
+     * Undo an event's most recent actions that haven't already been undone
+     * @param eventID the event ID
+     * @param count the number of actions to undo
+     * @return the number of actions undone, NO_SESSION if the event has no active session, or -1 on error
+     */
+    public static int undo(int eventID, int count) {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        StatDeltas deltas = new StatDeltas();
+        UndoBean undo = new UndoBean();
+        boolean success = false;
+        try {
+            conn = provider.getConnection();
+            conn.setAutoCommit(false);
+
+            // serialize undos for the event so two can't reverse the same action. Once the session
+            // ends the event is folded into the season stats, so its raw rows must not change.
+            stmt = conn.prepareStatement("SELECT eventID FROM StatSessions WHERE eventID = ? FOR UPDATE");
+            stmt.setInt(1, eventID);
+            rs = stmt.executeQuery();
+            boolean active = rs.next();
+            APIUtils.closeResources(rs, stmt);
+            rs = null;
+            stmt = null;
+            if (!active) {
+                conn.rollback();
+                return NO_SESSION;
+            }
+
+            // walking backwards, an undo entry is always seen before the actions it reversed
+            Set<Long> undone = new HashSet<Long>();
+            stmt = conn.prepareStatement("SELECT seq, type, payload FROM StatEvent WHERE eventID = ? ORDER BY seq DESC");
+            stmt.setInt(1, eventID);
+            rs = stmt.executeQuery();
+            while (undo.seqs.size() < count && rs.next()) {
+                long seq = rs.getLong(1);
+                String type = rs.getString(2);
+                if (type.equals(UNDO)) {
+                    undone.addAll(mapper.readValue(rs.getString(3), UndoBean.class).seqs);
+                } else if (!undone.contains(seq)) {
+                    undo.seqs.add(seq);
+                    deltas.addAll(project(type, rs.getString(3)), -1);
+                }
+            }
+            APIUtils.closeResources(rs, stmt);
+            rs = null;
+            stmt = null;
+
+            if (!undo.seqs.isEmpty()) {
+                append(eventID, Collections.singletonList(new Action(UNDO, undo)), conn);
+                apply(eventID, deltas, conn);
+            }
+            conn.commit();
+            success = true;
+        } catch (Exception e) {
+            logger.error("Unable to undo stat actions: " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
+            APIUtils.rollback(conn);
+        } finally {
+            APIUtils.closeResources(rs, stmt);
+            APIUtils.setAutoCommit(conn, true);
+            APIUtils.closeResource(conn);
+        }
+
+        if (!success) {
+            return -1;
+        }
+        committed(eventID, deltas);
+        return undo.seqs.size();
+    }
+
+    /**
+     * Rebuild the projections of a set of events from their logs. Counters are reset and
+     * replayed with large multi-row writes in one transaction. Events with no log entries,
+     * or with an active tracking session, are left alone.
+     * @param eventIDs the event IDs
+     * @return the number of events rebuilt, or -1 on error
+     */
+    public static int rebuild(Collection<Integer> eventIDs) {
+        if (eventIDs.isEmpty()) {
+            return 0;
+        }
+        StatWriteBuffer.flush(eventIDs);
+
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        List<Integer> events = new ArrayList<Integer>();
+        boolean success = false;
+        try {
+            conn = provider.getConnection();
+            conn.setAutoCommit(false);
+
+            stmt = conn.prepareStatement("SELECT DISTINCT eventID FROM StatEvent WHERE eventID IN (" +
+                    APIUtils.createParamString(eventIDs.size()) + ") " +
+                    "AND eventID NOT IN (SELECT eventID FROM StatSessions)");
+            int idx = 0;
+            for (Integer eventID : eventIDs) {
+                stmt.setInt(++idx, eventID);
+            }
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                events.add(rs.getInt(1));
+            }
+            APIUtils.closeResources(rs, stmt);
+            rs = null;
+            stmt = null;
+
+            if (!events.isEmpty()) {
+                SeasonStats.unfold(events, conn);
+                resetProjections(events, conn);
+                StatDeltas.writeAll(replay(events, conn), conn);
+                SeasonStats.fold(events, conn);
+            }
+            conn.commit();
+            success = true;
+            PassGraph.invalidate(events);
+            for (Integer eventID : events) {
+                LiveEventFeed.publish(eventID);
+            }
+        } catch (Exception e) {
+            logger.error("Unable to rebuild stats: " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
+            APIUtils.rollback(conn);
+        } finally {
+            APIUtils.closeResources(rs, stmt);
+            APIUtils.setAutoCommit(conn, true);
+            APIUtils.closeResource(conn);
+        }
+        return success ? events.size() : -1;
+    }
+
+    /**
+     * Delete an event's log, along with its stats
+     * @param eventID the event ID
+     * @param conn the connection to use
+     * @throws SQLException
+     */
+    public static void delete(int eventID, Connection conn) throws SQLException {
+        PreparedStatement stmt = null;
+        try {
+            stmt = conn.prepareStatement("DELETE FROM StatEvent WHERE eventID = ?");
+            stmt.setInt(1, eventID);
+            stmt.executeUpdate();
+        } finally {
+            APIUtils.closeResource(stmt);
+        }
+    }
+
+    /**
+     * Get the counter changes an action makes
+     * @param type the action type
+     * @param action the action bean
+     * @return the changes
+     */
+    public static StatDeltas project(String type, Object action) {
+        StatDeltas deltas = new StatDeltas();
+        switch (type) {
+            case SOCCER_GOAL:
+                SoccerScoreBean score = (SoccerScoreBean) action;
+                deltas.add(StatTable.SOCCER_STATS, score.teamID, score.player, "goals", "shots", "shotsongoal");
+                if (score.assist != null) {
+                    deltas.add(StatTable.SOCCER_STATS, score.teamID, score.assist, "assists");
+                }
+                deltas.add(StatTable.SOCCER_STATS, score.goalieTeamID, score.goalkeeper, "goalsagainst");
+                break;
+            case SOCCER_SHOT:
+                SoccerShotBean shot = (SoccerShotBean) action;
+                if (shot.onGoal) {
+                    deltas.add(StatTable.SOCCER_STATS, shot.teamID, shot.player, "shots", "shotsongoal");
+                    deltas.add(StatTable.SOCCER_STATS, shot.goalieTeamID, shot.goalkeeper, "saves");
+                } else {
+                    deltas.add(StatTable.SOCCER_STATS, shot.teamID, shot.player, "shots");
+                }
+                break;
+            case SOCCER_FOUL:
+                SoccerFoulBean foul = (SoccerFoulBean) action;
+                deltas.add(StatTable.SOCCER_STATS, foul.teamID, foul.player, "fouls");
+                if (foul.red) {
+                    deltas.add(StatTable.SOCCER_STATS, foul.teamID, foul.player, "red");
+                }
+                if (foul.yellow) {
+                    deltas.add(StatTable.SOCCER_STATS, foul.teamID, foul.player, "yellow");
+                }
+                break;
+            case PASS:
+                PassBean pass = (PassBean) action;
+                deltas.addPass(pass.from, pass.to);
+                break;
+            case ULTIMATE_POINT:
+                UltimateScoreBean point = (UltimateScoreBean) action;
+                deltas.add(StatTable.ULTIMATE_STATS, point.teamID, point.thrower, "pointsthrown");
+                deltas.add(StatTable.ULTIMATE_STATS, point.teamID, point.receiver, "pointsreceived");
+                deltas.add(StatTable.ULTIMATE_TEAM_STATS, point.opposingTeamID, null, "pointsagainst");
+                break;
+            case ULTIMATE_FOUL:
+                FoulBean ultimateFoul = (FoulBean) action;
+                deltas.add(StatTable.ULTIMATE_STATS, ultimateFoul.teamID, ultimateFoul.player, "fouls");
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown stat action type " + type);
+        }
+        return deltas;
+    }
+
+    /**
+     * Get the counter changes of a logged action
+     */
+    private static StatDeltas project(String type, String payload) throws IOException {
+        Class<?> beanClass;
+        switch (type) {
+            case SOCCER_GOAL:
+                beanClass = SoccerScoreBean.class;
+                break;
+            case SOCCER_SHOT:
+                beanClass = SoccerShotBean.class;
+                break;
+            case SOCCER_FOUL:
+                beanClass = SoccerFoulBean.class;
+                break;
+            case PASS:
+                beanClass = PassBean.class;
+                break;
+            case ULTIMATE_POINT:
+                beanClass = UltimateScoreBean.class;
+                break;
+            case ULTIMATE_FOUL:
+                beanClass = FoulBean.class;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown stat action type " + type);
+        }
+        return project(type, mapper.readValue(payload, beanClass));
+    }
+
+    /**
+     * Apply an action's changes inside the caller's transaction. With the write-behind buffer
+     * enabled only passes are written here; the counters are buffered once the transaction
+     * commits (see {@link #committed}).
+     */
+    private static void apply(int eventID, StatDeltas deltas, Connection conn) throws SQLException {
+        if (!StatWriteBuffer.isEnabled()) {
+            deltas.write(eventID, conn);
+        } else if (deltas.hasPasses()) {
+            deltas.writePasses(eventID, conn);
+        }
+    }
+
+    /**
+     * Buffer counter changes, update live event state and notify live spectators once the
+     * changes are durable. When the write joined an enclosing transaction (see {@link UnitOfWork})
+     * this waits for that transaction to commit.
+     */
+    private static void committed(final int eventID, final StatDeltas deltas) {
+        if (StatWriteBuffer.isEnabled()) {
+            UnitOfWork.runAfterCommit(new Runnable() {
+                @Override
+                public void run() {
+                    deltas.buffer(eventID);
+                }
+            });
+        }
+        LiveEventState.apply(eventID, deltas);
+        PassGraph.invalidate(eventID);
+        LiveEventFeed.publish(eventID);
+    }
+
+    /**
+     * Zero the counters and delete the passes of a set of events
+     */
+    private static void resetProjections(List<Integer> events, Connection conn) throws SQLException {
+        PreparedStatement stmt = null;
+        try {
+            for (StatTable table : StatTable.ALL) {
+                stmt = conn.prepareStatement(table.createReset(events.size()));
+                setEventIDs(stmt, events);
+                stmt.executeUpdate();
+                APIUtils.closeResource(stmt);
+                stmt = null;
+            }
+            stmt = conn.prepareStatement("DELETE FROM Passing WHERE eventID IN (" +
+                    APIUtils.createParamString(events.size()) + ")");
+            setEventIDs(stmt, events);
+            stmt.executeUpdate();
+        } finally {
+            APIUtils.closeResource(stmt);
+        }
+    }
+
+    /**
+     * Replay the logs of a set of events
+     * @return the changes keyed by event ID
+     */
+    private static Map<Integer, StatDeltas> replay(List<Integer> events, Connection conn) throws SQLException, IOException {
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        List<Object[]> entries = new ArrayList<Object[]>();
+        Set<Long> undone = new HashSet<Long>();
+        try {
+            stmt = conn.prepareStatement("SELECT eventID, seq, type, payload FROM StatEvent WHERE eventID IN (" +
+                    APIUtils.createParamString(events.size()) + ") ORDER BY eventID, seq");
+            setEventIDs(stmt, events);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                String type = rs.getString(3);
+                if (type.equals(UNDO)) {
+                    undone.addAll(mapper.readValue(rs.getString(4), UndoBean.class).seqs);
+                } else {
+                    entries.add(new Object[]{rs.getInt(1), rs.getLong(2), type, rs.getString(4)});
+                }
+            }
+        } finally {
+            APIUtils.closeResources(rs, stmt);
+        }
+
+        Map<Integer, StatDeltas> deltas = new LinkedHashMap<Integer, StatDeltas>();
+        for (Object[] entry : entries) {
+            if (undone.contains(entry[1])) {
+                continue;
+            }
+            StatDeltas eventDeltas = deltas.get(entry[0]);
+            if (eventDeltas == null) {
+                eventDeltas = new StatDeltas();
+                deltas.put((Integer) entry[0], eventDeltas);
+            }
+            eventDeltas.addAll(project((String) entry[2], (String) entry[3]), 1);
+        }
+        return deltas;
+    }
+
+    private static void setEventIDs(PreparedStatement stmt, List<Integer> events) throws SQLException {
+        int idx = 0;
+        for (Integer eventID : events) {
+            stmt.setInt(++idx, eventID);
+        }
+    }
+
+    /**
+     * A logged action: its type and the bean that was posted
+     */
+    public static class Action {
+        final String type;
+        final Object data;
+
+        public Action(String type, Object data) {
+            this.type = type;
+            this.data = data;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public Object getData() {
+            return data;
+        }
+    }
+
+    /**
+     * Payload of an undo entry: the sequence numbers it reversed
+     */
+    public static class UndoBean {
+        public List<Long> seqs = new ArrayList<Long>();
+    }
+}
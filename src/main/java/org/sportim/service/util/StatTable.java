@@ -0,0 +1,109 @@
+package org.sportim.service.util;
+
+/**
+ * A stat table made of counter columns, keyed by (eventID, teamID) or (eventID, teamID, player)
+ */
+public class StatTable {
+    public static final StatTable SOCCER_STATS = new StatTable("SoccerStats", true, "goals", "shots", "shotsongoal",
+            "assists", "goalsagainst", "saves", "fouls", "yellow", "red");
+    public static final StatTable ULTIMATE_STATS = new StatTable("UltimateStats", true, "pointsthrown",
+            "pointsreceived", "fouls");
+    public static final StatTable ULTIMATE_TEAM_STATS = new StatTable("UltimateTeamStats", false, "pointsagainst");
+    public static final StatTable[] ALL = {SOCCER_STATS, ULTIMATE_STATS, ULTIMATE_TEAM_STATS};
+
+    private final String name;
+    private final boolean playerKeyed;
+    private final String[] columns;
+    private final String upsertPrefix;
+    private final String upsertSuffix;
+
+    private StatTable(String name, boolean playerKeyed, String... columns) {
+        this.name = name;
+        this.playerKeyed = playerKeyed;
+        this.columns = columns;
+
+        StringBuilder cols = new StringBuilder();
+        StringBuilder update = new StringBuilder();
+        for (String col : columns) {
+            cols.append(", ").append(col);
+            if (update.length() > 0) {
+                update.append(", ");
+            }
+            update.append(col).append(" = ").append(col).append(" + VALUES(").append(col).append(")");
+        }
+        upsertPrefix = "INSERT INTO " + name + " (eventID, teamID" + (playerKeyed ? ", player" : "") + cols + ") VALUES ";
+        upsertSuffix = " ON DUPLICATE KEY UPDATE " + update;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isPlayerKeyed() {
+        return playerKeyed;
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    /**
+     * Get the position of a counter column
+     * @param column the column name
+     * @return the column's index
+     * @throws IllegalArgumentException if this table has no such counter
+     */
+    public int indexOf(String column) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].equals(column)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(name + " has no counter column " + column);
+    }
+
+    /**
+     * Create an upsert that adds its values to the counters of existing rows
+     * @param rows the number of rows in the VALUES list
+     * @return the SQL
+     */
+    public String createUpsert(int rows) {
+        String row = "(" + APIUtils.createParamString((playerKeyed ? 3 : 2) + columns.length) + ")";
+        StringBuilder sql = new StringBuilder(upsertPrefix);
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(row);
+        }
+        return sql.append(upsertSuffix).toString();
+    }
+
+    /**
+     * Create a query for one event's rows
+     * @return the SQL, selecting teamID, then player for player-keyed tables, then the counters
+     */
+    public String createSelect() {
+        StringBuilder sql = new StringBuilder("SELECT teamID").append(playerKeyed ? ", player" : "");
+        for (String col : columns) {
+            sql.append(", ").append(col);
+        }
+        return sql.append(" FROM ").append(name).append(" WHERE eventID = ?").toString();
+    }
+
+    /**
+     * Create an update that sets every counter to zero for a set of events
+     * @param events the number of event IDs in the IN list
+     * @return the SQL
+     */
+    public String createReset(int events) {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(name).append(" SET ");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(columns[i]).append(" = 0");
+        }
+        return sql.append(" WHERE eventID IN (").append(APIUtils.createParamString(events)).append(")").toString();
+    }
+}
@@ -10,10 +10,14 @@ import org.sportim.service.soccer.beans.SoccerTeamStatsBean;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Utilities for the stats tracking APIs.
@@ -21,13 +25,64 @@ import java.util.Set;
 public class StatUtil {
     private static Logger logger = Logger.getLogger(StatUtil.class.getName());
     private static ConnectionProvider provider = ConnectionManager.getInstance();
+    private static final boolean MULTI_NODE = Boolean.parseBoolean(System.getenv("STAT_SESSION_MULTI_NODE"));
+    private static final long SESSION_RECHECK_MILLIS = 2000;
+    private static final int SESSION_CACHE_SIZE = 10000;
+    // bounded, since any client can look up sessions for arbitrary event IDs
+    private static final Map<Integer, CachedSession> sessions = new LinkedHashMap<Integer, CachedSession>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, CachedSession> eldest) {
+            return size() > SESSION_CACHE_SIZE;
+        }
+    };
+    private static AtomicLong lastSessionVersion = new AtomicLong();
 
     public static void setConnectionProvider(ConnectionProvider provider) {
         StatUtil.provider = provider;
+        synchronized (sessions) {
+            sessions.clear();
+        }
+    }
+
+    /**
+     * Record a session that was just started or reset on this node
+     * @param eventID the event ID
+     * @param sessionID the new session ID
+     * @param version the version stamp written with the session
+     */
+    public static void sessionStarted(int eventID, String sessionID, long version) {
+        cacheSession(eventID, new CachedSession(sessionID, version));
     }
 
     /**
-     * Check if the given session is valid for this event
+     * Record a session that was just ended on this node
+     * @param eventID the event ID
+     */
+    public static void sessionEnded(int eventID) {
+        cacheSession(eventID, new CachedSession(null, nextSessionVersion()));
+    }
+
+    /**
+     * Generate a version stamp for a session change. Stamps are increasing on this node
+     * and roughly ordered by time across nodes.
+     * @return the version stamp
+     */
+    public static long nextSessionVersion() {
+        while (true) {
+            long last = lastSessionVersion.get();
+            long next = Math.max(last + 1, System.currentTimeMillis());
+            if (lastSessionVersion.compareAndSet(last, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Check if the given session is valid for this event. Active sessions are cached per
+     * event. With a single node the cache is authoritative, since sessions only change through
+     * this node's StatSessionAPI. With STAT_SESSION_MULTI_NODE set, a cached session is trusted
+     * for a short time and otherwise revalidated against the database, as is any session ID
+     * that doesn't match the cache.
      * @param sessionID the session id
      * @param eventID the event id
      * @return true if the session is valid
@@ -37,18 +92,32 @@ public class StatUtil {
             return false;
         }
 
+        CachedSession cached;
+        synchronized (sessions) {
+            cached = sessions.get(eventID);
+        }
+        if (cached != null && (!MULTI_NODE || cached.checked + SESSION_RECHECK_MILLIS > System.currentTimeMillis())) {
+            if (sessionID.equals(cached.sessionID)) {
+                return true;
+            }
+            if (!MULTI_NODE) {
+                return false;
+            }
+        }
+
         Connection conn = null;
         PreparedStatement stmt = null;
         ResultSet rs = null;
         boolean valid = false;
         try {
             conn = provider.getConnection();
-            stmt = conn.prepareStatement("SELECT COUNT(sessionID) FROM StatSessions " +
-                    "WHERE eventID = ? and sessionID = ?");
+            stmt = conn.prepareStatement("SELECT sessionID, version FROM StatSessions WHERE eventID = ?");
             stmt.setInt(1, eventID);
-            stmt.setString(2, sessionID);
             rs = stmt.executeQuery();
-            valid = rs.next() && rs.getInt(1) > 0;
+            CachedSession current = rs.next() ? new CachedSession(rs.getString(1), rs.getLong(2)) :
+                    new CachedSession(null, 0);
+            cacheSession(eventID, current);
+            valid = sessionID.equals(current.sessionID);
         } catch (Exception e) {
             logger.error("Unable to check session validity: " + e.getMessage());
             logger.debug(APIUtils.getStacktraceAsString(e));
@@ -58,6 +127,84 @@ public class StatUtil {
         return valid;
     }
 
+    /**
+     * Lock an event's session row until the caller's transaction ends. Stat writes share
+     * the lock, and ending a session deletes the row, so a session can't end (and its event
+     * be folded into the season stats) while a write that checked it is still in flight.
+     * @param eventID the event ID
+     * @param conn the connection to use, with a transaction open
+     * @return false if the event has no active session
+     * @throws SQLException
+     */
+    public static boolean lockSession(int eventID, Connection conn) throws SQLException {
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = conn.prepareStatement("SELECT eventID FROM StatSessions WHERE eventID = ? LOCK IN SHARE MODE");
+            stmt.setInt(1, eventID);
+            rs = stmt.executeQuery();
+            return rs.next();
+        } finally {
+            APIUtils.closeResources(rs, stmt);
+        }
+    }
+
+    /**
+     * Cache a session unless a newer version is already cached, so that a slow database
+     * read can't overwrite a start, reset or end that happened after it. An evicted event
+     * is just looked up again.
+     */
+    private static void cacheSession(int eventID, CachedSession session) {
+        synchronized (sessions) {
+            CachedSession old = sessions.get(eventID);
+            if (old == null || old.version <= session.version) {
+                sessions.put(eventID, session);
+            }
+        }
+    }
+
+    /**
+     * An event's active session as last seen. A null session ID means no active session.
+     */
+    private static class CachedSession {
+        final String sessionID;
+        final long version;
+        final long checked = System.currentTimeMillis();
+
+        CachedSession(String sessionID, long version) {
+            this.sessionID = sessionID;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Get the sport for an event
+     * @param eventID the event ID
+     * @return the SportType for the event
+     */
+    public static SportType getEventSport(int eventID) {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            conn = provider.getConnection();
+            stmt = conn.prepareStatement("SELECT t.sport FROM Event e INNER JOIN TeamEvent te ON e.EventId = te.EventId " +
+                    "INNER JOIN Team t ON te.TeamId = t.TeamId WHERE e.EventId = ?");
+            stmt.setInt(1, eventID);
+            rs = stmt.executeQuery();
+            if (rs.next()) {
+                return SportType.fromString(rs.getString(1));
+            }
+            return SportType.UNKNOWN;
+        } catch (Exception e) {
+            logger.error("Error getting event sport: " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
+            return SportType.UNKNOWN;
+        } finally {
+            APIUtils.closeResources(rs, stmt, conn);
+        }
+    }
+
     /**
      * Find all of the teams in a given league
      * @param leagueID the league ID
@@ -89,7 +236,8 @@ public class StatUtil {
 
     /**
      * Add the winner of a match to the required participants in the next event
-     * in the bracket, if necessary.
+     * in the bracket, if necessary. The losers are removed and the winner added
+     * in one transaction.
      *
      * @param eventID the event ID
      * @param winnerID the team ID of the winning team
@@ -97,48 +245,56 @@ public class StatUtil {
      * @return true if the next bracket was filled
      */
     public static boolean fillNextBracketEvent(int eventID, int winnerID, Set<Integer> losers) {
-        // Get the next bracket ID if any
-        int nextEventID = getNextEventID(eventID);
-        if (nextEventID < 1) {
-            return false;
-        }
+        Connection conn = null;
+        boolean filled = false;
+        try {
+            conn = provider.getConnection();
 
-        if (!removeTeams(nextEventID, losers)) {
-            return false;
-        }
+            // Get the next bracket ID if any
+            int nextEventID = getNextEventID(eventID, conn);
+            if (nextEventID < 1) {
+                return false;
+            }
 
-        if (!addTeamToEvent(nextEventID, winnerID)) {
-            return false;
+            conn.setAutoCommit(false);
+            removeTeams(nextEventID, losers, conn);
+            filled = addTeamToEvent(nextEventID, winnerID, conn);
+            conn.commit();
+            // the next event's teams changed, and with them who can view and track it
+            PrivilegeUtil.invalidateEvent(nextEventID);
+        } catch (Exception e) {
+            logger.error("Unable to fill next bracket event: " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
+            filled = false;
+            APIUtils.rollback(conn);
+        } finally {
+            APIUtils.setAutoCommit(conn, true);
+            APIUtils.closeResource(conn);
         }
-
-        return true;
+        return filled;
     }
 
     /**
      * Get the next event ID in a bracket
      * @param eventID the current event ID
+     * @param conn the connection to use
      * @return the ID of the next event that follows in a bracket, or 0 if no next event found
+     * @throws SQLException
      */
-    private static int getNextEventID(int eventID) {
-        Connection conn = null;
+    private static int getNextEventID(int eventID, Connection conn) throws SQLException {
         PreparedStatement stmt = null;
         ResultSet rs = null;
         int nextEventID = 0;
         try {
-            conn = provider.getConnection();
             stmt = conn.prepareStatement("SELECT NextEventId FROM Event WHERE EventId = ?");
             stmt.setInt(1, eventID);
             rs = stmt.executeQuery();
             if (rs.next()) {
                 nextEventID = rs.getInt(1);
             }
-        } catch (Exception e) {
-            logger.error("Unable to get next event ID: " + e.getMessage());
-            logger.debug(APIUtils.getStacktraceAsString(e));
         } finally {
-            APIUtils.closeResources(rs, stmt, conn);
+            APIUtils.closeResources(rs, stmt);
         }
-
         return nextEventID;
     }
 
@@ -147,40 +303,36 @@ public class StatUtil {
      *
      * @param eventID the event ID
      * @param teamID the team ID
-     * @return true if successful, false otherwise
+     * @param conn the connection to use
+     * @return true if the team was added
+     * @throws SQLException
      */
-    private static boolean addTeamToEvent(int eventID, int teamID) {
-        Connection conn = null;
+    private static boolean addTeamToEvent(int eventID, int teamID, Connection conn) throws SQLException {
         PreparedStatement stmt = null;
-        int res = 0;
         try {
-            conn = provider.getConnection();
             stmt = conn.prepareStatement("INSERT IGNORE INTO TeamEvent (EventId, TeamId) VALUES (?,?)");
             stmt.setInt(1, eventID);
             stmt.setInt(2, teamID);
-            res = stmt.executeUpdate();
-        } catch (Exception e) {
-            logger.error("Unable to add team to event: " + e.getMessage());
-            logger.debug(APIUtils.getStacktraceAsString(e));
-            return false;
+            return stmt.executeUpdate() > 0;
         } finally {
-            APIUtils.closeResources(stmt, conn);
+            APIUtils.closeResource(stmt);
         }
-
-        return res > 0;
     }
 
     /**
      * Remove teams as required participants for an event
      * @param eventID the event ID
      * @param teamIDs the list of team IDs to remove
-     * @return true if successful, false otherwise
+     * @param conn the connection to use
+     * @throws SQLException
      */
-    private static boolean removeTeams(int eventID, Set<Integer> teamIDs) {
-        Connection conn = null;
+    private static void removeTeams(int eventID, Set<Integer> teamIDs, Connection conn) throws SQLException {
+        if (teamIDs == null || teamIDs.isEmpty()) {
+            return;
+        }
+
         PreparedStatement stmt = null;
         try {
-            conn = provider.getConnection();
             stmt = conn.prepareStatement("DELETE FROM TeamEvent WHERE EventId = ? AND TeamId = ?");
             for (Integer id : teamIDs) {
                 stmt.setInt(1, eventID);
@@ -188,14 +340,8 @@ public class StatUtil {
                 stmt.addBatch();
             }
             stmt.executeBatch();
-        } catch (Exception e) {
-            logger.error("Unable to remove teams from event: " + e.getMessage());
-            logger.debug(APIUtils.getStacktraceAsString(e));
-            return false;
         } finally {
-            APIUtils.closeResources(stmt, conn);
+            APIUtils.closeResource(stmt);
         }
-
-        return true;
     }
 }
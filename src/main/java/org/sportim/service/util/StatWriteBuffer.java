@@ -0,0 +1,351 @@
+package org.sportim.service.util;
+
+import org.apache.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Optional write-behind buffer for stat counters.
+ *
+ * Counter updates (goals = goals + 1 and the like) are summed in memory per row and
+ * written as one batched upsert per table, so trackers posting for the same match
+ * don't queue on the same row locks. Enabled by setting STAT_WRITE_BEHIND_MILLIS to
+ * the flush interval; when it is unset {@link StatLog} writes counters in the same
+ * transaction that logs the action.
+ *
+ * Pending updates for an event are flushed on the interval, when its session ends or
+ * it is finalized, and synchronously before any read of its stats (see {@link #flush(int)}
+ * and {@link #flushAll()}), so reads always see every update that was accepted.
+ *
+ * A flush locks the event's session like any other stat write. Updates that are still
+ * pending once the session has ended (and the event has been folded into the season
+ * stats) are dropped and logged; rebuilding the event from its log recovers them.
+ */
+public class StatWriteBuffer {
+    private static Logger logger = Logger.getLogger(StatWriteBuffer.class.getName());
+    // flushed rows leave the buffer, so they must commit on their own rather than join the caller's unit of work
+    private static ConnectionProvider provider = ConnectionManager.getInstance().getDedicatedProvider();
+    private static final long FLUSH_MILLIS = getFlushMillis();
+    private static ConcurrentHashMap<Integer, EventBuffer> events = new ConcurrentHashMap<Integer, EventBuffer>();
+    private static volatile ScheduledExecutorService flusher = null;
+
+    public static void setConnectionProvider(ConnectionProvider provider) {
+        StatWriteBuffer.provider = provider;
+    }
+
+    /**
+     * The flush interval is read from STAT_WRITE_BEHIND_MILLIS. Zero or unset disables the buffer.
+     * @return the flush interval in milliseconds
+     */
+    private static long getFlushMillis() {
+        String millis = System.getenv("STAT_WRITE_BEHIND_MILLIS");
+        if (millis != null && !millis.isEmpty()) {
+            try {
+                return Math.max(0, Long.parseLong(millis.trim()));
+            } catch (NumberFormatException e) {
+                logger.error("Invalid STAT_WRITE_BEHIND_MILLIS, buffering disabled: " + e.getMessage());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return true if stat counter updates should go through this buffer
+     */
+    public static boolean isEnabled() {
+        return FLUSH_MILLIS > 0;
+    }
+
+    /**
+     * Add to a row's counters
+     * @param table the stat table
+     * @param eventID the event ID
+     * @param teamID the team ID
+     * @param player the player, or null for team tables
+     * @param deltas the amount to add to each counter, in the table's column order
+     */
+    static void add(StatTable table, int eventID, int teamID, String player, int[] deltas) {
+        startFlusher();
+        StatDeltas.Row key = new StatDeltas.Row(table, teamID, player);
+        while (true) {
+            EventBuffer buffer = getBuffer(eventID);
+            if (buffer.add(key, deltas)) {
+                return;
+            }
+            // the buffer was closed after we looked it up; the next lookup gets a fresh one
+            events.remove(eventID, buffer);
+        }
+    }
+
+    /**
+     * Write all pending updates for an event. Concurrent flushes of the same event are
+     * serialized, so when this returns everything accepted before the call is in the database.
+     * @param eventID the event ID
+     * @return true if the pending updates were written (or there were none)
+     */
+    public static boolean flush(int eventID) {
+        EventBuffer buffer = events.get(eventID);
+        return buffer == null || buffer.flush(eventID);
+    }
+
+    /**
+     * Write all pending updates for the given events
+     * @param eventIDs the event IDs
+     * @return true if the pending updates were written
+     */
+    public static boolean flush(Collection<Integer> eventIDs) {
+        boolean success = true;
+        for (Integer eventID : eventIDs) {
+            success = flush(eventID) && success;
+        }
+        return success;
+    }
+
+    /**
+     * Write all pending updates for every event, used before reads that span events
+     * @return true if all pending updates were written
+     */
+    public static boolean flushAll() {
+        boolean success = true;
+        for (Map.Entry<Integer, EventBuffer> entry : events.entrySet()) {
+            success = entry.getValue().flush(entry.getKey()) && success;
+        }
+        return success;
+    }
+
+    /**
+     * Flush an event whose tracking is over (session ended or event finalized) and
+     * release its buffer
+     * @param eventID the event ID
+     * @return true if the pending updates were written
+     */
+    public static boolean close(int eventID) {
+        EventBuffer buffer = events.get(eventID);
+        if (buffer == null) {
+            return true;
+        }
+        // late updates go to a fresh buffer, which the background flusher picks up
+        buffer.close();
+        events.remove(eventID, buffer);
+        if (buffer.flush(eventID)) {
+            return true;
+        }
+        getBuffer(eventID).merge(buffer.drain());
+        return false;
+    }
+
+    /**
+     * Drop any pending updates for an event, used when its stats are deleted
+     * @param eventID the event ID
+     */
+    public static void discard(int eventID) {
+        EventBuffer buffer = events.remove(eventID);
+        if (buffer != null) {
+            buffer.close();
+        }
+    }
+
+    /**
+     * Flush everything and stop the background flusher
+     */
+    public static synchronized void shutdown() {
+        if (flusher != null) {
+            flusher.shutdown();
+            flusher = null;
+        }
+        flushAll();
+    }
+
+    private static EventBuffer getBuffer(int eventID) {
+        EventBuffer buffer = events.get(eventID);
+        if (buffer == null) {
+            buffer = new EventBuffer();
+            EventBuffer existing = events.putIfAbsent(eventID, buffer);
+            if (existing != null) {
+                buffer = existing;
+            }
+        }
+        return buffer;
+    }
+
+    private static void startFlusher() {
+        if (flusher != null) {
+            return;
+        }
+        synchronized (StatWriteBuffer.class) {
+            if (flusher != null) {
+                return;
+            }
+            flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "stat-write-behind");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            flusher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flushAll();
+                    } catch (Exception e) {
+                        logger.error("Stat flush failed: " + e.getMessage());
+                        logger.debug(APIUtils.getStacktraceAsString(e));
+                    }
+                }
+            }, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Write a set of pending rows in one transaction on a dedicated connection, so they
+     * are committed when this returns even if the caller has a transaction open. Rows for
+     * an event whose session has ended are dropped.
+     */
+    private static void write(int eventID, Map<StatDeltas.Row, AtomicIntegerArray> rows) throws SQLException {
+        StatDeltas deltas = new StatDeltas();
+        for (Map.Entry<StatDeltas.Row, AtomicIntegerArray> row : rows.entrySet()) {
+            int[] values = new int[row.getValue().length()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = row.getValue().get(i);
+            }
+            deltas.addRow(row.getKey().table, row.getKey().teamID, row.getKey().player, values);
+        }
+
+        Connection conn = null;
+        try {
+            conn = provider.getConnection();
+            conn.setAutoCommit(false);
+            if (StatUtil.lockSession(eventID, conn)) {
+                deltas.write(eventID, conn);
+            } else {
+                logger.warn("Dropping " + rows.size() + " stat rows buffered after event " + eventID +
+                        "'s session ended; rebuild the event to recover them");
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            APIUtils.rollback(conn);
+            throw e;
+        } finally {
+            APIUtils.setAutoCommit(conn, true);
+            APIUtils.closeResource(conn);
+        }
+    }
+
+    /**
+     * Pending updates for one event.
+     *
+     * Writers increment counters under the shared lock; a flush takes the exclusive lock
+     * only long enough to swap in an empty map, so no increment can land in a map that
+     * is being written out.
+     */
+    private static class EventBuffer {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Object flushLock = new Object();
+        private ConcurrentHashMap<StatDeltas.Row, AtomicIntegerArray> rows = new ConcurrentHashMap<StatDeltas.Row, AtomicIntegerArray>();
+        private boolean closed = false;
+
+        /**
+         * @return false if the buffer has been closed and the update was not added
+         */
+        boolean add(StatDeltas.Row key, int[] deltas) {
+            lock.readLock().lock();
+            try {
+                if (closed) {
+                    return false;
+                }
+                AtomicIntegerArray row = getRow(key);
+                for (int i = 0; i < deltas.length; i++) {
+                    if (deltas[i] != 0) {
+                        row.addAndGet(i, deltas[i]);
+                    }
+                }
+                return true;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        boolean flush(int eventID) {
+            synchronized (flushLock) {
+                Map<StatDeltas.Row, AtomicIntegerArray> pending = drain();
+                if (pending.isEmpty()) {
+                    return true;
+                }
+
+                try {
+                    write(eventID, pending);
+                    return true;
+                } catch (Exception e) {
+                    logger.error("Unable to flush stats for event " + eventID + ": " + e.getMessage());
+                    logger.debug(APIUtils.getStacktraceAsString(e));
+                    // put the updates back so the next flush retries them
+                    merge(pending);
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Take all pending updates, leaving the buffer empty
+         */
+        Map<StatDeltas.Row, AtomicIntegerArray> drain() {
+            lock.writeLock().lock();
+            try {
+                Map<StatDeltas.Row, AtomicIntegerArray> pending = rows;
+                rows = new ConcurrentHashMap<StatDeltas.Row, AtomicIntegerArray>();
+                return pending;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * Add pending updates taken from another flush
+         */
+        void merge(Map<StatDeltas.Row, AtomicIntegerArray> pending) {
+            lock.readLock().lock();
+            try {
+                for (Map.Entry<StatDeltas.Row, AtomicIntegerArray> row : pending.entrySet()) {
+                    AtomicIntegerArray deltas = getRow(row.getKey());
+                    for (int i = 0; i < deltas.length(); i++) {
+                        deltas.addAndGet(i, row.getValue().get(i));
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void close() {
+            lock.writeLock().lock();
+            try {
+                closed = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private AtomicIntegerArray getRow(StatDeltas.Row key) {
+            AtomicIntegerArray deltas = rows.get(key);
+            if (deltas == null) {
+                deltas = new AtomicIntegerArray(key.table.getColumnCount());
+                AtomicIntegerArray existing = rows.putIfAbsent(key, deltas);
+                if (existing != null) {
+                    deltas = existing;
+                }
+            }
+            return deltas;
+        }
+    }
+}
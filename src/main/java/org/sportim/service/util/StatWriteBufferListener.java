@@ -0,0 +1,21 @@
+package org.sportim.service.util;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Flushes any buffered stat updates (see {@link StatWriteBuffer}) and stops the live event
+ * feed (see {@link LiveEventFeed}) when the application stops
+ */
+public class StatWriteBufferListener implements ServletContextListener {
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        StatWriteBuffer.shutdown();
+        LiveEventFeed.shutdown();
+    }
+}
@@ -0,0 +1,141 @@
+package org.sportim.service.util;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, time-limited cache of validated auth tokens. Maps a token to the
+ * login it was issued for so that repeat requests can skip the decrypt and
+ * the Auth table lookup.
+ *
+ * Entries expire after a fixed TTL and the least recently used entry is evicted
+ * once the cache is full. Since each user only has one live token at a time, the
+ * cache also tracks the cached token per user so it can be revoked on re-login or logout.
+ * A token validated before a revocation is not cached after it (see {@link InvalidationEpochs}).
+ */
+public class TokenCache {
+    private final int maxSize;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Entry> entries;
+    private final Map<String, String> tokensByUser = new HashMap<String, String>();
+    private final InvalidationEpochs epochs;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Create a new token cache
+     * @param maxSize the maximum number of tokens to hold
+     * @param ttlMillis how long a validated token may be served from the cache
+     */
+    public TokenCache(final int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.epochs = new InvalidationEpochs(maxSize);
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > TokenCache.this.maxSize) {
+                    removeUserMapping(eldest.getValue().user, eldest.getKey());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the user for a cached token
+     * @param token the token
+     * @return the user the token was validated for, or null if not cached or expired
+     */
+    public synchronized String get(String token) {
+        Entry entry = entries.get(token);
+        if (entry != null && entry.expires < System.currentTimeMillis()) {
+            entries.remove(token);
+            removeUserMapping(entry.user, token);
+            entry = null;
+        }
+
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.user;
+    }
+
+    /**
+     * @return the epoch to pass to {@link #put} once a token has been validated
+     */
+    public long getEpoch() {
+        return epochs.current();
+    }
+
+    /**
+     * Cache a validated token, unless the user's tokens were invalidated since it was validated
+     * @param token the token
+     * @param user the user the token belongs to
+     * @param readEpoch the epoch from before the token was validated
+     */
+    public synchronized void put(String token, String user, long readEpoch) {
+        if (!epochs.isCurrent(user, readEpoch)) {
+            return;
+        }
+        String old = tokensByUser.put(user, token);
+        if (old != null && !old.equals(token)) {
+            entries.remove(old);
+        }
+        entries.put(token, new Entry(user, System.currentTimeMillis() + ttlMillis));
+    }
+
+    /**
+     * Drop any cached token for a user
+     * @param user the user
+     */
+    public synchronized void invalidateUser(String user) {
+        epochs.invalidate(user);
+        String token = tokensByUser.remove(user);
+        if (token != null) {
+            entries.remove(token);
+        }
+    }
+
+    /**
+     * Drop everything from the cache
+     */
+    public synchronized void clear() {
+        epochs.invalidateAll();
+        entries.clear();
+        tokensByUser.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private void removeUserMapping(String user, String token) {
+        if (token.equals(tokensByUser.get(user))) {
+            tokensByUser.remove(user);
+        }
+    }
+
+    private static class Entry {
+        final String user;
+        final long expires;
+
+        Entry(String user, long expires) {
+            this.user = user;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.sportim.service.util;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.bind.DatatypeConverter;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+/**
+ * Issues and verifies HMAC-signed auth tokens. A signed token carries the user's
+ * login, the time it was issued and the user's token generation, so it can be
+ * checked without decrypting anything or reading the stored token.
+ *
+ * Token format: S.&lt;base64 payload&gt;.&lt;base64 HMAC-SHA256 of payload&gt;
+ */
+public class TokenSigner {
+    public static final String PREFIX = "S.";
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final SecretKeySpec key;
+    private final long maxAgeMillis;
+    private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Unable to initialize token MAC", e);
+            }
+        }
+    };
+
+    /**
+     * Create a new token signer
+     * @param secret the signing secret
+     * @param maxAgeMillis how long an issued token stays valid
+     */
+    public TokenSigner(String secret, long maxAgeMillis) {
+        this.key = new SecretKeySpec(secret.getBytes(UTF8), ALGORITHM);
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Check if a token is in the signed format
+     * @param token the token
+     * @return true if the token looks like a signed token
+     */
+    public static boolean isSignedToken(String token) {
+        return token != null && token.startsWith(PREFIX);
+    }
+
+    /**
+     * Create a signed token
+     * @param login the user's login
+     * @param issued time the token is issued, in millis since epoch
+     * @param generation the user's current token generation
+     * @return the signed token
+     */
+    public String sign(String login, long issued, int generation) {
+        byte[] payload = (login + "#" + issued + "#" + generation).getBytes(UTF8);
+        return PREFIX + DatatypeConverter.printBase64Binary(payload) + "." +
+                DatatypeConverter.printBase64Binary(macs.get().doFinal(payload));
+    }
+
+    /**
+     * Verify a signed token's signature and age
+     * @param token the token
+     * @return the token contents, or null if the token is malformed, forged or expired
+     */
+    public SignedToken verify(String token) {
+        if (!isSignedToken(token)) {
+            return null;
+        }
+
+        int sep = token.indexOf('.', PREFIX.length());
+        if (sep < 0) {
+            return null;
+        }
+
+        byte[] payload;
+        byte[] signature;
+        try {
+            payload = DatatypeConverter.parseBase64Binary(token.substring(PREFIX.length(), sep));
+            signature = DatatypeConverter.parseBase64Binary(token.substring(sep + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (!MessageDigest.isEqual(signature, macs.get().doFinal(payload))) {
+            return null;
+        }
+
+        // login may itself contain '#', so split the trailing fields off from the right
+        String contents = new String(payload, UTF8);
+        int genSep = contents.lastIndexOf('#');
+        int issuedSep = genSep > 0 ? contents.lastIndexOf('#', genSep - 1) : -1;
+        if (issuedSep < 1) {
+            return null;
+        }
+
+        SignedToken parsed;
+        try {
+            parsed = new SignedToken(contents.substring(0, issuedSep),
+                    Long.parseLong(contents.substring(issuedSep + 1, genSep)),
+                    Integer.parseInt(contents.substring(genSep + 1)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        if (System.currentTimeMillis() - parsed.issued > maxAgeMillis) {
+            return null;
+        }
+        return parsed;
+    }
+
+    /**
+     * Contents of a verified signed token
+     */
+    public static class SignedToken {
+        public final String login;
+        public final long issued;
+        public final int generation;
+
+        public SignedToken(String login, long issued, int generation) {
+            this.login = login;
+            this.issued = issued;
+            this.generation = generation;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package org.sportim.service.util;
+
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Request-scoped unit of work. While a unit of work is bound to the current thread,
+ * {@link ConnectionManager} borrows one pooled connection on first use and hands out
+ * lightweight handles to it for every later getConnection call. The pooled connection
+ * is returned when the unit of work ends.
+ *
+ * Handles keep the usual JDBC idiom working:
+ * - close() releases the handle, not the pooled connection
+ * - setAutoCommit(false) on the first handle starts a transaction; handles that start
+ *   one while another is open join it, and their commit() is deferred to the outer one
+ * - rollback() in a joined transaction marks the whole transaction rollback-only
+ * - a handle closed with its transaction still open rolls it back, the same as
+ *   closing a pooled connection with uncommitted work
+ *
+ * Work that must only happen once a transaction is durable (updating in-memory state
+ * to match it, say) can be deferred with {@link #runAfterCommit}.
+ */
+public class UnitOfWork {
+    private static Logger logger = Logger.getLogger(UnitOfWork.class.getName());
+    private static final ThreadLocal<UnitOfWork> current = new ThreadLocal<UnitOfWork>();
+
+    private Connection conn = null;
+    private int depth = 0;
+    private boolean rollbackOnly = false;
+    private List<Runnable> afterCommit = new ArrayList<Runnable>();
+
+    private UnitOfWork() {
+    }
+
+    /**
+     * Bind a new unit of work to the current thread
+     * @return the unit of work, or null if one is already bound (the caller must not end it)
+     */
+    public static UnitOfWork begin() {
+        if (current.get() != null) {
+            return null;
+        }
+        UnitOfWork work = new UnitOfWork();
+        current.set(work);
+        return work;
+    }
+
+    /**
+     * Get the unit of work bound to the current thread
+     * @return the unit of work or null if none is bound
+     */
+    public static UnitOfWork current() {
+        return current.get();
+    }
+
+    /**
+     * Run a task once the current thread's transaction commits. If the thread has no unit of
+     * work, or its unit of work has no open transaction, the task runs immediately. Tasks
+     * are dropped if the transaction rolls back.
+     * @param task the task to run
+     */
+    public static void runAfterCommit(Runnable task) {
+        UnitOfWork work = current.get();
+        if (work != null && work.depth > 0) {
+            work.afterCommit.add(task);
+        } else {
+            task.run();
+        }
+    }
+
+    /**
+     * Run the tasks waiting on the transaction that just committed
+     */
+    private void committed() {
+        List<Runnable> tasks = afterCommit;
+        afterCommit = new ArrayList<Runnable>();
+        for (Runnable task : tasks) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                logger.error("After-commit task failed: " + e.getMessage());
+                logger.debug(APIUtils.getStacktraceAsString(e));
+            }
+        }
+    }
+
+    /**
+     * End this unit of work: roll back any transaction left open, return the pooled
+     * connection and unbind from the current thread
+     */
+    public void end() {
+        try {
+            if (conn != null && depth > 0) {
+                logger.error("Unit of work ended with an open transaction; rolling back");
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            logger.error("Unable to roll back unit of work: " + e.getMessage());
+            logger.debug(APIUtils.getStacktraceAsString(e));
+        } finally {
+            APIUtils.closeResource(conn);
+            conn = null;
+            depth = 0;
+            rollbackOnly = false;
+            afterCommit.clear();
+            if (current.get() == this) {
+                current.remove();
+            }
+        }
+    }
+
+    /**
+     * Get a handle to this unit of work's connection, borrowing it on first use
+     * @param pool where to borrow the connection from
+     * @return a connection handle, or null if the pool returned no connection
+     * @throws SQLException if a connection cannot be borrowed
+     */
+    Connection getConnection(ConnectionProvider pool) throws SQLException {
+        if (conn == null) {
+            conn = pool.getConnection();
+            if (conn == null) {
+                return null;
+            }
+        }
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new Handle());
+    }
+
+    /**
+     * A borrower's view of the shared connection
+     */
+    private class Handle implements InvocationHandler {
+        private boolean closed = false;
+        private boolean inTransaction = false;
+        private boolean outermost = false;
+        private boolean finished = false;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                if (!closed) {
+                    closed = true;
+                    if (inTransaction) {
+                        endTransaction(false);
+                    }
+                }
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return closed || conn == null || conn.isClosed();
+            }
+            if (closed) {
+                throw new SQLException("Connection handle is closed");
+            }
+
+            if (name.equals("setAutoCommit")) {
+                boolean autoCommit = (Boolean) args[0];
+                if (!autoCommit && !inTransaction) {
+                    beginTransaction();
+                } else if (autoCommit && inTransaction) {
+                    endTransaction(true);
+                }
+                return null;
+            }
+            // while any handle has a transaction open, only its outermost handle may end it
+            if (name.equals("commit") && depth > 0) {
+                if (outermost) {
+                    commitOrRollback();
+                }
+                finished = true;
+                return null;
+            }
+            if (name.equals("rollback") && depth > 0 && (args == null || args.length == 0)) {
+                if (outermost) {
+                    conn.rollback();
+                    rollbackOnly = false;
+                    afterCommit.clear();
+                } else {
+                    rollbackOnly = true;
+                }
+                finished = true;
+                return null;
+            }
+
+            try {
+                return method.invoke(conn, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void beginTransaction() throws SQLException {
+            if (depth == 0) {
+                conn.setAutoCommit(false);
+                rollbackOnly = false;
+                outermost = true;
+            }
+            depth++;
+            inTransaction = true;
+            finished = false;
+        }
+
+        /**
+         * Leave this handle's transaction
+         * @param commitPending true if pending work should be committed (setAutoCommit(true)),
+         *                      false if it should be discarded (close without commit)
+         */
+        private void endTransaction(boolean commitPending) throws SQLException {
+            inTransaction = false;
+            depth--;
+            if (!commitPending && !finished) {
+                rollbackOnly = true;
+            }
+
+            if (outermost) {
+                outermost = false;
+                try {
+                    if (commitPending) {
+                        commitOrRollback();
+                    } else {
+                        conn.rollback();
+                        afterCommit.clear();
+                    }
+                } finally {
+                    rollbackOnly = false;
+                    conn.setAutoCommit(true);
+                }
+            }
+        }
+
+        private void commitOrRollback() throws SQLException {
+            if (rollbackOnly) {
+                conn.rollback();
+                rollbackOnly = false;
+                afterCommit.clear();
+                throw new SQLException("Transaction was marked rollback-only by a nested operation");
+            }
+            conn.commit();
+            committed();
+        }
+    }
+}
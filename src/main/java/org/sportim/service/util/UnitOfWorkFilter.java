@@ -0,0 +1,33 @@
+package org.sportim.service.util;
+
+import javax.servlet.*;
+import java.io.IOException;
+
+/**
+ * Servlet filter that binds a {@link UnitOfWork} to each request, so every DAO call
+ * made while handling the request shares one pooled connection. The connection is
+ * returned once the response has been written.
+ */
+public class UnitOfWorkFilter implements Filter {
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        UnitOfWork work = UnitOfWork.begin();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (work != null) {
+                work.end();
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
@@ -0,0 +1,43 @@
+package org.sportim.service.util;
+
+import java.security.Principal;
+
+/**
+ * The authenticated user for a request.
+ */
+public class UserPrincipal implements Principal {
+    private final String login;
+
+    public UserPrincipal(String login) {
+        this.login = login;
+    }
+
+    /**
+     * Get the login of a principal
+     * @param principal the principal, may be null
+     * @return the principal's login, or null if there is no principal
+     */
+    public static String getLogin(Principal principal) {
+        return principal != null ? principal.getName() : null;
+    }
+
+    @Override
+    public String getName() {
+        return login;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return (o instanceof UserPrincipal) && login.equals(((UserPrincipal)o).login);
+    }
+
+    @Override
+    public int hashCode() {
+        return login.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return login;
+    }
+}
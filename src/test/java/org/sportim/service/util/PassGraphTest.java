@@ -0,0 +1,106 @@
+package org.sportim.service.util;
+
+import org.junit.Test;
+import org.sportim.service.beans.stats.PassBean;
+import org.sportim.service.beans.stats.PassGraphBean;
+import org.sportim.service.beans.stats.PassGraphPlayerBean;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class PassGraphTest {
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void chainMiddlePlayerSitsBetweenTheEnds() {
+        Map<String, PassGraphPlayerBean> players = players(new PassGraph.Builder(1)
+                .add("a", "b", 1)
+                .add("b", "c", 1)
+                .build().toBean(10));
+
+        // b is on the only path from a to c, one of the (3 - 1)(3 - 2) ordered pairs
+        assertEquals(0.5, players.get("b").betweenness, DELTA);
+        assertEquals(0, players.get("a").betweenness, DELTA);
+        assertEquals(0, players.get("c").betweenness, DELTA);
+
+        // b's two partners never pass to each other
+        assertEquals(0, players.get("b").clustering, DELTA);
+    }
+
+    @Test
+    public void directedTriangleIsFullyClustered() {
+        PassGraphBean bean = new PassGraph.Builder(1)
+                .add("a", "b", 1)
+                .add("b", "c", 1)
+                .add("c", "a", 1)
+                .build().toBean(10);
+        Map<String, PassGraphPlayerBean> players = players(bean);
+
+        assertEquals(1, bean.averageClustering, DELTA);
+        for (PassGraphPlayerBean player : players.values()) {
+            assertEquals(1, player.clustering, DELTA);
+            // each player is the only step on one two-pass route
+            assertEquals(0.5, player.betweenness, DELTA);
+        }
+    }
+
+    @Test
+    public void parallelShortestPathsShareBetweenness() {
+        Map<String, PassGraphPlayerBean> players = players(new PassGraph.Builder(1)
+                .add("a", "b", 1)
+                .add("a", "c", 1)
+                .add("b", "d", 1)
+                .add("c", "d", 1)
+                .build().toBean(10));
+
+        // b and c each carry half of the a to d paths, out of 3 * 2 ordered pairs
+        assertEquals(0.5 / 6, players.get("b").betweenness, DELTA);
+        assertEquals(0.5 / 6, players.get("c").betweenness, DELTA);
+        assertEquals(0, players.get("a").betweenness, DELTA);
+    }
+
+    @Test
+    public void repeatedPairsAreSummedAndSelfPassesIgnored() {
+        PassGraph graph = new PassGraph.Builder(7)
+                .add("a", "b", 2)
+                .add("a", "b", 3)
+                .add("a", "a", 4)
+                .add("b", "a", 1)
+                .build();
+        PassGraphBean bean = graph.toBean(1);
+        Map<String, PassGraphPlayerBean> players = players(bean);
+
+        assertEquals(7, graph.getTeamID());
+        assertEquals(2, graph.getPlayerCount());
+        assertEquals(6, graph.getTotalPasses());
+        assertEquals(5, players.get("a").passesMade);
+        assertEquals(1, players.get("a").outDegree);
+        assertEquals(5, players.get("b").passesReceived);
+        assertEquals(1, players.get("b").passesMade);
+        assertEquals(5.0 / 6, players.get("a").passShare, DELTA);
+
+        assertEquals(1, bean.topPasses.size());
+        PassBean heaviest = bean.topPasses.get(0);
+        assertEquals("a", heaviest.from);
+        assertEquals("b", heaviest.to);
+        assertEquals(5, heaviest.count);
+    }
+
+    @Test
+    public void emptyGraphHasNoMetrics() {
+        PassGraphBean bean = new PassGraph.Builder(1).build().toBean(10);
+        assertEquals(0, bean.totalPasses);
+        assertEquals(0, bean.players.size());
+        assertEquals(0, bean.averageClustering, DELTA);
+    }
+
+    private static Map<String, PassGraphPlayerBean> players(PassGraphBean bean) {
+        Map<String, PassGraphPlayerBean> players = new HashMap<String, PassGraphPlayerBean>();
+        for (PassGraphPlayerBean player : bean.players) {
+            players.put(player.login, player);
+        }
+        return players;
+    }
+}
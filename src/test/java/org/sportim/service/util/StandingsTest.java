@@ -0,0 +1,97 @@
+package org.sportim.service.util;
+
+import org.junit.Test;
+import org.sportim.service.beans.stats.AbstractTeamResultsBean;
+import org.sportim.service.soccer.beans.SoccerTeamResultsBean;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class StandingsTest {
+
+    @Test
+    public void winMovesTeamUpAndRenumbersOnlyTheRowsBetween() {
+        List<AbstractTeamResultsBean> table = table(team(1, 9, 3), team(2, 6, 2), team(3, 3, 1), team(4, 0, 0));
+        Map<Integer, AbstractTeamResultsBean> changes = changes(team(3, 7, 2));
+
+        int[] changed = Standings.reposition(table, changes, SportType.SOCCER);
+
+        assertArrayEquals(new int[] {0, 2}, changed);
+        assertOrder(table, 3, 1, 2, 4);
+        assertEquals(10, ((SoccerTeamResultsBean)table.get(0)).points);
+        assertEquals(1, table.get(0).rank);
+        assertEquals(2, table.get(1).rank);
+        assertEquals(3, table.get(2).rank);
+    }
+
+    @Test
+    public void takingAwayResultsMovesTeamDown() {
+        List<AbstractTeamResultsBean> table = table(team(1, 9, 3), team(2, 6, 2), team(3, 3, 1));
+        Map<Integer, AbstractTeamResultsBean> changes = changes(team(1, -9, -3));
+
+        int[] changed = Standings.reposition(table, changes, SportType.SOCCER);
+
+        assertArrayEquals(new int[] {0, 2}, changed);
+        assertOrder(table, 2, 3, 1);
+        assertEquals(3, table.get(2).rank);
+    }
+
+    @Test
+    public void newTeamIsInsertedInPlace() {
+        List<AbstractTeamResultsBean> table = table(team(1, 9, 3), team(2, 3, 1));
+        Map<Integer, AbstractTeamResultsBean> changes = changes(team(5, 6, 2));
+
+        int[] changed = Standings.reposition(table, changes, SportType.SOCCER);
+
+        assertArrayEquals(new int[] {1, 2}, changed);
+        assertOrder(table, 1, 5, 2);
+        assertEquals(2, table.get(1).rank);
+        assertEquals(3, table.get(2).rank);
+    }
+
+    @Test
+    public void noChangesLeaveTableAlone() {
+        List<AbstractTeamResultsBean> table = table(team(1, 9, 3), team(2, 3, 1));
+
+        assertNull(Standings.reposition(table, new LinkedHashMap<Integer, AbstractTeamResultsBean>(),
+                SportType.SOCCER));
+        assertOrder(table, 1, 2);
+    }
+
+    private static SoccerTeamResultsBean team(int teamID, int points, int wins) {
+        SoccerTeamResultsBean team = new SoccerTeamResultsBean(teamID);
+        team.points = points;
+        team.wins = wins;
+        return team;
+    }
+
+    private static List<AbstractTeamResultsBean> table(SoccerTeamResultsBean... teams) {
+        List<AbstractTeamResultsBean> table = new ArrayList<AbstractTeamResultsBean>();
+        for (int i = 0; i < teams.length; i++) {
+            teams[i].rank = i + 1;
+            table.add(teams[i]);
+        }
+        return table;
+    }
+
+    private static Map<Integer, AbstractTeamResultsBean> changes(SoccerTeamResultsBean... teams) {
+        Map<Integer, AbstractTeamResultsBean> changes = new LinkedHashMap<Integer, AbstractTeamResultsBean>();
+        for (SoccerTeamResultsBean team : teams) {
+            changes.put(team.teamID, team);
+        }
+        return changes;
+    }
+
+    private static void assertOrder(List<AbstractTeamResultsBean> table, int... teamIDs) {
+        assertEquals(teamIDs.length, table.size());
+        for (int i = 0; i < teamIDs.length; i++) {
+            assertEquals(teamIDs[i], table.get(i).teamID);
+        }
+    }
+}
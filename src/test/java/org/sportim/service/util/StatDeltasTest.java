@@ -0,0 +1,67 @@
+package org.sportim.service.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StatDeltasTest {
+
+    @Test
+    public void changesToTheSameRowAreSummed() {
+        StatDeltas deltas = new StatDeltas()
+                .add(StatTable.SOCCER_STATS, 1, "a", "goals", "shots")
+                .add(StatTable.SOCCER_STATS, 1, "a", "shots");
+
+        assertEquals(1, deltas.getRows().size());
+        assertEquals(1, count(deltas, StatTable.SOCCER_STATS, 1, "a", "goals"));
+        assertEquals(2, count(deltas, StatTable.SOCCER_STATS, 1, "a", "shots"));
+        assertEquals(0, count(deltas, StatTable.SOCCER_STATS, 1, "a", "saves"));
+    }
+
+    @Test
+    public void rowsAreKeyedByTableTeamAndPlayer() {
+        StatDeltas deltas = new StatDeltas()
+                .add(StatTable.SOCCER_STATS, 1, "a", "goals")
+                .add(StatTable.SOCCER_STATS, 2, "a", "goals")
+                .add(StatTable.SOCCER_STATS, 1, "b", "goals")
+                .add(StatTable.ULTIMATE_TEAM_STATS, 1, null, "pointsagainst");
+
+        assertEquals(4, deltas.getRows().size());
+        assertEquals(1, count(deltas, StatTable.ULTIMATE_TEAM_STATS, 1, null, "pointsagainst"));
+    }
+
+    @Test
+    public void addAllAppliesAndReverses() {
+        StatDeltas other = new StatDeltas()
+                .add(StatTable.SOCCER_STATS, 1, "a", "goals")
+                .addPass("a", "b");
+        StatDeltas deltas = new StatDeltas();
+
+        deltas.addAll(other, 1);
+        deltas.addAll(other, 1);
+        assertEquals(2, count(deltas, StatTable.SOCCER_STATS, 1, "a", "goals"));
+        assertTrue(deltas.hasPasses());
+
+        deltas.addAll(other, -1);
+        deltas.addAll(other, -1);
+        assertEquals(0, count(deltas, StatTable.SOCCER_STATS, 1, "a", "goals"));
+    }
+
+    @Test
+    public void emptyUntilSomethingIsAdded() {
+        StatDeltas deltas = new StatDeltas();
+        assertTrue(deltas.isEmpty());
+        assertFalse(deltas.hasPasses());
+
+        deltas.addPass("a", "b");
+        assertFalse(deltas.isEmpty());
+        assertTrue(deltas.hasPasses());
+    }
+
+    static int count(StatDeltas deltas, StatTable table, int teamID, String player, String column) {
+        int[] row = deltas.getRows().get(new StatDeltas.Row(table, teamID, player));
+        return row == null ? 0 : row[table.indexOf(column)];
+    }
+}
@@ -0,0 +1,109 @@
+package org.sportim.service.util;
+
+import org.junit.Test;
+import org.sportim.service.beans.stats.PassBean;
+import org.sportim.service.soccer.beans.SoccerScoreBean;
+import org.sportim.service.soccer.beans.SoccerShotBean;
+import org.sportim.service.ultimatefrisbee.beans.UltimateScoreBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.sportim.service.util.StatDeltasTest.count;
+
+public class StatLogTest {
+
+    @Test
+    public void goalCountsForScorerAssistAndGoalkeeper() {
+        SoccerScoreBean goal = new SoccerScoreBean();
+        goal.teamID = 1;
+        goal.goalieTeamID = 2;
+        goal.player = "scorer";
+        goal.assist = "assister";
+        goal.goalkeeper = "keeper";
+
+        StatDeltas deltas = StatLog.project(StatLog.SOCCER_GOAL, goal);
+
+        assertEquals(1, count(deltas, StatTable.SOCCER_STATS, 1, "scorer", "goals"));
+        assertEquals(1, count(deltas, StatTable.SOCCER_STATS, 1, "scorer", "shots"));
+        assertEquals(1, count(deltas, StatTable.SOCCER_STATS, 1, "scorer", "shotsongoal"));
+        assertEquals(1, count(deltas, StatTable.SOCCER_STATS, 1, "assister", "assists"));
+        assertEquals(1, count(deltas, StatTable.SOCCER_STATS, 2, "keeper", "goalsagainst"));
+        assertEquals(3, deltas.getRows().size());
+    }
+
+    @Test
+    public void unassistedGoalHasNoAssistRow() {
+        SoccerScoreBean goal = new SoccerScoreBean();
+        goal.teamID = 1;
+        goal.goalieTeamID = 2;
+        goal.player = "scorer";
+        goal.goalkeeper = "keeper";
+
+        assertEquals(2, StatLog.project(StatLog.SOCCER_GOAL, goal).getRows().size());
+    }
+
+    @Test
+    public void shotOnGoalIsASave() {
+        SoccerShotBean shot = new SoccerShotBean();
+        shot.teamID = 1;
+        shot.goalieTeamID = 2;
+        shot.player = "shooter";
+        shot.goalkeeper = "keeper";
+        shot.onGoal = true;
+
+        StatDeltas deltas = StatLog.project(StatLog.SOCCER_SHOT, shot);
+
+        assertEquals(1, count(deltas, StatTable.SOCCER_STATS, 1, "shooter", "shots"));
+        assertEquals(1, count(deltas, StatTable.SOCCER_STATS, 1, "shooter", "shotsongoal"));
+        assertEquals(1, count(deltas, StatTable.SOCCER_STATS, 2, "keeper", "saves"));
+    }
+
+    @Test
+    public void shotOffGoalOnlyCountsTheShot() {
+        SoccerShotBean shot = new SoccerShotBean();
+        shot.teamID = 1;
+        shot.goalieTeamID = 2;
+        shot.player = "shooter";
+        shot.goalkeeper = "keeper";
+
+        StatDeltas deltas = StatLog.project(StatLog.SOCCER_SHOT, shot);
+
+        assertEquals(1, count(deltas, StatTable.SOCCER_STATS, 1, "shooter", "shots"));
+        assertEquals(0, count(deltas, StatTable.SOCCER_STATS, 1, "shooter", "shotsongoal"));
+        assertEquals(1, deltas.getRows().size());
+    }
+
+    @Test
+    public void ultimatePointCountsAgainstTheOtherTeam() {
+        UltimateScoreBean point = new UltimateScoreBean();
+        point.teamID = 1;
+        point.opposingTeamID = 2;
+        point.thrower = "thrower";
+        point.receiver = "receiver";
+
+        StatDeltas deltas = StatLog.project(StatLog.ULTIMATE_POINT, point);
+
+        assertEquals(1, count(deltas, StatTable.ULTIMATE_STATS, 1, "thrower", "pointsthrown"));
+        assertEquals(1, count(deltas, StatTable.ULTIMATE_STATS, 1, "receiver", "pointsreceived"));
+        assertEquals(1, count(deltas, StatTable.ULTIMATE_TEAM_STATS, 2, null, "pointsagainst"));
+    }
+
+    @Test
+    public void passOnlyTouchesPassing() {
+        PassBean pass = new PassBean();
+        pass.from = "a";
+        pass.to = "b";
+
+        StatDeltas deltas = StatLog.project(StatLog.PASS, pass);
+
+        assertTrue(deltas.hasPasses());
+        assertTrue(deltas.getRows().isEmpty());
+        assertFalse(deltas.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownTypeIsRejected() {
+        StatLog.project("cricket.wicket", new Object());
+    }
+}